@@ -0,0 +1,16 @@
+-- Indexes the keyset-paginated deposit and withdrawal listings seek backwards, so a page reads only its own rows.
+-- CREATE INDEX CONCURRENTLY cannot run inside a transaction: apply this file with autocommit, e.g.
+--   psql "$DATABASE_URL" -v ON_ERROR_STOP=1 -f config/migrations/001_listing_indexes.sql
+-- A build that fails halfway leaves an INVALID index behind; drop it and run the file again.
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS poker_deposit_listing_idx
+    ON poker_deposit (create_date, deposit_id);
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS poker_deposit_user_listing_idx
+    ON poker_deposit (user_id, create_date, deposit_id);
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS poker_withdrawal_listing_idx
+    ON poker_withdrawal (create_date, withdrawal_id);
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS poker_withdrawal_user_listing_idx
+    ON poker_withdrawal (user_id, create_date, withdrawal_id);
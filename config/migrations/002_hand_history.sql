@@ -0,0 +1,26 @@
+-- Finished hands copied from the hand log by HandHistoryIngester, and how far each node has read its log.
+-- hand_history is partitioned by day of started_at; the ingester creates the daily partitions as hands arrive and
+-- drops the ones past the retention, so only the parent table is created here.
+
+CREATE TABLE IF NOT EXISTS hand_history (
+    started_at  timestamptz NOT NULL,
+    table_id    bigint      NOT NULL,
+    hand_id     bigint      NOT NULL,
+    finished_at timestamptz NOT NULL,
+    outcome     text        NOT NULL,
+    small_blind integer     NOT NULL,
+    big_blind   integer     NOT NULL,
+    pot         integer     NOT NULL,
+    user_ids    integer[]   NOT NULL,
+    records     jsonb       NOT NULL,
+    PRIMARY KEY (table_id, hand_id, started_at)
+) PARTITION BY RANGE (started_at);
+
+CREATE INDEX IF NOT EXISTS hand_history_user_ids ON hand_history USING GIN (user_ids);
+
+CREATE TABLE IF NOT EXISTS hand_history_cursor (
+    node_id    text PRIMARY KEY,
+    segment    bigint      NOT NULL,
+    position   integer     NOT NULL,
+    updated_at timestamptz NOT NULL
+);
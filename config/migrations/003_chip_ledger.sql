@@ -0,0 +1,33 @@
+-- State of the chip ledger of each node, see ChipLedgerService.
+-- chip_ledger_cursor: how far the ledger has applied the node's hand log, and where the oldest hand still open at that
+-- point starts. chip_ledger_reservation: buy-ins taken from the balance whose seat is not in the hand log yet.
+-- chip_ledger_parked: balance changes the locked amount guard refused, retried until they fit.
+
+CREATE TABLE IF NOT EXISTS chip_ledger_cursor (
+    node_id         text PRIMARY KEY,
+    segment         bigint      NOT NULL,
+    position        integer     NOT NULL,
+    replay_segment  bigint      NOT NULL,
+    replay_position integer     NOT NULL,
+    updated_at      timestamptz NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS chip_ledger_reservation (
+    reservation_id bigserial PRIMARY KEY,
+    node_id        text        NOT NULL,
+    table_id       bigint      NOT NULL,
+    user_id        integer     NOT NULL,
+    amount         integer     NOT NULL,
+    reserved_at    timestamptz NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS chip_ledger_reservation_seat ON chip_ledger_reservation (node_id, table_id, user_id);
+
+CREATE TABLE IF NOT EXISTS chip_ledger_parked (
+    parked_id bigserial PRIMARY KEY,
+    node_id   text        NOT NULL,
+    user_id   integer     NOT NULL,
+    locked    integer     NOT NULL,
+    balance   integer     NOT NULL,
+    parked_at timestamptz NOT NULL
+);
@@ -3,17 +3,31 @@ package dev.manestack.config;
 import io.agroal.api.AgroalDataSource;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jooq.DSLContext;
 import org.jooq.SQLDialect;
+import org.jooq.conf.Settings;
 import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultConfiguration;
+
+import java.time.Duration;
 
 public class Configurator {
 
     @Inject
     AgroalDataSource ds;
+    @Inject
+    QueryExecutor queryExecutor;
+
+    @ConfigProperty(name = "dev.manestack.query.timeout", defaultValue = "PT10S")
+    Duration queryTimeout;
 
     @ApplicationScoped
     public DSLContext getContext() {
-        return DSL.using(ds, SQLDialect.POSTGRES);
+        return DSL.using(new DefaultConfiguration()
+                .set(ds)
+                .set(SQLDialect.POSTGRES)
+                .set(new Settings().withQueryTimeout((int) Math.max(1, queryTimeout.toSeconds())))
+                .set(queryExecutor.getListener()));
     }
 }
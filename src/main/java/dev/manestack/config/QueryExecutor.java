@@ -0,0 +1,121 @@
+package dev.manestack.config;
+
+import io.vertx.core.json.JsonObject;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jooq.ExecuteContext;
+import org.jooq.ExecuteListener;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/*
+ * Runs the blocking jOOQ work of the services on virtual threads, for use with emitOn. A waiting virtual thread costs
+ * next to nothing, so the only limit on concurrent database work is the permits, one per pooled connection: a task
+ * past that waits for a permit rather than holding a thread, and a burst of logins no longer queues behind a report.
+ * Background writers with a thread of their own, like the chip ledger and the hand history ingester, take their
+ * permits through call, so they never hold a connection the permits do not account for.
+ *
+ * The listener times every statement of the DSLContext and counts the ones cancelled by the query timeout.
+ */
+@ApplicationScoped
+public class QueryExecutor implements Executor {
+    // Postgres reports a statement cancelled by its timeout as query_canceled.
+    private static final String QUERY_CANCELED = "57014";
+    private final ExecutorService threads = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("query-", 0).factory());
+    private final AtomicInteger waitingTasks = new AtomicInteger();
+    private final AtomicInteger activeTasks = new AtomicInteger();
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong failedQueries = new AtomicLong();
+    private final AtomicLong timedOutQueries = new AtomicLong();
+    private final AtomicLong queryNanos = new AtomicLong();
+    private final AtomicLong maxQueryNanos = new AtomicLong();
+    private Semaphore permits;
+
+    @ConfigProperty(name = "quarkus.datasource.jdbc.max-size", defaultValue = "20")
+    int maxConcurrency;
+
+    @PostConstruct
+    void init() {
+        permits = new Semaphore(maxConcurrency, true);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        threads.shutdown();
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        threads.execute(() -> call(() -> {
+            task.run();
+            return null;
+        }));
+    }
+
+    // Runs the task on the calling thread once a permit is free.
+    public <T> T call(Supplier<T> task) {
+        waitingTasks.incrementAndGet();
+        permits.acquireUninterruptibly();
+        waitingTasks.decrementAndGet();
+        activeTasks.incrementAndGet();
+        try {
+            return task.get();
+        } finally {
+            activeTasks.decrementAndGet();
+            permits.release();
+        }
+    }
+
+    public ExecuteListener getListener() {
+        return new ExecuteListener() {
+            @Override
+            public void executeStart(ExecuteContext context) {
+                context.data(QueryExecutor.class, System.nanoTime());
+            }
+
+            @Override
+            public void executeEnd(ExecuteContext context) {
+                Object started = context.data(QueryExecutor.class);
+                if (started != null) {
+                    long nanos = System.nanoTime() - (Long) started;
+                    queries.incrementAndGet();
+                    queryNanos.addAndGet(nanos);
+                    maxQueryNanos.accumulateAndGet(nanos, Math::max);
+                }
+            }
+
+            @Override
+            public void exception(ExecuteContext context) {
+                failedQueries.incrementAndGet();
+                SQLException exception = context.sqlException();
+                if (exception instanceof SQLTimeoutException
+                        || (exception != null && QUERY_CANCELED.equals(exception.getSQLState()))) {
+                    timedOutQueries.incrementAndGet();
+                }
+            }
+        };
+    }
+
+    public JsonObject getMetrics() {
+        long count = queries.get();
+        return new JsonObject()
+                .put("maxConcurrency", maxConcurrency)
+                .put("activeTasks", activeTasks.get())
+                .put("waitingTasks", waitingTasks.get())
+                .put("queries", count)
+                .put("failedQueries", failedQueries.get())
+                .put("timedOutQueries", timedOutQueries.get())
+                .put("averageQueryMillis", count == 0 ? 0 : queryNanos.get() / count / 1_000_000.0)
+                .put("maxQueryMillis", maxQueryNanos.get() / 1_000_000.0);
+    }
+}
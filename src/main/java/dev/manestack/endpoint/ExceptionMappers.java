@@ -8,6 +8,8 @@ import org.jboss.logging.Logger;
 import org.jboss.resteasy.reactive.RestResponse;
 import org.jboss.resteasy.reactive.server.ServerExceptionMapper;
 
+import java.util.concurrent.RejectedExecutionException;
+
 @Provider
 public class ExceptionMappers {
     private static final Logger LOG = Logger.getLogger("VoiceChannelController");
@@ -20,6 +22,8 @@ public class ExceptionMappers {
             status = Response.Status.NOT_FOUND;
         } else if (throwable instanceof IllegalArgumentException) {
             status = Response.Status.BAD_REQUEST;
+        } else if (throwable instanceof RejectedExecutionException) {
+            status = Response.Status.TOO_MANY_REQUESTS;
         } else {
             status = Response.Status.INTERNAL_SERVER_ERROR;
         }
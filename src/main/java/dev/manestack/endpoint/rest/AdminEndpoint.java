@@ -2,15 +2,27 @@ package dev.manestack.endpoint.rest;
 
 import dev.manestack.service.GameService;
 import dev.manestack.service.UserService;
+import dev.manestack.service.history.HandLog;
 import dev.manestack.service.poker.table.GameTable;
+import dev.manestack.service.poker.tournament.Tournament;
 import dev.manestack.service.user.Deposit;
+import dev.manestack.service.user.ListingFilter;
 import dev.manestack.service.user.User;
 import dev.manestack.service.user.Withdrawal;
 import io.quarkus.security.identity.CurrentIdentityAssociation;
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
 import jakarta.annotation.security.RolesAllowed;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
+import jakarta.ws.rs.core.Response;
+import org.jboss.resteasy.reactive.RestStreamElementType;
+import org.jboss.resteasy.reactive.common.util.RestMediaType;
 
 import java.util.List;
 
@@ -32,9 +44,28 @@ public class AdminEndpoint {
 
     @GET
     @Path("/deposit")
-    public Uni<List<Deposit>> fetchDeposits(@QueryParam("userId") Integer userId) {
+    public Uni<ListingFilter.Page<Deposit>> fetchDeposits(@QueryParam("userId") Integer userId,
+                                                         @QueryParam("type") String type,
+                                                         @QueryParam("from") String from,
+                                                         @QueryParam("to") String to,
+                                                         @QueryParam("cursor") String cursor,
+                                                         @QueryParam("limit") Integer limit) {
         return identity.getDeferredIdentity()
-                .chain(identity -> userService.fetchDeposits(userId));
+                .chain(identity -> userService.fetchDeposits(ListingFilter.of(userId, type, from, to, cursor, limit)));
+    }
+
+    // One JSON deposit per line, written as the pages are read.
+    @GET
+    @Path("/deposit/export")
+    @Produces(RestMediaType.APPLICATION_NDJSON)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    public Multi<Deposit> exportDeposits(@QueryParam("userId") Integer userId,
+                                         @QueryParam("type") String type,
+                                         @QueryParam("from") String from,
+                                         @QueryParam("to") String to) {
+        return identity.getDeferredIdentity()
+                .onItem().transformToMulti(identity -> userService.exportDeposits(
+                        ListingFilter.of(userId, type, from, to, null, ListingFilter.MAX_LIMIT)));
     }
 
     @POST
@@ -46,9 +77,27 @@ public class AdminEndpoint {
 
     @GET
     @Path("/withdrawal")
-    public Uni<List<Withdrawal>> fetchWithdrawals(@QueryParam("userId") Integer userId) {
+    public Uni<ListingFilter.Page<Withdrawal>> fetchWithdrawals(@QueryParam("userId") Integer userId,
+                                                               @QueryParam("status") String status,
+                                                               @QueryParam("from") String from,
+                                                               @QueryParam("to") String to,
+                                                               @QueryParam("cursor") String cursor,
+                                                               @QueryParam("limit") Integer limit) {
+        return identity.getDeferredIdentity()
+                .chain(identity -> userService.fetchWithdrawals(ListingFilter.of(userId, status, from, to, cursor, limit)));
+    }
+
+    @GET
+    @Path("/withdrawal/export")
+    @Produces(RestMediaType.APPLICATION_NDJSON)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    public Multi<Withdrawal> exportWithdrawals(@QueryParam("userId") Integer userId,
+                                               @QueryParam("status") String status,
+                                               @QueryParam("from") String from,
+                                               @QueryParam("to") String to) {
         return identity.getDeferredIdentity()
-                .chain(identity -> userService.fetchWithdrawals(userId));
+                .onItem().transformToMulti(identity -> userService.exportWithdrawals(
+                        ListingFilter.of(userId, status, from, to, null, ListingFilter.MAX_LIMIT)));
     }
 
     @PUT
@@ -60,9 +109,9 @@ public class AdminEndpoint {
 
     @GET
     @Path("/table")
-    public Uni<List<GameTable>> fetchTables() {
+    public Uni<Response> fetchTables(@Context Request request) {
         return identity.getDeferredIdentity()
-                .chain(identity -> gameService.fetchTables());
+                .map(identity -> LobbyListings.respond(request, gameService.fetchLobby()));
     }
 
     @POST
@@ -85,4 +134,47 @@ public class AdminEndpoint {
         return identity.getDeferredIdentity()
                 .chain(identity -> gameService.deleteTable(tableId, Integer.parseInt(identity.getPrincipal().getName())));
     }
+
+    @GET
+    @Path("/hand")
+    public Uni<List<HandLog.Location>> fetchHands(@QueryParam("tableId") Long tableId,
+                                                   @QueryParam("limit") @DefaultValue("20") int limit) {
+        return identity.getDeferredIdentity()
+                .chain(identity -> gameService.fetchHands(tableId, limit));
+    }
+
+    @GET
+    @Path("/hand/records")
+    public Uni<JsonArray> fetchHand(@QueryParam("tableId") Long tableId, @QueryParam("handId") Long handId) {
+        return identity.getDeferredIdentity()
+                .chain(identity -> gameService.fetchHand(tableId, handId));
+    }
+
+    @GET
+    @Path("/tournament")
+    public Uni<List<Tournament>> fetchTournaments() {
+        return identity.getDeferredIdentity()
+                .chain(identity -> gameService.fetchTournaments());
+    }
+
+    @POST
+    @Path("/tournament")
+    public Uni<Tournament> createTournament(Tournament tournament) {
+        return identity.getDeferredIdentity()
+                .chain(identity -> gameService.createTournament(Integer.parseInt(identity.getPrincipal().getName()), tournament));
+    }
+
+    @PUT
+    @Path("/tournament/start")
+    public Uni<Tournament> startTournament(@QueryParam("tournamentId") Long tournamentId) {
+        return identity.getDeferredIdentity()
+                .chain(identity -> gameService.startTournament(tournamentId));
+    }
+
+    @GET
+    @Path("/socket/metrics")
+    public Uni<JsonObject> fetchSocketMetrics() {
+        return identity.getDeferredIdentity()
+                .map(identity -> gameService.fetchSocketMetrics());
+    }
 }
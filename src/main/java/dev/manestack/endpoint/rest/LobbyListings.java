@@ -0,0 +1,18 @@
+package dev.manestack.endpoint.rest;
+
+import dev.manestack.service.lobby.LobbyIndex;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.Request;
+import jakarta.ws.rs.core.Response;
+
+class LobbyListings {
+    // The lobby version is the ETag, so a client polling with If-None-Match gets a bodiless 304 until a table changes.
+    static Response respond(Request request, LobbyIndex.Listing listing) {
+        EntityTag etag = new EntityTag(listing.etag());
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(etag);
+        if (notModified != null) {
+            return notModified.build();
+        }
+        return Response.ok(listing.tables()).tag(etag).build();
+    }
+}
@@ -2,16 +2,21 @@ package dev.manestack.endpoint.rest;
 
 import dev.manestack.service.GameService;
 import dev.manestack.service.UserService;
-import dev.manestack.service.poker.table.GameTable;
+import dev.manestack.service.poker.tournament.Tournament;
 import dev.manestack.service.user.Deposit;
+import dev.manestack.service.user.ListingFilter;
 import dev.manestack.service.user.User;
 import dev.manestack.service.user.Withdrawal;
 import io.quarkus.security.Authenticated;
 import io.quarkus.security.identity.CurrentIdentityAssociation;
 import io.smallrye.mutiny.Uni;
+import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.json.JsonObject;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.Request;
+import jakarta.ws.rs.core.Response;
 
 import java.util.List;
 
@@ -26,13 +31,13 @@ public class UserEndpoint {
 
     @POST
     @Path("/login")
-    public Uni<JsonObject> loginUser(JsonObject jsonObject) {
+    public Uni<JsonObject> loginUser(JsonObject jsonObject, @Context HttpServerRequest request) {
         String email = jsonObject.getString("email");
         String password = jsonObject.getString("password");
         if (email == null || password == null) {
             throw new BadRequestException("Email and password are required");
         }
-        return userService.loginUser(email, password)
+        return userService.loginUser(email, password, addressOf(request))
                 .map(token -> {
                     JsonObject response = new JsonObject();
                     response.put("token", token);
@@ -42,8 +47,8 @@ public class UserEndpoint {
 
     @POST
     @Path("/register")
-    public Uni<JsonObject> registerUser(User user) {
-        return userService.registerUser(user)
+    public Uni<JsonObject> registerUser(User user, @Context HttpServerRequest request) {
+        return userService.registerUser(user, addressOf(request))
                 .map(token -> {
                     JsonObject response = new JsonObject();
                     response.put("token", token);
@@ -72,25 +77,42 @@ public class UserEndpoint {
 
     @GET
     @Path("/table")
-    public Uni<List<GameTable>> fetchTables() {
+    public Uni<Response> fetchTables(@Context Request request) {
         return identity.getDeferredIdentity()
-                .chain(identity -> gameService.fetchTables());
+                .map(identity -> LobbyListings.respond(request, gameService.fetchLobby()));
+    }
+
+    @GET
+    @Path("/tournament")
+    public Uni<List<Tournament>> fetchTournaments() {
+        return identity.getDeferredIdentity()
+                .chain(identity -> gameService.fetchTournaments());
     }
 
     @Authenticated
     @GET
     @Path("/deposit")
-    public Uni<List<Deposit>> fetchMyDeposits() {
+    public Uni<ListingFilter.Page<Deposit>> fetchMyDeposits(@QueryParam("type") String type,
+                                                           @QueryParam("from") String from,
+                                                           @QueryParam("to") String to,
+                                                           @QueryParam("cursor") String cursor,
+                                                           @QueryParam("limit") Integer limit) {
         return identity.getDeferredIdentity()
-                .chain(identity -> userService.fetchDeposits(Integer.parseInt(identity.getPrincipal().getName())));
+                .chain(identity -> userService.fetchDeposits(ListingFilter.of(
+                        Integer.parseInt(identity.getPrincipal().getName()), type, from, to, cursor, limit)));
     }
 
     @Authenticated
     @GET
     @Path("/withdrawal")
-    public Uni<List<Withdrawal>> fetchMyWithdrawals() {
+    public Uni<ListingFilter.Page<Withdrawal>> fetchMyWithdrawals(@QueryParam("status") String status,
+                                                                 @QueryParam("from") String from,
+                                                                 @QueryParam("to") String to,
+                                                                 @QueryParam("cursor") String cursor,
+                                                                 @QueryParam("limit") Integer limit) {
         return identity.getDeferredIdentity()
-                .chain(identity -> userService.fetchWithdrawals(Integer.parseInt(identity.getPrincipal().getName())));
+                .chain(identity -> userService.fetchWithdrawals(ListingFilter.of(
+                        Integer.parseInt(identity.getPrincipal().getName()), status, from, to, cursor, limit)));
     }
 
     @Authenticated
@@ -100,4 +122,8 @@ public class UserEndpoint {
         return identity.getDeferredIdentity()
                 .chain(identity -> userService.createWithdrawal(Integer.parseInt(identity.getPrincipal().getName()), withdrawal));
     }
+
+    private static String addressOf(HttpServerRequest request) {
+        return request.remoteAddress() == null ? null : request.remoteAddress().hostAddress();
+    }
 }
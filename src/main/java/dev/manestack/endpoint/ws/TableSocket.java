@@ -3,6 +3,7 @@ package dev.manestack.endpoint.ws;
 import dev.manestack.service.GameService;
 import dev.manestack.service.socket.WebsocketEvent;
 import io.quarkus.websockets.next.*;
+import io.vertx.core.buffer.Buffer;
 import jakarta.inject.Inject;
 import org.jboss.logging.Logger;
 
@@ -10,22 +11,27 @@ import org.jboss.logging.Logger;
 public class TableSocket {
     private static final Logger LOG = Logger.getLogger(TableSocket.class);
     @Inject
-    WebSocketConnection connection;
-    @Inject
     GameService gameService;
 
+    // Callback parameters are the connection itself; an injected one is a session-scoped proxy that other threads,
+    // like the ones writing the outbound queue, cannot use.
     @OnOpen
-    public void onOpen() {
-        gameService.handleOnConnectEvent(connection.id());
+    public void onOpen(WebSocketConnection connection) {
+        gameService.handleOnConnectEvent(connection);
     }
 
     @OnClose
-    public void onClose() {
+    public void onClose(WebSocketConnection connection) {
         gameService.handleOnCloseEvent(connection.id());
     }
 
     @OnTextMessage
-    public void onTextMessage(WebsocketEvent websocketEvent) {
-        gameService.addWebsocketEventToQueue(connection.id(), websocketEvent);
+    public void onTextMessage(WebSocketConnection connection, WebsocketEvent websocketEvent) {
+        gameService.receiveTextFrame(connection.id(), websocketEvent);
+    }
+
+    @OnBinaryMessage
+    public void onBinaryMessage(WebSocketConnection connection, Buffer message) {
+        gameService.receiveBinaryFrame(connection.id(), message);
     }
 }
@@ -0,0 +1,500 @@
+package dev.manestack.service;
+
+import dev.manestack.config.QueryExecutor;
+import dev.manestack.jooq.generated.tables.records.ChipLedgerParkedRecord;
+import dev.manestack.jooq.generated.tables.records.ChipLedgerReservationRecord;
+import dev.manestack.service.history.HandLog;
+import dev.manestack.service.history.HandRecord;
+import dev.manestack.service.history.HandRecordCodec;
+import dev.manestack.service.history.TableSnapshot;
+import dev.manestack.service.user.UserBalance;
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.json.JsonObject;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.jooq.DSLContext;
+import org.jooq.Query;
+import org.jooq.Record4;
+import org.jooq.impl.DSL;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongPredicate;
+
+import static dev.manestack.jooq.generated.Tables.CHIP_LEDGER_CURSOR;
+import static dev.manestack.jooq.generated.Tables.CHIP_LEDGER_PARKED;
+import static dev.manestack.jooq.generated.Tables.CHIP_LEDGER_RESERVATION;
+import static dev.manestack.jooq.generated.Tables.POKER_USER_BALANCE;
+
+/*
+ * Chips on cash tables are money taken out of POKER_USER_BALANCE. A buy-in moves the amount from the balance into the
+ * locked amount before the player is seated, every settled hand moves the locked amounts of its players by what they
+ * won or lost, and leaving the seat moves the remaining stack back into the balance. The locked amount of a user is
+ * therefore their pending withdrawals plus their chips on tables.
+ *
+ * Buy-ins are written right away since the seat depends on them, together with a reservation that stays until the seat
+ * shows up in the hand log. Everything else comes from the hand log, which is on disk before the gameplay thread moves
+ * on: a flusher thread tails it like HandHistoryIngester, turns the SETTLEMENT, VOID, CASH_OUT and BUY_IN_RELEASED
+ * records of lobby tables into balance changes, merges them per user and writes them in one transaction together with
+ * the log position it read up to. Many hands of many tables share a commit, and a crash loses nothing: the next start
+ * goes on from the stored position. Reservations still open once a start has read the log to its end belong to seats
+ * that never reached the log, and go back to the balance.
+ *
+ * Settlements need the stacks their hand started with, so the stored position also tells where the oldest hand still
+ * open starts; a start reads the records from there up to the applied position again without applying them.
+ *
+ * A change that would take the locked amount below zero means the ledger and the tables disagree. It is parked in
+ * chip_ledger_parked and retried until it fits, so the chips are not lost while someone looks into it.
+ */
+@ApplicationScoped
+public class ChipLedgerService {
+    private static final Logger LOG = Logger.getLogger(ChipLedgerService.class);
+    private static final Duration PARKED_RETRY_INTERVAL = Duration.ofMinutes(1);
+    private final ScheduledExecutorService FLUSH_THREAD = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicLong COMMITS = new AtomicLong();
+    private final AtomicLong FAILED_COMMITS = new AtomicLong();
+    private final AtomicLong PARKED_CHANGES = new AtomicLong();
+    private final AtomicLong UNPARKED_CHANGES = new AtomicLong();
+    private final AtomicLong RELEASED_RESERVATIONS = new AtomicLong();
+    // Owned by the flush thread.
+    private final Map<Long, OpenHand> openHands = new HashMap<>();
+    private HandLog handLog;
+    private LongPredicate playsForBalance;
+    private HandLog.Position readPosition;
+    private volatile HandLog.Position storedReplayPosition;
+    private long nextParkedRetryAt;
+    private volatile String lastError;
+
+    @Inject
+    DSLContext context;
+    @Inject
+    QueryExecutor queryExecutor;
+
+    @ConfigProperty(name = "dev.manestack.chip-ledger.flush-interval", defaultValue = "PT0.5S")
+    Duration flushInterval;
+    @ConfigProperty(name = "dev.manestack.chip-ledger.batch-size", defaultValue = "5000")
+    int batchSize;
+    // The ledger reads the hand log of this node, so it shares the node id of the hand history.
+    @ConfigProperty(name = "dev.manestack.hand-history.node-id", defaultValue = "local")
+    String nodeId;
+
+    /*
+     * Called by GameService once the hand log is open. The returned stage completes when the log is applied to its end
+     * and the reservations left over are released; no table takes buy-ins before that.
+     */
+    public CompletableFuture<Void> start(HandLog handLog, LongPredicate playsForBalance) {
+        this.handLog = handLog;
+        this.playsForBalance = playsForBalance;
+        CompletableFuture<Void> started = CompletableFuture.runAsync(() -> {
+            try {
+                apply();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            releaseReservations();
+        }, FLUSH_THREAD);
+        long flushMillis = flushInterval.toMillis();
+        FLUSH_THREAD.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        return started;
+    }
+
+    // Whatever is not applied yet stays in the hand log and is applied by the next start.
+    public void close() {
+        FLUSH_THREAD.shutdown();
+        try {
+            FLUSH_THREAD.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public Uni<UserBalance> reserveBuyIn(Integer userId, long tableId, int amount) {
+        return Uni.createFrom().voidItem()
+                .emitOn(queryExecutor)
+                .map(unused -> context.transactionResult(configuration -> {
+                    DSLContext transaction = DSL.using(configuration);
+                    UserBalance userBalance = transaction.update(POKER_USER_BALANCE)
+                            .set(POKER_USER_BALANCE.BALANCE, POKER_USER_BALANCE.BALANCE.subtract(amount))
+                            .set(POKER_USER_BALANCE.LOCKED_AMOUNT, POKER_USER_BALANCE.LOCKED_AMOUNT.add(amount))
+                            .where(POKER_USER_BALANCE.USER_ID.eq(userId))
+                            .and(POKER_USER_BALANCE.BALANCE.ge(amount))
+                            .returning()
+                            .fetchOneInto(UserBalance.class);
+                    if (userBalance == null) {
+                        throw new RuntimeException("Insufficient balance");
+                    }
+                    transaction.insertInto(CHIP_LEDGER_RESERVATION)
+                            .set(CHIP_LEDGER_RESERVATION.NODE_ID, nodeId)
+                            .set(CHIP_LEDGER_RESERVATION.TABLE_ID, tableId)
+                            .set(CHIP_LEDGER_RESERVATION.USER_ID, userId)
+                            .set(CHIP_LEDGER_RESERVATION.AMOUNT, amount)
+                            .set(CHIP_LEDGER_RESERVATION.RESERVED_AT, DSL.currentOffsetDateTime())
+                            .execute();
+                    return userBalance;
+                }));
+    }
+
+    private void flush() {
+        try {
+            apply();
+            if (System.currentTimeMillis() >= nextParkedRetryAt) {
+                retryParked();
+                nextParkedRetryAt = System.currentTimeMillis() + PARKED_RETRY_INTERVAL.toMillis();
+            }
+        } catch (IOException | RuntimeException e) {
+            // An exception would cancel the scheduled task. The open hands may be ahead of the stored position, so
+            // the next flush starts over from it.
+            FAILED_COMMITS.incrementAndGet();
+            lastError = e.getMessage();
+            readPosition = null;
+            openHands.clear();
+            LOG.errorv(e, "Failed to apply the hand log to the chip ledger");
+        }
+    }
+
+    /*
+     * Reading
+     */
+    private void apply() throws IOException {
+        if (readPosition == null) {
+            readCursor();
+        }
+        boolean caughtUp;
+        do {
+            Batch batch = new Batch();
+            HandLog.Position next = handLog.read(readPosition, (position, record) -> {
+                if (batch.records >= batchSize) {
+                    return false;
+                }
+                batch.records++;
+                if (playsForBalance.test(record.tableId())) {
+                    collect(position, record, batch);
+                }
+                return true;
+            });
+            caughtUp = batch.records < batchSize;
+            if (!next.equals(readPosition)) {
+                write(batch, next);
+                readPosition = next;
+            }
+        } while (!caughtUp);
+    }
+
+    // Without a batch the record only updates the open hands, for records read again on start.
+    private void collect(HandLog.Position position, HandRecord record, Batch batch) {
+        switch (record.type()) {
+            case HAND_START -> openHands.put(record.tableId(), new OpenHand(position, record));
+            case CASH_OUT -> {
+                TableSnapshot.Seat seat = HandRecordCodec.seat(record);
+                OpenHand hand = openHands.get(record.tableId());
+                // Only the first cash-out leaves the hand; a later one is of a seat taken again meanwhile.
+                if (hand != null && hand.startStacks.containsKey(seat.userId())) {
+                    hand.cashedOut.putIfAbsent(seat.userId(), seat.stack());
+                }
+                if (batch != null) {
+                    batch.change(seat.userId(), -seat.stack(), seat.stack());
+                }
+            }
+            case SEAT_TAKEN -> {
+                if (batch != null) {
+                    batch.reservations.add(new Reservation(record.tableId(), HandRecordCodec.seat(record)));
+                }
+            }
+            case BUY_IN_RELEASED -> {
+                if (batch != null) {
+                    TableSnapshot.Seat seat = HandRecordCodec.seat(record);
+                    batch.change(seat.userId(), -seat.stack(), seat.stack());
+                    batch.reservations.add(new Reservation(record.tableId(), seat));
+                }
+            }
+            case SETTLEMENT -> {
+                OpenHand hand = closeHand(record);
+                if (hand != null && batch != null) {
+                    Map<Integer, Integer> stacks = new HashMap<>();
+                    for (TableSnapshot.Seat seat : HandRecordCodec.seats(record)) {
+                        stacks.put(seat.userId(), seat.stack());
+                    }
+                    // Players who left during the hand settle with what they cashed out.
+                    for (Map.Entry<Integer, Integer> start : hand.startStacks.entrySet()) {
+                        Integer stack = hand.cashedOut.getOrDefault(start.getKey(), stacks.get(start.getKey()));
+                        if (stack == null) {
+                            LOG.errorv("User {0} of hand {1} at table {2} is neither settled nor cashed out",
+                                    start.getKey(), record.handId(), record.tableId());
+                            continue;
+                        }
+                        batch.change(start.getKey(), stack - start.getValue(), 0);
+                    }
+                }
+            }
+            case VOID -> {
+                // Everyone still seated is back at their starting stack; who cashed out gets back what they put in.
+                OpenHand hand = closeHand(record);
+                if (hand != null && batch != null) {
+                    for (Map.Entry<Integer, Integer> cashOut : hand.cashedOut.entrySet()) {
+                        int refund = hand.startStacks.get(cashOut.getKey()) - cashOut.getValue();
+                        batch.change(cashOut.getKey(), -refund, refund);
+                    }
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    private OpenHand closeHand(HandRecord record) {
+        OpenHand hand = openHands.get(record.tableId());
+        if (hand == null || hand.handId != record.handId()) {
+            return null;
+        }
+        return openHands.remove(record.tableId());
+    }
+
+    /*
+     * Writing
+     */
+    private void write(Batch batch, HandLog.Position applied) {
+        HandLog.Position replayFrom = applied;
+        for (OpenHand hand : openHands.values()) {
+            if (hand.position.compareTo(replayFrom) < 0) {
+                replayFrom = hand.position;
+            }
+        }
+        HandLog.Position cursor = replayFrom;
+        List<Change> parked = queryExecutor.call(() -> context.transactionResult(configuration -> {
+            DSLContext transaction = DSL.using(configuration);
+            List<Change> refused = applyChanges(transaction, new ArrayList<>(batch.changes.values()));
+            for (Reservation reservation : batch.reservations) {
+                transaction.deleteFrom(CHIP_LEDGER_RESERVATION)
+                        .where(CHIP_LEDGER_RESERVATION.RESERVATION_ID.eq(transaction
+                                .select(DSL.min(CHIP_LEDGER_RESERVATION.RESERVATION_ID))
+                                .from(CHIP_LEDGER_RESERVATION)
+                                .where(CHIP_LEDGER_RESERVATION.NODE_ID.eq(nodeId))
+                                .and(CHIP_LEDGER_RESERVATION.TABLE_ID.eq(reservation.tableId()))
+                                .and(CHIP_LEDGER_RESERVATION.USER_ID.eq(reservation.userId()))
+                                .and(CHIP_LEDGER_RESERVATION.AMOUNT.eq(reservation.amount()))))
+                        .execute();
+            }
+            writeCursor(transaction, applied, cursor);
+            return refused;
+        }));
+        COMMITS.incrementAndGet();
+        storedReplayPosition = cursor;
+        logParked(parked);
+    }
+
+    // Sorted by user, so concurrent transactions lock the balance rows in the same order. Returns the changes parked.
+    private List<Change> applyChanges(DSLContext transaction, List<Change> changes) {
+        if (changes.isEmpty()) {
+            return List.of();
+        }
+        List<Query> updates = new ArrayList<>(changes.size());
+        for (Change change : changes) {
+            updates.add(update(transaction, change));
+        }
+        int[] updated = transaction.batch(updates).execute();
+        List<Change> parked = new ArrayList<>();
+        for (int i = 0; i < updated.length; i++) {
+            if (updated[i] == 0) {
+                Change change = changes.get(i);
+                transaction.insertInto(CHIP_LEDGER_PARKED)
+                        .set(CHIP_LEDGER_PARKED.NODE_ID, nodeId)
+                        .set(CHIP_LEDGER_PARKED.USER_ID, change.userId())
+                        .set(CHIP_LEDGER_PARKED.LOCKED, change.locked())
+                        .set(CHIP_LEDGER_PARKED.BALANCE, change.balance())
+                        .set(CHIP_LEDGER_PARKED.PARKED_AT, DSL.currentOffsetDateTime())
+                        .execute();
+                parked.add(change);
+            }
+        }
+        return parked;
+    }
+
+    private Query update(DSLContext transaction, Change change) {
+        return transaction.update(POKER_USER_BALANCE)
+                .set(POKER_USER_BALANCE.LOCKED_AMOUNT, POKER_USER_BALANCE.LOCKED_AMOUNT.add(change.locked()))
+                .set(POKER_USER_BALANCE.BALANCE, POKER_USER_BALANCE.BALANCE.add(change.balance()))
+                .where(POKER_USER_BALANCE.USER_ID.eq(change.userId()))
+                .and(POKER_USER_BALANCE.LOCKED_AMOUNT.ge(Math.max(0, -change.locked())));
+    }
+
+    private void logParked(List<Change> parked) {
+        for (Change change : parked) {
+            PARKED_CHANGES.incrementAndGet();
+            LOG.errorv("Chip ledger change of user {0} (locked {1}, balance {2}) exceeds the locked amount or has no balance row, parked",
+                    change.userId(), change.locked(), change.balance());
+        }
+    }
+
+    // Buy-ins reserved before a crash whose seat never reached the hand log go back to the balance.
+    private void releaseReservations() {
+        List<ChipLedgerReservationRecord> released = new ArrayList<>();
+        List<Change> parked = queryExecutor.call(() -> context.transactionResult(configuration -> {
+            DSLContext transaction = DSL.using(configuration);
+            released.addAll(transaction.deleteFrom(CHIP_LEDGER_RESERVATION)
+                    .where(CHIP_LEDGER_RESERVATION.NODE_ID.eq(nodeId))
+                    .returning()
+                    .fetch());
+            Map<Integer, Change> changes = new TreeMap<>();
+            for (ChipLedgerReservationRecord reservation : released) {
+                changes.merge(reservation.getUserId(), new Change(reservation.getUserId(), -reservation.getAmount(),
+                        reservation.getAmount()), Change::plus);
+            }
+            return applyChanges(transaction, new ArrayList<>(changes.values()));
+        }));
+        for (ChipLedgerReservationRecord reservation : released) {
+            RELEASED_RESERVATIONS.incrementAndGet();
+            LOG.warnv("Released the buy-in of {0} reserved by user {1} at table {2}, the seat never reached the hand log",
+                    reservation.getAmount(), reservation.getUserId(), reservation.getTableId());
+        }
+        logParked(parked);
+    }
+
+    private void retryParked() {
+        List<ChipLedgerParkedRecord> applied = queryExecutor.call(() -> context.transactionResult(configuration -> {
+            DSLContext transaction = DSL.using(configuration);
+            List<ChipLedgerParkedRecord> written = new ArrayList<>();
+            for (ChipLedgerParkedRecord parked : transaction.selectFrom(CHIP_LEDGER_PARKED)
+                    .where(CHIP_LEDGER_PARKED.NODE_ID.eq(nodeId))
+                    .orderBy(CHIP_LEDGER_PARKED.PARKED_ID)
+                    .forUpdate()
+                    .fetch()) {
+                Change change = new Change(parked.getUserId(), parked.getLocked(), parked.getBalance());
+                if (update(transaction, change).execute() == 1) {
+                    transaction.deleteFrom(CHIP_LEDGER_PARKED)
+                            .where(CHIP_LEDGER_PARKED.PARKED_ID.eq(parked.getParkedId()))
+                            .execute();
+                    written.add(parked);
+                }
+            }
+            return written;
+        }));
+        for (ChipLedgerParkedRecord parked : applied) {
+            UNPARKED_CHANGES.incrementAndGet();
+            LOG.infov("Wrote the parked chip ledger change of user {0} (locked {1}, balance {2})",
+                    parked.getUserId(), parked.getLocked(), parked.getBalance());
+        }
+    }
+
+    /*
+     * Cursor
+     */
+    private void readCursor() throws IOException {
+        Record4<Long, Integer, Long, Integer> cursor = queryExecutor.call(() -> context
+                .select(CHIP_LEDGER_CURSOR.SEGMENT, CHIP_LEDGER_CURSOR.POSITION,
+                        CHIP_LEDGER_CURSOR.REPLAY_SEGMENT, CHIP_LEDGER_CURSOR.REPLAY_POSITION)
+                .from(CHIP_LEDGER_CURSOR)
+                .where(CHIP_LEDGER_CURSOR.NODE_ID.eq(nodeId))
+                .fetchOne());
+        openHands.clear();
+        if (cursor == null) {
+            // The first start of this node: nothing logged before it was played against this ledger.
+            readPosition = handLog.getEnd();
+            storedReplayPosition = readPosition;
+            return;
+        }
+        HandLog.Position applied = new HandLog.Position(cursor.value1(), cursor.value2());
+        storedReplayPosition = new HandLog.Position(cursor.value3(), cursor.value4());
+        handLog.read(storedReplayPosition, (position, record) -> {
+            if (position.compareTo(applied) >= 0) {
+                return false;
+            }
+            if (playsForBalance.test(record.tableId())) {
+                collect(position, record, null);
+            }
+            return true;
+        });
+        readPosition = applied;
+    }
+
+    private void writeCursor(DSLContext transaction, HandLog.Position applied, HandLog.Position replayFrom) {
+        transaction.insertInto(CHIP_LEDGER_CURSOR)
+                .set(CHIP_LEDGER_CURSOR.NODE_ID, nodeId)
+                .set(CHIP_LEDGER_CURSOR.SEGMENT, applied.segment())
+                .set(CHIP_LEDGER_CURSOR.POSITION, applied.offset())
+                .set(CHIP_LEDGER_CURSOR.REPLAY_SEGMENT, replayFrom.segment())
+                .set(CHIP_LEDGER_CURSOR.REPLAY_POSITION, replayFrom.offset())
+                .set(CHIP_LEDGER_CURSOR.UPDATED_AT, DSL.currentOffsetDateTime())
+                .onConflict(CHIP_LEDGER_CURSOR.NODE_ID)
+                .doUpdate()
+                .set(CHIP_LEDGER_CURSOR.SEGMENT, applied.segment())
+                .set(CHIP_LEDGER_CURSOR.POSITION, applied.offset())
+                .set(CHIP_LEDGER_CURSOR.REPLAY_SEGMENT, replayFrom.segment())
+                .set(CHIP_LEDGER_CURSOR.REPLAY_POSITION, replayFrom.offset())
+                .set(CHIP_LEDGER_CURSOR.UPDATED_AT, DSL.currentOffsetDateTime())
+                .execute();
+    }
+
+    // Where the next start reads from, or null before the stored cursor is read.
+    public HandLog.Position getStoredReplayPosition() {
+        return storedReplayPosition;
+    }
+
+    public JsonObject getMetrics() {
+        HandLog.Position read = readPosition;
+        HandLog.Position end = handLog == null ? null : handLog.getEnd();
+        return new JsonObject()
+                .put("commits", COMMITS.get())
+                .put("failedCommits", FAILED_COMMITS.get())
+                .put("parkedChanges", PARKED_CHANGES.get())
+                .put("unparkedChanges", UNPARKED_CHANGES.get())
+                .put("releasedReservations", RELEASED_RESERVATIONS.get())
+                .put("lastError", lastError)
+                .put("lagSegments", read == null || end == null ? null : Math.max(0, end.segment() - read.segment()))
+                .put("lagBytes", read == null || end == null || read.segment() != end.segment()
+                        ? null : end.offset() - read.offset());
+    }
+
+    private record Change(Integer userId, int locked, int balance) {
+        private Change plus(Change other) {
+            return new Change(userId, locked + other.locked, balance + other.balance);
+        }
+    }
+
+    // A SEAT_TAKEN or BUY_IN_RELEASED record settles the reservation of the same user, table and amount.
+    private record Reservation(long tableId, int userId, int amount) {
+        private Reservation(long tableId, TableSnapshot.Seat seat) {
+            this(tableId, seat.userId(), seat.stack());
+        }
+    }
+
+    private static class Batch {
+        // Sorted by user, see applyChanges.
+        private final Map<Integer, Change> changes = new TreeMap<>();
+        private final List<Reservation> reservations = new ArrayList<>();
+        private int records;
+
+        private void change(int userId, int locked, int balance) {
+            if (locked != 0 || balance != 0) {
+                changes.merge(userId, new Change(userId, locked, balance), Change::plus);
+            }
+        }
+    }
+
+    private static class OpenHand {
+        private final HandLog.Position position;
+        private final long handId;
+        private final Map<Integer, Integer> startStacks = new HashMap<>();
+        private final Map<Integer, Integer> cashedOut = new HashMap<>();
+
+        private OpenHand(HandLog.Position position, HandRecord handStart) {
+            this.position = position;
+            this.handId = handStart.handId();
+            for (TableSnapshot.Seat seat : HandRecordCodec.seats(handStart)) {
+                startStacks.put(seat.userId(), seat.stack());
+            }
+        }
+    }
+}
@@ -1,72 +1,209 @@
 package dev.manestack.service;
 
+import dev.manestack.config.QueryExecutor;
 import dev.manestack.jooq.generated.tables.records.PokerTableRecord;
+import dev.manestack.service.history.HandEventType;
+import dev.manestack.service.history.HandHistoryIngester;
+import dev.manestack.service.history.HandLog;
+import dev.manestack.service.history.HandRecord;
+import dev.manestack.service.history.HandRecordCodec;
+import dev.manestack.service.history.TableRecovery;
+import dev.manestack.service.history.TableSnapshot;
+import dev.manestack.service.lobby.LobbyIndex;
+import dev.manestack.service.lobby.SeatFinder;
+import dev.manestack.service.poker.pool.FastFoldPool;
+import dev.manestack.service.poker.tournament.Tournament;
 import dev.manestack.service.poker.table.GamePlayer;
-import dev.manestack.service.poker.table.GameSession;
 import dev.manestack.service.poker.table.GameTable;
+import dev.manestack.service.poker.table.TableEventSink;
+import dev.manestack.service.socket.BinaryProtocol;
+import dev.manestack.service.socket.InboundCommand;
+import dev.manestack.service.socket.OutboundBatch;
+import dev.manestack.service.socket.OutboundQueue;
+import dev.manestack.service.socket.SessionRegistry;
+import dev.manestack.service.socket.SocketMetrics;
+import dev.manestack.service.socket.TokenBucket;
 import dev.manestack.service.socket.WebsocketEvent;
+import dev.manestack.service.socket.WebsocketFrame;
 import dev.manestack.service.socket.WebsocketSession;
+import dev.manestack.service.user.User;
 import io.quarkus.runtime.ShutdownEvent;
 import io.quarkus.runtime.StartupEvent;
-import io.quarkus.websockets.next.OpenConnections;
+import io.quarkus.runtime.configuration.MemorySize;
 import io.quarkus.websockets.next.WebSocketConnection;
-import io.smallrye.jwt.auth.principal.JWTParser;
 import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 import io.smallrye.mutiny.subscription.Cancellable;
 import io.smallrye.mutiny.subscription.MultiEmitter;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.enterprise.event.Observes;
 import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 import org.jooq.DSLContext;
 import org.jooq.UpdateSetFirstStep;
 import org.jooq.UpdateSetMoreStep;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static dev.manestack.jooq.generated.Tables.POKER_TABLE;
 
 @ApplicationScoped
-public class GameService {
+public class GameService implements TableEventSink {
     private static final Logger LOG = Logger.getLogger(UserService.class);
-    private final ExecutorService QUERY_THREADS = Executors.newFixedThreadPool(3);
+    private static final int DEFAULT_STACK = 500;
+    private static final int PLAY_NOW_CANDIDATES = 8;
+    // Pool and tournament tables live only in memory; their ids start far above POKER_TABLE ids but stay within the
+    // 32-bit inbound varints. Only the lobby tables below them play for the balance.
+    private static final long UNLISTED_TABLE_ID_BASE = 1_000_000_000L;
     private final ExecutorService GAMEPLAY_THREAD = Executors.newFixedThreadPool(3);
-    private final Map<Long, GameTable> TABLES = new HashMap<>();
-    private final Map<String, WebsocketSession> SOCKET_SESSIONS = new HashMap<>();
+    private final ScheduledExecutorService SPECTATOR_THREAD = Executors.newSingleThreadScheduledExecutor();
+    private final ScheduledExecutorService SNAPSHOT_THREAD = Executors.newSingleThreadScheduledExecutor();
+    // Hand log reads for the admin API, kept off the event loop and off the query executor's permits.
+    private final ExecutorService HAND_LOG_READ_THREAD = Executors.newSingleThreadExecutor();
+    private final Map<Long, GameTable> TABLES = new ConcurrentHashMap<>();
+    private final LobbyIndex LOBBY = new LobbyIndex();
+    private final SeatFinder SEAT_FINDER = new SeatFinder();
+    private final Map<FastFoldPool.Stakes, FastFoldPool> FAST_FOLD_POOLS = new ConcurrentHashMap<>();
+    private final Set<FastFoldPool.Stakes> FAST_FOLD_STAKES = new HashSet<>();
+    private final Map<Long, GameTable> UNLISTED_TABLES = new ConcurrentHashMap<>();
+    private final AtomicLong UNLISTED_TABLE_IDS = new AtomicLong(UNLISTED_TABLE_ID_BASE);
+    private final Map<Long, Tournament> TOURNAMENTS = new ConcurrentHashMap<>();
+    private final AtomicLong TOURNAMENT_IDS = new AtomicLong();
+    private final SessionRegistry SOCKET_SESSIONS = new SessionRegistry();
+    // Sessions that dropped while seated, keyed by resume token until they resume or the grace period runs out.
+    private final Map<String, WebsocketSession> HELD_SESSIONS = new ConcurrentHashMap<>();
+    private final AtomicLong PENDING_INBOUND_EVENTS = new AtomicLong();
+    private final SocketMetrics SOCKET_METRICS = new SocketMetrics();
+    // Set on the gameplay thread while an inbound command is handled, see handleMessage.
+    private final ThreadLocal<OutboundBatch> COMMAND_BATCH = new ThreadLocal<>();
 
-    private MultiEmitter<? super WebsocketEvent> EVENT_HANDLER_EMITTER;
-    private MultiEmitter<? super WebsocketEvent> EVENT_NOTIFIER_EMITTER;
+    private HandLog HAND_LOG;
+    private HandHistoryIngester HAND_HISTORY_INGESTER;
+    private MultiEmitter<? super InboundCommand> EVENT_HANDLER_EMITTER;
     private Cancellable EVENT_HANDLER_TASK;
-    private Cancellable EVENT_NOTIFIER_TASK;
 
     @Inject
     DSLContext context;
     @Inject
-    JWTParser jwtParser;
+    QueryExecutor queryExecutor;
     @Inject
     UserService userService;
     @Inject
-    OpenConnections openConnections;
+    ChipLedgerService chipLedgerService;
+    @Inject
+    PasswordService passwordService;
+
+    @ConfigProperty(name = "dev.manestack.socket.outbound.max-queued-frames", defaultValue = "256")
+    int maxQueuedFrames;
+    @ConfigProperty(name = "dev.manestack.socket.outbound.overflow-policy", defaultValue = "RESYNC")
+    OutboundQueue.OverflowPolicy overflowPolicy;
+    @ConfigProperty(name = "dev.manestack.socket.resume.grace-period", defaultValue = "PT30S")
+    Duration resumeGracePeriod;
+    @ConfigProperty(name = "dev.manestack.socket.resume.replay-buffer-size", defaultValue = "256")
+    int replayBufferSize;
+    @ConfigProperty(name = "dev.manestack.socket.max-tables-per-session", defaultValue = "8")
+    int maxTablesPerSession;
+    @ConfigProperty(name = "dev.manestack.socket.inbound.rate", defaultValue = "20")
+    double inboundRate;
+    @ConfigProperty(name = "dev.manestack.socket.inbound.burst", defaultValue = "40")
+    int inboundBurst;
+    @ConfigProperty(name = "dev.manestack.fast-fold.hand-size", defaultValue = "6")
+    int fastFoldHandSize;
+    // Each entry "<small>/<big>" or "<variant> <small>/<big>".
+    @ConfigProperty(name = "dev.manestack.fast-fold.stakes", defaultValue = "1/2,2/5,5/10")
+    List<String> fastFoldStakes;
+    @ConfigProperty(name = "dev.manestack.fast-fold.max-buy-in-big-blinds", defaultValue = "100")
+    int fastFoldMaxBuyInBigBlinds;
+    @ConfigProperty(name = "dev.manestack.tournament.hand-interval", defaultValue = "PT2S")
+    Duration tournamentHandInterval;
+    @ConfigProperty(name = "dev.manestack.hand-log.directory", defaultValue = "data/hand-log")
+    Path handLogDirectory;
+    @ConfigProperty(name = "dev.manestack.hand-log.segment-size", defaultValue = "64M")
+    MemorySize handLogSegmentSize;
+    @ConfigProperty(name = "dev.manestack.hand-log.roll-interval", defaultValue = "PT1H")
+    Duration handLogRollInterval;
+    @ConfigProperty(name = "dev.manestack.hand-log.flush-interval", defaultValue = "PT0.05S")
+    Duration handLogFlushInterval;
+    @ConfigProperty(name = "dev.manestack.hand-log.retention", defaultValue = "P1D")
+    Duration handLogRetention;
+    @ConfigProperty(name = "dev.manestack.hand-history.node-id", defaultValue = "local")
+    String handHistoryNodeId;
+    @ConfigProperty(name = "dev.manestack.hand-history.batch-size", defaultValue = "500")
+    int handHistoryBatchSize;
+    @ConfigProperty(name = "dev.manestack.hand-history.interval", defaultValue = "PT1S")
+    Duration handHistoryInterval;
+    @ConfigProperty(name = "dev.manestack.hand-history.abandon-after", defaultValue = "PT15M")
+    Duration handHistoryAbandonAfter;
+    @ConfigProperty(name = "dev.manestack.hand-history.retention", defaultValue = "P90D")
+    Duration handHistoryRetention;
+    @ConfigProperty(name = "dev.manestack.snapshot.file", defaultValue = "data/tables.snapshot")
+    Path snapshotFile;
+    @ConfigProperty(name = "dev.manestack.snapshot.interval", defaultValue = "PT10S")
+    Duration snapshotInterval;
+    @ConfigProperty(name = "dev.manestack.spectator.flush-interval", defaultValue = "PT0.2S")
+    Duration spectatorFlushInterval;
+    @ConfigProperty(name = "dev.manestack.spectator.hole-card-delay", defaultValue = "PT30S")
+    Duration spectatorHoleCardDelay;
 
     public void init(@Observes StartupEvent ignored) {
-        fetchTables().invoke(tables -> {
+        for (String stakes : fastFoldStakes) {
+            FAST_FOLD_STAKES.add(FastFoldPool.Stakes.parse(stakes));
+        }
+        HAND_LOG = new HandLog(handLogDirectory, (int) handLogSegmentSize.asLongValue(), handLogRollInterval,
+                handLogRetention);
+        try {
+            HAND_LOG.open(handLogFlushInterval);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open the hand log in " + handLogDirectory, e);
+        }
+        HAND_HISTORY_INGESTER = new HandHistoryIngester(HAND_LOG, context, queryExecutor, handHistoryNodeId,
+                handHistoryBatchSize, handHistoryAbandonAfter, handHistoryRetention);
+        // Buy-ins are only taken once the chip ledger has caught up with the hand log, see ChipLedgerService.start.
+        Uni.createFrom().completionStage(chipLedgerService.start(HAND_LOG, tableId -> tableId < UNLISTED_TABLE_ID_BASE))
+                .chain(this::loadTables)
+                .chain(this::restoreTables)
+                .invoke(tables -> {
                     for (GameTable table : tables) {
-                        table.connectToServer(this);
-                        TABLES.put(table.getTableId(), table);
+                        attachTable(table);
                     }
                 })
+                // Snapshots only start once the previous one has been read back. The first is taken right away, so a
+                // table created before the next one is replayed from its log position instead of starting empty.
+                .invoke(() -> SNAPSHOT_THREAD.scheduleAtFixedRate(() -> addCommandToQueue(new InboundCommand.TakeSnapshot(null)),
+                        0, snapshotInterval.toMillis(), TimeUnit.MILLISECONDS))
+                // Ingestion waits for the hands cut off by the restart to be voided, so they are not taken as abandoned.
+                .invoke(() -> HAND_HISTORY_INGESTER.start(handHistoryInterval))
                 .subscribe().with(unused -> {
-                });
+                }, failure -> LOG.errorv(failure, "Failed to load tables"));
 
-        Multi<WebsocketEvent> eventHandlerMulti = Multi.createFrom().emitter(em -> EVENT_HANDLER_EMITTER = em);
+        Multi<InboundCommand> eventHandlerMulti = Multi.createFrom().emitter(em -> EVENT_HANDLER_EMITTER = em);
 
         EVENT_HANDLER_TASK = eventHandlerMulti
                 .emitOn(GAMEPLAY_THREAD)
@@ -75,14 +212,227 @@ public class GameService {
                         }, failure -> LOG.errorv("Socket open failed: {0}", failure.getMessage()),
                         () -> LOG.infov("Socket open completed"));
 
-        Multi<WebsocketEvent> eventNotifierMulti = Multi.createFrom().emitter(em -> EVENT_NOTIFIER_EMITTER = em);
+        long flushMillis = spectatorFlushInterval.toMillis();
+        SPECTATOR_THREAD.scheduleAtFixedRate(this::flushSpectators, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
 
-        EVENT_NOTIFIER_TASK = eventNotifierMulti
-                .emitOn(GAMEPLAY_THREAD)
-                .call(this::sendMessageToConnection)
-                .subscribe().with(unused -> {
-                        }, failure -> LOG.errorv("Socket notifier failed: {0}", failure.getMessage()),
-                        () -> LOG.infov("Socket notifier completed"));
+    /*
+     * Seats, stacks and the dealer button come back from the last snapshot and the hand log, see TableRecovery. A hand
+     * cut off by the restart is voided in the log. Restored players hold their seats for the resume grace period.
+     */
+    private Uni<List<GameTable>> restoreTables(List<GameTable> tables) {
+        return Uni.createFrom().voidItem()
+                .emitOn(queryExecutor)
+                .map(unused -> {
+                    try {
+                        TableSnapshot.Capture capture = Files.exists(snapshotFile)
+                                ? TableSnapshot.decode(Buffer.buffer(Files.readAllBytes(snapshotFile))) : null;
+                        Map<Long, Integer> maxPlayers = new HashMap<>();
+                        for (GameTable table : tables) {
+                            maxPlayers.put(table.getTableId(), table.getMaxPlayers());
+                        }
+                        return TableRecovery.recover(maxPlayers, capture, HAND_LOG);
+                    } catch (IOException e) {
+                        throw new RuntimeException("Failed to restore tables", e);
+                    }
+                })
+                .chain(recoveries -> fetchSeatedUsers(recoveries.values())
+                        .map(users -> {
+                            for (GameTable table : tables) {
+                                TableRecovery.Recovery recovery = recoveries.get(table.getTableId());
+                                table.restoreState(recovery.state(), users);
+                                if (recovery.voided() != null) {
+                                    LOG.infov("Voided hand {0} at table {1}, stacks refunded", recovery.voided().handId(), table.getTableId());
+                                    HAND_LOG.append(table.getTableId(), recovery.voided().handId(), HandEventType.VOID,
+                                            HandRecordCodec.voided(recovery.voided().seats()));
+                                }
+                                List<Integer> userIds = recovery.state().seats().stream().map(TableSnapshot.Seat::userId).toList();
+                                if (!userIds.isEmpty()) {
+                                    LOG.infov("Restored {0} seats at table {1}", userIds.size(), table.getTableId());
+                                    Uni.createFrom().voidItem()
+                                            .onItem().delayIt().by(resumeGracePeriod)
+                                            .subscribe().with(unused -> addCommandToQueue(
+                                                    new InboundCommand.ReleaseRestoredSeats(null, table.getTableId(), userIds)));
+                                }
+                            }
+                            return tables;
+                        }));
+    }
+
+    // Seats from the hand log only know user ids; those users are looked up, and seats of unknown users are dropped.
+    private Uni<Map<Integer, User>> fetchSeatedUsers(Collection<TableRecovery.Recovery> recoveries) {
+        Map<Integer, User> users = new HashMap<>();
+        Set<Integer> missing = new HashSet<>();
+        for (TableRecovery.Recovery recovery : recoveries) {
+            for (TableSnapshot.Seat seat : recovery.state().seats()) {
+                if (seat.username() == null) {
+                    missing.add(seat.userId());
+                } else {
+                    User user = new User();
+                    user.setUserId(seat.userId());
+                    user.setUsername(seat.username());
+                    users.put(seat.userId(), user);
+                }
+            }
+        }
+        missing.removeAll(users.keySet());
+        return Multi.createFrom().iterable(missing)
+                .onItem().transformToUniAndConcatenate(userId -> userService.fetchUser(userId).onFailure().recoverWithNull())
+                .collect().asList()
+                .map(fetched -> {
+                    for (User user : fetched) {
+                        users.put(user.getUserId(), user);
+                    }
+                    return users;
+                });
+    }
+
+    private void handleTakeSnapshotEvent() {
+        List<TableSnapshot> snapshots = new ArrayList<>(TABLES.size());
+        HandLog.Position logPosition = HAND_LOG.getEnd();
+        // A hand open at the snapshot is replayed from its HAND_START, so the log has to be kept from there.
+        HandLog.Position replayFloor = logPosition;
+        for (GameTable table : TABLES.values()) {
+            TableSnapshot snapshot = table.captureState();
+            snapshots.add(snapshot);
+            HandLog.Location openHand = HAND_LOG.findHand(table.getTableId(), snapshot.replayFrom());
+            if (openHand != null && openHand.position().compareTo(replayFloor) < 0) {
+                replayFloor = openHand.position();
+            }
+        }
+        Buffer encoded = TableSnapshot.encode(logPosition, snapshots);
+        HandLog.Position floor = replayFloor;
+        SNAPSHOT_THREAD.execute(() -> {
+            if (writeSnapshot(encoded)) {
+                deleteHandLogSegments(floor);
+            }
+        });
+    }
+
+    // Segments go once the snapshot, the hand history and the chip ledger no longer read them.
+    private void deleteHandLogSegments(HandLog.Position snapshotFloor) {
+        HandLog.Position ingested = HAND_HISTORY_INGESTER.getStoredCursor();
+        HandLog.Position applied = chipLedgerService.getStoredReplayPosition();
+        if (ingested == null || applied == null) {
+            return;
+        }
+        HandLog.Position floor = snapshotFloor;
+        if (ingested.compareTo(floor) < 0) {
+            floor = ingested;
+        }
+        if (applied.compareTo(floor) < 0) {
+            floor = applied;
+        }
+        try {
+            HAND_LOG.deleteBefore(floor);
+        } catch (IOException e) {
+            LOG.errorv(e, "Failed to delete hand log segments before {0}", floor);
+        }
+    }
+
+    // Written next to the previous snapshot and moved over it, so a crash never leaves half a snapshot behind.
+    private boolean writeSnapshot(Buffer encoded) {
+        Path temporary = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try {
+            if (snapshotFile.getParent() != null) {
+                Files.createDirectories(snapshotFile.getParent());
+            }
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer bytes = ByteBuffer.wrap(encoded.getBytes());
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                channel.force(true);
+            }
+            Files.move(temporary, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            LOG.errorv(e, "Failed to write table snapshot to {0}", snapshotFile);
+            return false;
+        }
+    }
+
+    private void handleReleaseRestoredSeatsEvent(InboundCommand.ReleaseRestoredSeats command) {
+        GameTable table = TABLES.get(command.tableId());
+        if (table != null) {
+            table.releaseAbsentSeats(command.userIds());
+        }
+    }
+
+    /*
+     * Admin changes to a lobby table take it out of play first, on the gameplay thread so that nobody sits down in
+     * between. Seated players hold chips bought from their balance, so a table is only closed once it is empty.
+     */
+    private Uni<GameTable> closeTable(long tableId) {
+        CompletableFuture<GameTable> closed = new CompletableFuture<>();
+        addCommandToQueue(new InboundCommand.CloseTable(null, tableId, closed));
+        return Uni.createFrom().completionStage(closed);
+    }
+
+    private void handleResyncEvent(InboundCommand.Resync command) {
+        WebsocketSession session = SOCKET_SESSIONS.get(command.connectionId());
+        if (session == null) {
+            return;
+        }
+        JsonArray snapshots = new JsonArray();
+        for (GameTable table : session.getTables()) {
+            snapshots.add(table.snapshot(session.getUser().getUserId()));
+        }
+        session.getOutboundQueue().resync(snapshots);
+    }
+
+    private void handleCloseTableEvent(InboundCommand.CloseTable command) {
+        GameTable table = TABLES.get(command.tableId());
+        if (table != null && !table.getSeats().isEmpty()) {
+            command.closed().completeExceptionally(new IllegalArgumentException(
+                    "Table " + command.tableId() + " still has seated players"));
+            return;
+        }
+        if (table != null) {
+            TABLES.remove(command.tableId());
+            LOBBY.remove(command.tableId());
+            SEAT_FINDER.remove(command.tableId());
+            // Nobody is seated, so whoever is still bound to the table only watches it.
+            for (WebsocketSession session : List.copyOf(SOCKET_SESSIONS.byTable(command.tableId()))) {
+                if (session.getUser() != null) {
+                    table.leaveTable(session.getUser(), session);
+                }
+                SOCKET_SESSIONS.unbindTable(session, table);
+                sendWebsocketEvent(new WebsocketEvent(
+                        session.getId(),
+                        "TABLE",
+                        new JsonObject()
+                                .put("action", "TABLE_CLOSED")
+                                .put("tableId", command.tableId())
+                ));
+            }
+        }
+        command.closed().complete(table);
+    }
+
+    private void attachTable(GameTable table) {
+        table.connectToServer(this);
+        table.setReplayCapacity(replayBufferSize);
+        table.setSpectatorHoleCardDelay(spectatorHoleCardDelay);
+        TABLES.put(table.getTableId(), table);
+        SEAT_FINDER.update(LOBBY.put(table));
+    }
+
+    private void flushSpectators() {
+        for (GameTable table : TABLES.values()) {
+            try {
+                table.getSpectatorChannel().flush(SOCKET_METRICS);
+            } catch (RuntimeException e) {
+                // An exception would cancel the scheduled task, so it is only logged.
+                LOG.errorv(e, "Failed to flush spectators of table {0}", table.getTableId());
+            }
+        }
+        try {
+            LOBBY.getSubscribers().flush(SOCKET_METRICS);
+        } catch (RuntimeException e) {
+            LOG.errorv(e, "Failed to flush lobby subscribers");
+        }
     }
 
     public void shutdown(@Observes ShutdownEvent ignored) {
@@ -92,174 +442,506 @@ public class GameService {
         if (EVENT_HANDLER_EMITTER != null) {
             EVENT_HANDLER_EMITTER.complete();
         }
-        if (EVENT_NOTIFIER_TASK != null) {
-            EVENT_NOTIFIER_TASK.cancel();
-        }
-        if (EVENT_NOTIFIER_EMITTER != null) {
-            EVENT_NOTIFIER_EMITTER.complete();
-        }
-        QUERY_THREADS.shutdown();
         GAMEPLAY_THREAD.shutdown();
+        SPECTATOR_THREAD.shutdown();
+        SNAPSHOT_THREAD.shutdown();
+        HAND_LOG_READ_THREAD.shutdown();
+        HAND_HISTORY_INGESTER.stop();
+        chipLedgerService.close();
+        try {
+            HAND_LOG.close();
+        } catch (IOException e) {
+            LOG.errorv(e, "Failed to close the hand log");
+        }
         LOG.infov("GameService shutdown completed");
     }
 
     /*
      * Socket Events
      */
-    private void handleConnectedEvent(WebsocketEvent event) {
-        LOG.infov("Received connected event for {0}: {1}", event.getId(), event.getData());
-        EVENT_NOTIFIER_EMITTER.emit(event);
+    private void handleConnectedEvent(InboundCommand.Connected command) {
+        LOG.infov("Received connected event for {0}", command.connectionId());
+        sendWebsocketEvent(new WebsocketEvent(
+                command.connectionId(),
+                "CONNECTED",
+                new JsonObject()
+        ));
     }
 
-    private void handleDisconnectEvent(WebsocketEvent event) {
-        WebsocketSession session = SOCKET_SESSIONS.get(event.getId());
+    private void handleDisconnectEvent(InboundCommand.Disconnected command) {
+        WebsocketSession session = SOCKET_SESSIONS.remove(command.connectionId());
         if (session == null) {
             return;
         }
-        if (session.getTable() != null) {
-            GameTable gameTable = session.getTable();
-            gameTable.leaveTable(session.getUser(), session);
+        LOBBY.unsubscribe(session);
+        if (session.getUser() != null) {
+            for (FastFoldPool pool : FAST_FOLD_POOLS.values()) {
+                pool.leave(session, "Disconnected");
+            }
+            FAST_FOLD_POOLS.values().removeIf(FastFoldPool::closeIfIdle);
+            for (Tournament tournament : TOURNAMENTS.values()) {
+                tournament.disconnected(session);
+            }
+        }
+        boolean holding = false;
+        for (GameTable gameTable : session.getTables()) {
+            if (session.getResumeToken() != null && gameTable.isSeated(session.getUser().getUserId())) {
+                gameTable.holdSeat(session.getUser(), session);
+                holding = true;
+            } else {
+                gameTable.leaveTable(session.getUser(), session);
+                session.removeTable(gameTable);
+            }
+        }
+        if (holding) {
+            HELD_SESSIONS.put(session.getResumeToken(), session);
+            String resumeToken = session.getResumeToken();
+            Uni.createFrom().voidItem()
+                    .onItem().delayIt().by(resumeGracePeriod)
+                    .subscribe().with(unused -> addCommandToQueue(
+                            new InboundCommand.ResumeExpired(command.connectionId(), resumeToken)));
+        }
+        session.getOutboundQueue().close();
+    }
+
+    private void handleResumeEvent(WebsocketSession session, InboundCommand.Resume command) {
+        WebsocketSession held = HELD_SESSIONS.remove(command.resumeToken());
+        if (held == null) {
+            // Too late or unknown, the client has to authenticate and join again.
+            sendWebsocketEvent(new WebsocketEvent(
+                    session.getId(),
+                    "RESUME",
+                    new JsonObject().put("resumed", false)
+            ));
+            return;
+        }
+        session.setUser(held.getUser());
+        session.setResumeToken(UUID.randomUUID().toString());
+        LOG.infov("User {0} resumed on {1}", session.getUser().getUserId(), session.getId());
+        JsonArray tableIds = new JsonArray();
+        for (GameTable table : held.getTables()) {
+            tableIds.add(table.getTableId());
+        }
+        sendWebsocketEvent(new WebsocketEvent(
+                session.getId(),
+                "RESUME",
+                new JsonObject()
+                        .put("resumed", true)
+                        .put("resumeToken", session.getResumeToken())
+                        .put("tableIds", tableIds)
+        ));
+        // lastSeqs maps each table id to the last delta the client applied on that table.
+        for (GameTable table : held.getTables()) {
+            SOCKET_SESSIONS.bindTable(session, table);
+            table.resumeSeat(held, session, command.lastSeqs().getOrDefault(table.getTableId(), 0L));
         }
     }
 
-    private Uni<Void> handleAuthEvent(WebsocketEvent event) {
+    private void handleResumeExpiredEvent(InboundCommand.ResumeExpired command) {
+        String resumeToken = command.resumeToken();
+        WebsocketSession held = HELD_SESSIONS.get(resumeToken);
+        if (held == null || !held.getId().equals(command.connectionId())) {
+            return;
+        }
+        HELD_SESSIONS.remove(resumeToken);
+        // A player who came back through a fresh JOIN_TABLE instead of RESUME keeps their seat.
+        for (GameTable table : held.getTables()) {
+            if (table.isAbsent(held.getUser().getUserId())) {
+                LOG.infov("Resume grace period of user {0} ran out on table {1}", held.getUser().getUserId(), table.getTableId());
+                table.leaveTable(held.getUser(), held);
+            }
+        }
+    }
+
+    private Uni<Void> handleAuthEvent(WebsocketSession session, InboundCommand.Auth command) {
         return Uni.createFrom().voidItem()
                 .call(() -> {
-                    LOG.infov("Received auth event for {0}: {1}", event.getId(), event.getData());
-                    String accessToken = event.getData().getString("accessToken");
-                    try {
-                        WebsocketSession session = SOCKET_SESSIONS.get(event.getId());
-                        if (session == null) {
-                            return Uni.createFrom().voidItem();
-                        }
-                        Integer userId = Integer.parseInt(jwtParser.parse(accessToken).getSubject());
-                        return userService.fetchUser(userId)
-                                .invoke(session::setUser)
-                                .invoke(() -> LOG.infov("User {0} authenticated", userId))
-                                .invoke(user -> EVENT_NOTIFIER_EMITTER.emit(new WebsocketEvent(
-                                        event.getId(),
-                                        "AUTH",
-                                        new JsonObject()
-                                                .put("user", user)
-                                )));
-                    } catch (Exception e) {
-                        LOG.errorv("Invalid token: {0}", e.getMessage());
-                        return Uni.createFrom().voidItem();
-                    }
+                    LOG.infov("Received auth event for {0}", command.connectionId());
+                    return userService.authenticate(command.accessToken())
+                            .invoke(session::setUser)
+                            .invoke(() -> session.setResumeToken(UUID.randomUUID().toString()))
+                            .invoke(user -> LOG.infov("User {0} authenticated", user.getUserId()))
+                            .invoke(user -> sendWebsocketEvent(new WebsocketEvent(
+                                    session.getId(),
+                                    "AUTH",
+                                    new JsonObject()
+                                            .put("user", user)
+                                            .put("resumeToken", session.getResumeToken())
+                            )))
+                            .onFailure().invoke(e -> LOG.errorv("Authentication failed: {0}", e.getMessage()))
+                            .onFailure().recoverWithNull();
                 });
     }
 
-    private void handleTableEvent(WebsocketEvent event) {
-        Long tableId = event.getData().getLong("tableId");
-        GameTable.TableAction action = GameTable.TableAction.valueOf(event.getData().getString("action"));
-        WebsocketSession session = SOCKET_SESSIONS.get(event.getId());
-        if (session == null) {
-            LOG.errorv("Session not found for {0}", event.getId());
-            return;
+    // The lobby is public, so subscribing needs no authentication.
+    private void handleLobbyEvent(WebsocketSession session, InboundCommand.LobbyCommand command) {
+        switch (command.action()) {
+            case SUBSCRIBE -> LOBBY.subscribe(session);
+            case UNSUBSCRIBE -> LOBBY.unsubscribe(session);
         }
+    }
+
+    private void handleTableEvent(WebsocketSession session, InboundCommand.TableCommand command) {
+        long tableId = command.tableId();
         GameTable table = TABLES.get(tableId);
         if (table == null) {
             throw new RuntimeException("Table not found");
         }
-        switch (action) {
-            case JOIN_TABLE -> {
-                Integer userId = session.getUser().getUserId();
-                table.joinWaitingList(session.getUser(), session);
-                LOG.infov("User {0} joined waiting list for table {1}", userId, tableId);
-                EVENT_NOTIFIER_EMITTER.emit(new WebsocketEvent(
-                        session.getId(),
-                        "TABLE",
-                        new JsonObject()
-                                .put("action", "JOIN_TABLE")
-                                .put("tableId", tableId)
-                                .put("table", table)
-                ));
-            }
+        if (session.getUser() == null) {
+            throw new IllegalStateException("Not authenticated");
+        }
+        switch (command.action()) {
+            case JOIN_TABLE -> joinTable(session, table);
             case TAKE_SEAT -> {
-                Integer seatNumber = event.getData().getInteger("seatIndex");
-                GamePlayer gamePlayer = new GamePlayer(session.getUser(), 500);
-                table.takeSeat(seatNumber, gamePlayer, session);
-                LOG.infov("User {0} took seat {1} at table {2}", session.getUser(), seatNumber, tableId);
-                session.setTable(table);
+                int seatNumber = command.seatIndex();
+                if (table.getSeats().containsKey(seatNumber)) {
+                    throw new IllegalArgumentException("Seat " + seatNumber + " is already taken");
+                }
+                reserveSeat(session, table, seatNumber, buyInFor(table, command.buyIn()));
             }
             case LEAVE_SEAT -> {
-                Integer seatNumber = event.getData().getInteger("seatIndex");
+                int seatNumber = command.seatIndex();
                 table.leaveSeat(seatNumber, session.getUser().getUserId(), session);
-                session.setTable(null);
-                LOG.infov("User {0} left seat {1} at table {2}", event.getId(), seatNumber, tableId);
-                EVENT_NOTIFIER_EMITTER.emit(new WebsocketEvent(
-                        event.getId(),
+                SOCKET_SESSIONS.unbindTable(session, table);
+                LOG.infov("User {0} left seat {1} at table {2}", session.getId(), seatNumber, tableId);
+                sendWebsocketEvent(new WebsocketEvent(
+                        session.getId(),
                         "TABLE",
                         new JsonObject()
                                 .put("action", "LEAVE_SEAT")
                                 .put("tableId", tableId)
-                                .put("table", table)
+                                .put("seatIndex", seatNumber)
                 ));
             }
+            case SYNC -> sendWebsocketEvent(new WebsocketEvent(
+                    session.getId(),
+                    "TABLE",
+                    new JsonObject()
+                            .put("action", "SNAPSHOT")
+                            .put("tableId", tableId)
+                            .put("snapshot", table.snapshot(session.getUser().getUserId()))
+            ));
         }
     }
 
-    private void handleGameEvent(WebsocketEvent event) {
-        LOG.infov("Received game event for {0}: {1}", event.getId(), event.getData());
-        Long tableId = event.getData().getLong("tableId");
-        GameSession.ActionType action = GameSession.ActionType.valueOf(event.getData().getString("action"));
-        Integer amount = event.getData().getInteger("amount", 0);
-        WebsocketSession session = SOCKET_SESSIONS.get(event.getId());
-        if (session == null) {
-            LOG.errorv("Session not found for {0}", event.getId());
+    private void joinTable(WebsocketSession session, GameTable table) {
+        long tableId = table.getTableId();
+        if (!session.isSubscribed(tableId) && session.getTables().size() >= maxTablesPerSession) {
+            throw new IllegalStateException("Cannot join more than " + maxTablesPerSession + " tables");
+        }
+        Integer userId = session.getUser().getUserId();
+        table.joinAsSpectator(session.getUser(), session);
+        SOCKET_SESSIONS.bindTable(session, table);
+        LOG.infov("User {0} is watching table {1}", userId, tableId);
+        sendWebsocketEvent(new WebsocketEvent(
+                session.getId(),
+                "TABLE",
+                new JsonObject()
+                        .put("action", "JOIN_TABLE")
+                        .put("tableId", tableId)
+                        .put("snapshot", table.snapshot(userId))
+        ));
+    }
+
+    // Seats the player at the best filled table for the requested stakes. The finder can lag a seat change behind, so
+    // a few candidates are tried before giving up.
+    private void handlePlayNowEvent(WebsocketSession session, InboundCommand.PlayNow command) {
+        if (session.getUser() == null) {
+            throw new IllegalStateException("Not authenticated");
+        }
+        int userId = session.getUser().getUserId();
+        List<Long> candidates = SEAT_FINDER.find(command.variant(), command.smallBlind(), command.bigBlind(),
+                command.buyIn(), PLAY_NOW_CANDIDATES);
+        for (Long tableId : candidates) {
+            GameTable table = TABLES.get(tableId);
+            if (table == null || table.isSeated(userId)) {
+                continue;
+            }
+            Integer seatNumber = table.firstOpenSeat();
+            if (seatNumber == null) {
+                continue;
+            }
+            joinTable(session, table);
+            reserveSeat(session, table, seatNumber, buyInFor(table, command.buyIn()));
+            LOG.infov("User {0} was matched by play now to seat {1} of table {2}", userId, seatNumber, tableId);
+            return;
+        }
+        throw new IllegalStateException("No open seat for these stakes");
+    }
+
+    // A requested buy-in of 0 takes the default stack, moved into the table's buy-in range.
+    private static int buyInFor(GameTable table, int requested) {
+        int min = table.getMinBuyIn() == null ? 1 : table.getMinBuyIn();
+        int max = table.getMaxBuyIn() == null ? Integer.MAX_VALUE : table.getMaxBuyIn();
+        if (requested == 0) {
+            return Math.min(Math.max(DEFAULT_STACK, min), max);
+        }
+        if (requested < min || requested > max) {
+            throw new IllegalArgumentException("Buy-in must be between " + min + " and " + max);
+        }
+        return requested;
+    }
+
+    // The seat is only taken once the buy-in is reserved against the balance, see handleBuyInReservedEvent.
+    private void reserveSeat(WebsocketSession session, GameTable table, int seatNumber, int buyIn) {
+        String connectionId = session.getId();
+        int userId = session.getUser().getUserId();
+        chipLedgerService.reserveBuyIn(userId, table.getTableId(), buyIn)
+                .subscribe().with(
+                        unused -> addCommandToQueue(new InboundCommand.BuyInReserved(connectionId, table.getTableId(),
+                                seatNumber, userId, buyIn)),
+                        failure -> sendError(connectionId, failure.getMessage(), table.getTableId()));
+    }
+
+    private void handleBuyInReservedEvent(InboundCommand.BuyInReserved command) {
+        WebsocketSession session = SOCKET_SESSIONS.get(command.connectionId());
+        GameTable table = TABLES.get(command.tableId());
+        try {
+            if (session == null || session.getUser() == null || session.getUser().getUserId() != command.userId()
+                    || table == null) {
+                throw new IllegalStateException("Seat is no longer available");
+            }
+            table.takeSeat(command.seatIndex(), new GamePlayer(session.getUser(), command.buyIn()), session);
+        } catch (RuntimeException e) {
+            // Not part of any hand; the chip ledger gives the buy-in back when it reads the record.
+            HAND_LOG.append(command.tableId(), 0, HandEventType.BUY_IN_RELEASED,
+                    HandRecordCodec.seat(command.seatIndex(), command.userId(), command.buyIn()));
+            throw e;
+        }
+        SOCKET_SESSIONS.bindTable(session, table);
+        LOG.infov("User {0} took seat {1} at table {2} with {3}", command.userId(), command.seatIndex(),
+                command.tableId(), command.buyIn());
+    }
+
+    private void handlePoolEvent(WebsocketSession session, InboundCommand.PoolCommand command) {
+        if (session.getUser() == null) {
+            throw new IllegalStateException("Not authenticated");
+        }
+        FastFoldPool.Stakes stakes = new FastFoldPool.Stakes(command.variant(), command.smallBlind(), command.bigBlind());
+        if (!FAST_FOLD_STAKES.contains(stakes)) {
+            throw new IllegalArgumentException("No fast-fold pool for " + stakes);
+        }
+        switch (command.action()) {
+            case JOIN -> {
+                int maxBuyIn = stakes.bigBlind() * fastFoldMaxBuyInBigBlinds;
+                FAST_FOLD_POOLS
+                        .computeIfAbsent(stakes, ignored -> new FastFoldPool(stakes, fastFoldHandSize, this,
+                                UNLISTED_TABLE_IDS::incrementAndGet, UNLISTED_TABLES))
+                        .join(session.getUser(), session,
+                                command.buyIn() > 0 ? command.buyIn() : Math.min(DEFAULT_STACK, maxBuyIn), maxBuyIn);
+            }
+            case LEAVE -> {
+                FastFoldPool pool = FAST_FOLD_POOLS.get(stakes);
+                if (pool == null || !pool.leave(session, "Left")) {
+                    throw new IllegalStateException("Not in this pool");
+                }
+            }
+        }
+        // Pools whose last hand ended after everyone left are dropped here too, with their tables.
+        FAST_FOLD_POOLS.values().removeIf(FastFoldPool::closeIfIdle);
+    }
+
+    private void handleTournamentEvent(WebsocketSession session, InboundCommand.TournamentCommand command) {
+        if (session.getUser() == null) {
+            throw new IllegalStateException("Not authenticated");
+        }
+        Tournament tournament = TOURNAMENTS.get(command.tournamentId());
+        if (tournament == null) {
+            throw new RuntimeException("Tournament not found");
+        }
+        switch (command.action()) {
+            case REGISTER -> tournament.register(session.getUser(), session);
+            case UNREGISTER -> tournament.unregister(session.getUser());
+        }
+    }
+
+    private void handleStartTournamentEvent(InboundCommand.StartTournament command) {
+        Tournament tournament = TOURNAMENTS.get(command.tournamentId());
+        if (tournament == null) {
+            LOG.errorv("Cannot start unknown tournament {0}", command.tournamentId());
             return;
         }
+        try {
+            tournament.start();
+        } catch (RuntimeException e) {
+            LOG.errorv(e, "Failed to start tournament {0}", command.tournamentId());
+        }
+    }
+
+    private void handleDealNextHandEvent(InboundCommand.DealNextHand command) {
+        Tournament tournament = TOURNAMENTS.get(command.tournamentId());
+        if (tournament != null) {
+            tournament.dealNextHand(command.tableId());
+        }
+    }
+
+    private void scheduleNextHand(Tournament tournament, GameTable table) {
+        long tournamentId = tournament.getTournamentId();
+        long tableId = table.getTableId();
+        Uni.createFrom().voidItem()
+                .onItem().delayIt().by(tournamentHandInterval)
+                .subscribe().with(unused -> addCommandToQueue(new InboundCommand.DealNextHand(null, tournamentId, tableId)));
+    }
+
+    private void handleGameEvent(WebsocketSession session, InboundCommand.GameCommand command) {
+        LOG.infov("Received game event for {0}: {1}", session.getId(), command);
+        long tableId = command.tableId();
+        if (session.getUser() == null) {
+            throw new IllegalStateException("Not authenticated");
+        }
         GameTable table = TABLES.get(tableId);
+        if (table == null) {
+            // Pool and tournament hands are never joined; the hand itself checks that the player holds the turn.
+            table = UNLISTED_TABLES.get(tableId);
+        } else if (!session.isSubscribed(tableId)) {
+            throw new IllegalStateException("Not joined to table " + tableId);
+        }
         if (table == null) {
             throw new RuntimeException("Table not found");
         }
-        table.receivePlayerAction(session.getUser().getUserId(), action, amount);
+        table.receivePlayerAction(session.getUser().getUserId(), command.action(), command.amount());
     }
 
-    private Uni<Void> handleMessage(WebsocketEvent event) {
+    private Uni<Void> handleMessage(InboundCommand command) {
         return Uni.createFrom().voidItem()
-                .call(() -> {
-                    WebsocketSession session = SOCKET_SESSIONS.get(event.getId());
-                    if (session == null) {
-                        LOG.errorv("Session not found for {0}", event.getId());
-                        return Uni.createFrom().voidItem();
+                .call(() -> switch (command) {
+                    case InboundCommand.ServerCommand serverCommand -> {
+                        handleServerCommand(serverCommand);
+                        yield Uni.createFrom().voidItem();
                     }
-                    switch (event.getType()) {
-                        case "CONNECTED" -> handleConnectedEvent(event);
-                        case "DISCONNECTED" -> handleDisconnectEvent(event);
-                        case "TABLE" -> handleTableEvent(event);
-                        case "GAME" -> handleGameEvent(event);
-                        case "AUTH" -> {
-                            return handleAuthEvent(event);
-                        }
-                        default -> LOG.infov("Received unknown event for {0}: {1}", event.getId(), event.getData());
-                    }
-                    return Uni.createFrom().voidItem();
+                    case InboundCommand.SessionCommand sessionCommand -> handleSessionCommand(sessionCommand);
                 })
                 .onFailure().recoverWithUni(throwable -> {
-                    LOG.errorv(throwable, "Error handling event {0}: {1}", event.getId(), throwable.getMessage());
-                    EVENT_NOTIFIER_EMITTER.emit(new WebsocketEvent(
-                            event.getId(),
-                            "ERROR",
-                            new JsonObject().put("error", throwable.getMessage())
-                    ));
+                    LOG.errorv(throwable, "Error handling command {0}: {1}", command, throwable.getMessage());
+                    sendError(command.connectionId(), throwable.getMessage(), tableIdOf(command));
                     return Uni.createFrom().voidItem();
-                });
+                })
+                .onTermination().invoke(PENDING_INBOUND_EVENTS::decrementAndGet);
     }
 
+    // Raised by the server itself, without a live connection to look up.
+    private void handleServerCommand(InboundCommand.ServerCommand command) {
+        switch (command) {
+            case InboundCommand.ResumeExpired resumeExpired -> handleResumeExpiredEvent(resumeExpired);
+            case InboundCommand.StartTournament startTournament -> handleStartTournamentEvent(startTournament);
+            case InboundCommand.DealNextHand dealNextHand -> handleDealNextHandEvent(dealNextHand);
+            case InboundCommand.TakeSnapshot takeSnapshot -> handleTakeSnapshotEvent();
+            case InboundCommand.ReleaseRestoredSeats releaseRestoredSeats ->
+                    handleReleaseRestoredSeatsEvent(releaseRestoredSeats);
+            case InboundCommand.BuyInReserved buyInReserved -> handleBuyInReservedEvent(buyInReserved);
+            case InboundCommand.CloseTable closeTable -> handleCloseTableEvent(closeTable);
+            case InboundCommand.Resync resync -> handleResyncEvent(resync);
+        }
+    }
+
+    private Uni<Void> handleSessionCommand(InboundCommand.SessionCommand command) {
+        WebsocketSession session = SOCKET_SESSIONS.get(command.connectionId());
+        if (session == null) {
+            LOG.errorv("Session not found for {0}", command.connectionId());
+            return Uni.createFrom().voidItem();
+        }
+        OutboundBatch batch = new OutboundBatch();
+        COMMAND_BATCH.set(batch);
+        try {
+            switch (command) {
+                case InboundCommand.Connected connected -> handleConnectedEvent(connected);
+                case InboundCommand.Disconnected disconnected -> handleDisconnectEvent(disconnected);
+                case InboundCommand.Resume resume -> handleResumeEvent(session, resume);
+                case InboundCommand.LobbyCommand lobbyCommand -> handleLobbyEvent(session, lobbyCommand);
+                case InboundCommand.TableCommand tableCommand -> handleTableEvent(session, tableCommand);
+                case InboundCommand.PlayNow playNow -> handlePlayNowEvent(session, playNow);
+                case InboundCommand.PoolCommand poolCommand -> handlePoolEvent(session, poolCommand);
+                case InboundCommand.TournamentCommand tournamentCommand -> handleTournamentEvent(session, tournamentCommand);
+                case InboundCommand.GameCommand gameCommand -> handleGameEvent(session, gameCommand);
+                case InboundCommand.Auth auth -> {
+                    return handleAuthEvent(session, auth);
+                }
+            }
+        } finally {
+            COMMAND_BATCH.remove();
+            batch.flush(SOCKET_METRICS);
+        }
+        return Uni.createFrom().voidItem();
+    }
+
+    private void sendError(String connectionId, String error, Long tableId) {
+        sendWebsocketEvent(new WebsocketEvent(
+                connectionId,
+                "ERROR",
+                new JsonObject()
+                        .put("error", error)
+                        .put("tableId", tableId)
+        ));
+    }
+
+    private static Long tableIdOf(InboundCommand command) {
+        return switch (command) {
+            case InboundCommand.TableCommand tableCommand -> tableCommand.tableId();
+            case InboundCommand.GameCommand gameCommand -> gameCommand.tableId();
+            case InboundCommand.BuyInReserved buyInReserved -> buyInReserved.tableId();
+            default -> null;
+        };
+    }
+
+    @Override
     public void sendWebsocketEvent(WebsocketEvent event) {
-        EVENT_NOTIFIER_EMITTER.emit(event);
+        WebsocketSession session = SOCKET_SESSIONS.get(event.getId());
+        if (session == null) {
+            LOG.infov("Cannot send event to stale connection: {0}", event.getId());
+            return;
+        }
+        enqueueFrame(session, session.getProtocol() == WebsocketSession.Protocol.BINARY
+                ? new WebsocketFrame(event.getId(), BinaryProtocol.encode(event), null)
+                : new WebsocketFrame(event.getId(), event.toJsonString()));
     }
 
-    // This should only be called from EVENT_NOTIFIER_EMITTER emitter.
-    private Uni<Void> sendMessageToConnection(WebsocketEvent event) {
-        Optional<WebSocketConnection> optionalConnection = openConnections.findByConnectionId(event.getId());
-        if (optionalConnection.isPresent()) {
-            WebSocketConnection connection = optionalConnection.get();
-            return connection.sendText(event);
+    @Override
+    public void broadcastWebsocketEvent(Collection<WebsocketSession> sessions, WebsocketEvent event) {
+        // Encoded lazily, at most once per protocol.
+        String payload = null;
+        Buffer binaryPayload = null;
+        String coalesceKey = event.coalesceKey();
+        for (WebsocketSession session : sessions) {
+            if (session.getProtocol() == WebsocketSession.Protocol.BINARY) {
+                if (binaryPayload == null) {
+                    binaryPayload = BinaryProtocol.encode(event);
+                }
+                enqueueFrame(session, new WebsocketFrame(session.getId(), binaryPayload, coalesceKey));
+            } else {
+                if (payload == null) {
+                    payload = event.toJsonString();
+                }
+                enqueueFrame(session, new WebsocketFrame(session.getId(), payload, coalesceKey));
+            }
+        }
+    }
+
+    @Override
+    public void seatsChanged(GameTable table) {
+        // Only lobby tables are listed; pool and tournament tables cannot be joined from the lobby.
+        if (TABLES.get(table.getTableId()) == table) {
+            SEAT_FINDER.update(LOBBY.seatsChanged(table));
+        }
+    }
+
+    @Override
+    public void handFinished(GameTable table, int pot) {
+        if (TABLES.get(table.getTableId()) == table) {
+            SEAT_FINDER.update(LOBBY.handFinished(table, pot));
+        }
+    }
+
+    @Override
+    public void recordHandEvent(long tableId, long handId, HandEventType type, Buffer payload) {
+        HAND_LOG.append(tableId, handId, type, payload);
+    }
+
+    private void enqueueFrame(WebsocketSession session, WebsocketFrame frame) {
+        OutboundBatch batch = COMMAND_BATCH.get();
+        if (batch != null) {
+            batch.add(session, frame);
         } else {
-            LOG.infov("Cannot send event to stale connection: {0}", event.getId());
-            return Uni.createFrom().voidItem();
+            session.getOutboundQueue().enqueue(frame);
         }
     }
 
@@ -267,44 +949,208 @@ public class GameService {
      * Websocket Event Emitters
      */
 
-    public void handleOnConnectEvent(String id) {
+    public void handleOnConnectEvent(WebSocketConnection connection) {
+        String id = connection.id();
         LOG.infov("Received connection event for {0}", id);
-        SOCKET_SESSIONS.put(id, new WebsocketSession(id));
-        addWebsocketEventToQueue(id, new WebsocketEvent(
-                id,
-                "CONNECTED",
-                new JsonObject()
-        ));
+        WebsocketSession.Protocol protocol = BinaryProtocol.SUBPROTOCOL.equals(connection.subprotocol())
+                ? WebsocketSession.Protocol.BINARY
+                : WebsocketSession.Protocol.JSON;
+        WebsocketSession session = new WebsocketSession(id, protocol,
+                new OutboundQueue(connection, protocol, maxQueuedFrames, overflowPolicy, SOCKET_METRICS),
+                new TokenBucket(inboundRate, inboundBurst));
+        session.getOutboundQueue().setResyncRequest(() -> addCommandToQueue(new InboundCommand.Resync(id)));
+        SOCKET_SESSIONS.register(session);
+        addCommandToQueue(new InboundCommand.Connected(id));
     }
 
     public void handleOnCloseEvent(String id) {
         LOG.infov("Received close event for {0}", id);
-        addWebsocketEventToQueue(id, new WebsocketEvent(
-                id,
-                "DISCONNECTED",
-                new JsonObject()
-        ));
+        addCommandToQueue(new InboundCommand.Disconnected(id));
+    }
+
+    /*
+     * Entry points for client frames, called on the websocket I/O thread. Frames are rate limited and decoded into
+     * commands here so that floods and malformed input are turned away before they reach the gameplay queue.
+     */
+    public void receiveTextFrame(String id, WebsocketEvent event) {
+        WebsocketSession session = admit(id);
+        if (session == null) {
+            return;
+        }
+        InboundCommand command;
+        try {
+            command = InboundCommand.fromEvent(id, event);
+        } catch (IllegalArgumentException e) {
+            reject(id, e.getMessage());
+            return;
+        }
+        addCommandToQueue(command);
+    }
+
+    public void receiveBinaryFrame(String id, Buffer frame) {
+        WebsocketSession session = admit(id);
+        if (session == null) {
+            return;
+        }
+        InboundCommand command;
+        try {
+            command = BinaryProtocol.decode(id, frame);
+        } catch (RuntimeException e) {
+            reject(id, "Malformed binary frame");
+            return;
+        }
+        addCommandToQueue(command);
     }
 
-    public void addWebsocketEventToQueue(String id, WebsocketEvent event) {
-        LOG.infov("Emitting message event for {0}: {1}", id, event);
-        event.setId(id);
-        EVENT_HANDLER_EMITTER.emit(event);
+    private WebsocketSession admit(String id) {
+        WebsocketSession session = SOCKET_SESSIONS.get(id);
+        if (session == null) {
+            return null;
+        }
+        if (!session.getRateLimiter().tryAcquire()) {
+            SOCKET_METRICS.getThrottledCommands().incrementAndGet();
+            if (session.getRateLimiter().markLimited()) {
+                LOG.warnv("Throttling inbound frames from {0}", id);
+                sendError(id, "Rate limit exceeded", null);
+            }
+            return null;
+        }
+        return session;
+    }
+
+    private void reject(String id, String error) {
+        LOG.warnv("Rejected frame from {0}: {1}", id, error);
+        SOCKET_METRICS.getRejectedCommands().incrementAndGet();
+        sendError(id, error, null);
+    }
+
+    private void addCommandToQueue(InboundCommand command) {
+        PENDING_INBOUND_EVENTS.incrementAndGet();
+        EVENT_HANDLER_EMITTER.emit(command);
+    }
+
+    public JsonObject fetchSocketMetrics() {
+        int maxQueueDepth = 0;
+        for (WebsocketSession session : SOCKET_SESSIONS.all()) {
+            maxQueueDepth = Math.max(maxQueueDepth, session.getOutboundQueue().size());
+        }
+        int spectators = 0;
+        for (GameTable table : TABLES.values()) {
+            spectators += table.getSpectatorChannel().size();
+        }
+        return SOCKET_METRICS.toJson()
+                .put("connections", SOCKET_SESSIONS.size())
+                .put("tables", TABLES.size())
+                .put("heldSeats", HELD_SESSIONS.size())
+                .put("spectators", spectators)
+                .put("lobbySubscribers", LOBBY.getSubscribers().size())
+                .put("openTables", SEAT_FINDER.size())
+                .put("fastFoldPools", fastFoldMetrics())
+                .put("tournaments", TOURNAMENTS.size())
+                .put("handLogPending", HAND_LOG.getPendingCount())
+                .put("handLogRecords", HAND_LOG.getRecordsWritten())
+                .put("handHistory", HAND_HISTORY_INGESTER.getMetrics())
+                .put("chipLedger", chipLedgerService.getMetrics())
+                .put("queries", queryExecutor.getMetrics())
+                .put("passwords", passwordService.getMetrics())
+                .put("userCache", userService.getCacheMetrics())
+                .put("pendingInboundEvents", PENDING_INBOUND_EVENTS.get())
+                .put("maxOutboundQueueDepth", maxQueueDepth);
+    }
+
+    private JsonArray fastFoldMetrics() {
+        JsonArray pools = new JsonArray();
+        for (FastFoldPool pool : FAST_FOLD_POOLS.values()) {
+            pools.add(new JsonObject()
+                    .put("stakes", pool.getStakes().toString())
+                    .put("players", pool.getMemberCount())
+                    .put("ready", pool.getReadyCount())
+                    .put("handsStarted", pool.getHandsStarted()));
+        }
+        return pools;
     }
 
     /*
      * CRUD Operations
      */
-    public Uni<List<GameTable>> fetchTables() {
+    public Uni<List<Tournament>> fetchTournaments() {
+        return Uni.createFrom().item(() -> List.copyOf(TOURNAMENTS.values()));
+    }
+
+    // Tournaments live in memory only, like the tables they run on.
+    public Uni<Tournament> createTournament(Integer userId, Tournament tournament) {
+        return Uni.createFrom().item(() -> {
+            tournament.validateCreate();
+            tournament.setTournamentId(TOURNAMENT_IDS.incrementAndGet());
+            tournament.setCreatedAt(OffsetDateTime.now());
+            tournament.setCreatedBy(userId);
+            tournament.connect(this, UNLISTED_TABLE_IDS::incrementAndGet, UNLISTED_TABLES, this::scheduleNextHand);
+            TOURNAMENTS.put(tournament.getTournamentId(), tournament);
+            LOG.infov("Created tournament {0}", tournament.getTournamentName());
+            return tournament;
+        });
+    }
+
+    public Uni<Tournament> startTournament(Long tournamentId) {
+        return Uni.createFrom().item(() -> {
+            Tournament tournament = TOURNAMENTS.get(tournamentId);
+            if (tournament == null) {
+                throw new RuntimeException("Tournament not found");
+            }
+            if (tournament.getStatus() != Tournament.Status.REGISTERING) {
+                throw new IllegalStateException("Tournament has already started");
+            }
+            addCommandToQueue(new InboundCommand.StartTournament(null, tournamentId));
+            return tournament;
+        });
+    }
+
+    public Uni<List<HandLog.Location>> fetchHands(Long tableId, int limit) {
+        return Uni.createFrom().item(() -> {
+            if (tableId == null) {
+                throw new IllegalArgumentException("tableId is required");
+            }
+            return HAND_LOG.findHands(tableId, limit);
+        });
+    }
+
+    public Uni<JsonArray> fetchHand(Long tableId, Long handId) {
+        if (tableId == null || handId == null) {
+            return Uni.createFrom().failure(new IllegalArgumentException("tableId and handId are required"));
+        }
         return Uni.createFrom().voidItem()
-                .emitOn(QUERY_THREADS)
+                .emitOn(HAND_LOG_READ_THREAD)
+                .map(unused -> {
+                    try {
+                        HandLog.Location location = HAND_LOG.findHand(tableId, handId);
+                        if (location == null) {
+                            throw new RuntimeException("Hand not found");
+                        }
+                        JsonArray records = new JsonArray();
+                        for (HandRecord record : HAND_LOG.readHand(location)) {
+                            records.add(HandRecordCodec.toJson(record));
+                        }
+                        return records;
+                    } catch (IOException e) {
+                        throw new RuntimeException("Failed to read the hand log", e);
+                    }
+                });
+    }
+
+    public LobbyIndex.Listing fetchLobby() {
+        return LOBBY.listing();
+    }
+
+    private Uni<List<GameTable>> loadTables() {
+        return Uni.createFrom().voidItem()
+                .emitOn(queryExecutor)
                 .map(unused -> context.selectFrom(POKER_TABLE)
                         .fetchInto(GameTable.class));
     }
 
     public Uni<GameTable> createTable(Integer userId, GameTable table) {
         return Uni.createFrom().voidItem()
-                .emitOn(QUERY_THREADS)
+                .emitOn(queryExecutor)
                 .map(unused -> {
                     table.validateCreate();
                     PokerTableRecord pokerTableRecord = context.insertInto(POKER_TABLE)
@@ -323,9 +1169,8 @@ public class GameService {
                         table.setTableId(pokerTableRecord.getTableId());
                         table.setCreatedAt(pokerTableRecord.getCreatedAt());
                         table.setCreatedBy(pokerTableRecord.getCreatedBy());
-                        TABLES.put(table.getTableId(), table);
+                        attachTable(table);
                         LOG.infov("Created table {0}", table.getTableName());
-                        table.connectToServer(this);
                         return table;
                     } else {
                         LOG.errorv("Failed to create table {0}", table.getTableName());
@@ -335,8 +1180,8 @@ public class GameService {
     }
 
     public Uni<GameTable> updateTable(GameTable table) {
-        return Uni.createFrom().voidItem()
-                .emitOn(QUERY_THREADS)
+        return closeTable(table.getTableId()).chain(closed -> Uni.createFrom().voidItem()
+                .emitOn(queryExecutor)
                 .map(unused -> {
                     UpdateSetFirstStep<?> update = context.update(POKER_TABLE);
                     UpdateSetMoreStep<?> updateSetMoreStep = null;
@@ -365,27 +1210,32 @@ public class GameService {
 
                     if (updatedTable != null) {
                         LOG.infov("Updated table {0}", table.getTableName());
-                        TABLES.put(table.getTableId(), updatedTable);
-                        updatedTable.connectToServer(this);
+                        attachTable(updatedTable);
                         return updatedTable;
                     } else {
                         LOG.errorv("Failed to update table {0}", table.getTableName());
                         throw new RuntimeException("Failed to update table");
                     }
-                });
+                })
+                .onFailure().invoke(() -> reopenTable(closed)));
+    }
+
+    private void reopenTable(GameTable closed) {
+        if (closed != null) {
+            attachTable(closed);
+        }
     }
 
     public Uni<Void> deleteTable(Long tableId, Integer userId) {
-        return Uni.createFrom().voidItem()
-                .emitOn(QUERY_THREADS)
-                .map(unused -> {
+        return closeTable(tableId).chain(closed -> Uni.createFrom().voidItem()
+                .emitOn(queryExecutor)
+                .invoke(() -> {
                     LOG.infov("User {0} is deleting table {1}", userId, tableId);
                     context.deleteFrom(POKER_TABLE)
                             .where(POKER_TABLE.TABLE_ID.eq(tableId))
                             .execute();
-                    TABLES.remove(tableId);
                     LOG.infov("Deleted table {0}", tableId);
-                    return null;
-                });
+                })
+                .onFailure().invoke(() -> reopenTable(closed)));
     }
 }
@@ -0,0 +1,135 @@
+package dev.manestack.service;
+
+import at.favre.lib.crypto.bcrypt.BCrypt;
+import dev.manestack.service.socket.TokenBucket;
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.json.JsonObject;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/*
+ * BCrypt runs on its own small pool with a bounded queue, apart from the query executor, so a burst of logins costs
+ * CPU but never holds database permits. When the queue is full the attempt is rejected right away instead of waiting
+ * behind it. Before that, every attempt takes a token from the bucket of its client address and of its email, which
+ * keeps a single client or a targeted account from filling the queue. Local load tests log many accounts in from one
+ * address, so loopback clients can be exempted from the address bucket; a proxy on the same host makes every client
+ * look like loopback, so the exemption is off by default.
+ *
+ * Hashes made with a lower cost than the configured one are still accepted; verify reports them so the caller can
+ * store a new hash while it has the password at hand.
+ */
+@ApplicationScoped
+public class PasswordService {
+    private static final int MAX_TRACKED_BUCKETS = 10_000;
+    private final Map<String, TokenBucket> ADDRESS_BUCKETS = new ConcurrentHashMap<>();
+    private final Map<String, TokenBucket> EMAIL_BUCKETS = new ConcurrentHashMap<>();
+    private final AtomicLong THROTTLED = new AtomicLong();
+    private final AtomicLong REJECTED = new AtomicLong();
+    private ThreadPoolExecutor HASH_THREADS;
+
+    @ConfigProperty(name = "dev.manestack.password.cost", defaultValue = "12")
+    int cost;
+    @ConfigProperty(name = "dev.manestack.password.threads", defaultValue = "2")
+    int threads;
+    @ConfigProperty(name = "dev.manestack.password.queue-size", defaultValue = "32")
+    int queueSize;
+    @ConfigProperty(name = "dev.manestack.password.address.rate", defaultValue = "0.5")
+    double addressRate;
+    @ConfigProperty(name = "dev.manestack.password.address.burst", defaultValue = "10")
+    int addressBurst;
+    @ConfigProperty(name = "dev.manestack.password.address.exempt-loopback", defaultValue = "false")
+    boolean exemptLoopback;
+    @ConfigProperty(name = "dev.manestack.password.email.rate", defaultValue = "0.1")
+    double emailRate;
+    @ConfigProperty(name = "dev.manestack.password.email.burst", defaultValue = "5")
+    int emailBurst;
+
+    @PostConstruct
+    void init() {
+        HASH_THREADS = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        HASH_THREADS.shutdown();
+    }
+
+    // Throws before any work is done when the address or the email has used up its attempts.
+    public void admit(String address, String email) {
+        boolean admitted = (exemptLoopback && isLoopback(address))
+                || take(ADDRESS_BUCKETS, address, addressRate, addressBurst);
+        if (admitted && email != null) {
+            admitted = take(EMAIL_BUCKETS, email.toLowerCase(), emailRate, emailBurst);
+        }
+        if (!admitted) {
+            THROTTLED.incrementAndGet();
+            throw new RejectedExecutionException("Too many attempts, try again later");
+        }
+    }
+
+    private static boolean isLoopback(String address) {
+        return address != null && (address.startsWith("127.") || address.equals("::1")
+                || address.equals("0:0:0:0:0:0:0:1"));
+    }
+
+    private static boolean take(Map<String, TokenBucket> buckets, String key, double rate, int burst) {
+        if (key == null) {
+            return true;
+        }
+        if (buckets.size() > MAX_TRACKED_BUCKETS) {
+            buckets.values().removeIf(TokenBucket::isFull);
+        }
+        return buckets.computeIfAbsent(key, ignored -> new TokenBucket(rate, burst)).tryAcquire();
+    }
+
+    public Uni<String> hash(String password) {
+        return submit(() -> BCrypt.withDefaults().hashToString(cost, password.toCharArray()));
+    }
+
+    public Uni<Verification> verify(String password, String hash) {
+        return submit(() -> {
+            BCrypt.Result result = BCrypt.verifyer().verify(password.toCharArray(), hash);
+            return new Verification(result.verified, result.verified && result.details.cost < cost);
+        });
+    }
+
+    private <T> Uni<T> submit(Supplier<T> work) {
+        return Uni.createFrom().emitter(emitter -> {
+            try {
+                HASH_THREADS.execute(() -> {
+                    try {
+                        emitter.complete(work.get());
+                    } catch (RuntimeException e) {
+                        emitter.fail(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                REJECTED.incrementAndGet();
+                emitter.fail(new RejectedExecutionException("Server is busy, try again later"));
+            }
+        });
+    }
+
+    public JsonObject getMetrics() {
+        return new JsonObject()
+                .put("activeHashes", HASH_THREADS.getActiveCount())
+                .put("queuedHashes", HASH_THREADS.getQueue().size())
+                .put("rejected", REJECTED.get())
+                .put("throttled", THROTTLED.get());
+    }
+
+    public record Verification(boolean verified, boolean needsRehash) {
+    }
+}
@@ -1,44 +1,75 @@
 package dev.manestack.service;
 
-import at.favre.lib.crypto.bcrypt.BCrypt;
+import dev.manestack.config.QueryExecutor;
 import dev.manestack.jooq.generated.tables.records.PokerDepositRecord;
 import dev.manestack.jooq.generated.tables.records.PokerWithdrawalRecord;
 import dev.manestack.service.user.Deposit;
+import dev.manestack.service.user.ExpiringCache;
+import dev.manestack.service.user.ListingFilter;
 import dev.manestack.service.user.User;
 import dev.manestack.service.user.UserBalance;
 import dev.manestack.service.user.Withdrawal;
+import io.smallrye.jwt.auth.principal.JWTParser;
 import io.smallrye.jwt.build.Jwt;
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
+import io.vertx.core.json.JsonObject;
+import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.jwt.JsonWebToken;
 import org.jboss.logging.Logger;
+import org.jooq.Condition;
 import org.jooq.DSLContext;
 import org.jooq.JSONB;
 import org.jooq.Record;
-import org.jooq.SelectConditionStep;
 import org.jooq.exception.IntegrityConstraintViolationException;
+import org.jooq.impl.DSL;
 import org.postgresql.util.PSQLException;
 
 import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 import static dev.manestack.jooq.generated.Tables.*;
 
+/*
+ * Verified access tokens and user profiles are cached, so a websocket AUTH costs neither a signature check nor a query
+ * in the common case. A token stays cached until it expires or its TTL runs out, whichever is first. The profile cache
+ * holds only the public profile; callers get a copy, so a balance attached to one is never served to another. Anything
+ * that writes POKER_USER must call invalidateUser, which drops the profile and the tokens of that user.
+ */
 @ApplicationScoped
 public class UserService {
     private static final Logger LOG = Logger.getLogger(UserService.class);
-    private final ExecutorService QUERY_THREADS = Executors.newFixedThreadPool(3);
+    private ExpiringCache<String, Integer> TOKEN_CACHE;
+    private ExpiringCache<Integer, User> PROFILE_CACHE;
 
     @Inject
     DSLContext context;
+    @Inject
+    QueryExecutor queryExecutor;
+    @Inject
+    PasswordService passwordService;
+    @Inject
+    JWTParser jwtParser;
 
     @ConfigProperty(name = "dev.manestack.jwt.issuer", defaultValue = "https://manestack.dev")
     String jwtIssuer;
+    @ConfigProperty(name = "dev.manestack.user-cache.max-size", defaultValue = "10000")
+    int cacheMaxSize;
+    @ConfigProperty(name = "dev.manestack.user-cache.ttl", defaultValue = "PT5M")
+    Duration cacheTtl;
+
+    @PostConstruct
+    void init() {
+        TOKEN_CACHE = new ExpiringCache<>(cacheMaxSize, cacheTtl.toMillis());
+        PROFILE_CACHE = new ExpiringCache<>(cacheMaxSize, cacheTtl.toMillis());
+    }
 
     private String generateJWT(Integer userId, String role) {
         return Jwt.issuer(jwtIssuer)
@@ -49,9 +80,32 @@ public class UserService {
                 .sign();
     }
 
+    // Verifies the token unless it was verified before, then fetches the profile of its subject.
+    public Uni<User> authenticate(String accessToken) {
+        return Uni.createFrom().item(() -> {
+                    Integer userId = TOKEN_CACHE.get(accessToken);
+                    if (userId == null) {
+                        try {
+                            JsonWebToken token = jwtParser.parse(accessToken);
+                            userId = Integer.parseInt(token.getSubject());
+                            TOKEN_CACHE.put(accessToken, userId, token.getExpirationTime() * 1000);
+                        } catch (Exception e) {
+                            throw new IllegalArgumentException("Invalid token: " + e.getMessage());
+                        }
+                    }
+                    return userId;
+                })
+                .chain(this::fetchUser)
+                .onItem().ifNull().failWith(() -> new RuntimeException("User not found"));
+    }
+
     public Uni<User> fetchUser(Integer userId) {
+        User cached = PROFILE_CACHE.get(userId);
+        if (cached != null) {
+            return Uni.createFrom().item(new User(cached));
+        }
         return Uni.createFrom().voidItem()
-                .emitOn(QUERY_THREADS)
+                .emitOn(queryExecutor)
                 .map(unused -> context.selectFrom(POKER_USER)
                         .where(POKER_USER.USER_ID.eq(userId))
                         .fetchOneInto(User.class))
@@ -60,14 +114,26 @@ public class UserService {
                         user.setPassword(null);
                         user.setBankName(null);
                         user.setAccountNumber(null);
+                        PROFILE_CACHE.put(userId, new User(user));
                     }
                     return user;
                 });
     }
 
+    public void invalidateUser(Integer userId) {
+        PROFILE_CACHE.invalidate(userId);
+        TOKEN_CACHE.invalidateIf(userId::equals);
+    }
+
+    public JsonObject getCacheMetrics() {
+        return new JsonObject()
+                .put("tokens", TOKEN_CACHE.getMetrics())
+                .put("profiles", PROFILE_CACHE.getMetrics());
+    }
+
     public Uni<List<User>> searchUsers(String username, boolean isAdmin) {
         return Uni.createFrom().voidItem()
-                .emitOn(QUERY_THREADS)
+                .emitOn(queryExecutor)
                 .map(unused -> {
                     List<User> userList = new ArrayList<>();
                     context.selectFrom(POKER_USER)
@@ -85,13 +151,15 @@ public class UserService {
                 });
     }
 
-    public Uni<String> registerUser(User user) {
+    // The password is hashed on the password pool before a query permit is taken for the insert.
+    public Uni<String> registerUser(User user, String address) {
         return Uni.createFrom().voidItem()
-                .emitOn(QUERY_THREADS)
                 .invoke(user::validateRegister)
-                .map(unused -> {
+                .invoke(() -> passwordService.admit(address, null))
+                .chain(() -> passwordService.hash(user.getPassword()))
+                .emitOn(queryExecutor)
+                .map(hashedPassword -> {
                     try {
-                        String hashedPassword = BCrypt.withDefaults().hashToString(12, user.getPassword().toCharArray());
                         Integer userId = context.insertInto(POKER_USER)
                                 .set(POKER_USER.EMAIL, user.getEmail())
                                 .set(POKER_USER.USERNAME, user.getUsername())
@@ -125,72 +193,119 @@ public class UserService {
                 });
     }
 
-    public Uni<String> loginUser(String email, String password) {
+    public Uni<String> loginUser(String email, String password, String address) {
         return Uni.createFrom().voidItem()
-                .emitOn(QUERY_THREADS)
+                .invoke(() -> passwordService.admit(address, email))
+                .emitOn(queryExecutor)
                 .map(unused -> {
                     User user = context.selectFrom(POKER_USER)
                             .where(POKER_USER.EMAIL.eq(email))
                             .fetchOneInto(User.class);
-                    if (user != null) {
-                        BCrypt.Result result = BCrypt.verifyer().verify(password.toCharArray(), user.getPassword());
-                        if (!result.verified) {
-                            throw new RuntimeException("Invalid username or password");
-                        }
-                    } else {
+                    if (user == null) {
                         throw new RuntimeException("User not found");
                     }
-                    return generateJWT(user.getUserId(), user.getRole().name());
-                });
+                    return user;
+                })
+                .chain(user -> passwordService.verify(password, user.getPassword())
+                        .map(verification -> {
+                            if (!verification.verified()) {
+                                throw new RuntimeException("Invalid username or password");
+                            }
+                            if (verification.needsRehash()) {
+                                upgradePassword(user.getUserId(), user.getPassword(), password);
+                            }
+                            return generateJWT(user.getUserId(), user.getRole().name());
+                        }));
+    }
+
+    // Detached from the login; if it fails the next login tries again. Only replaces the hash the login was checked
+    // against.
+    private void upgradePassword(Integer userId, String previousHash, String password) {
+        passwordService.hash(password)
+                .emitOn(queryExecutor)
+                .map(hashedPassword -> context.update(POKER_USER)
+                        .set(POKER_USER.PASSWORD, hashedPassword)
+                        .where(POKER_USER.USER_ID.eq(userId))
+                        .and(POKER_USER.PASSWORD.eq(previousHash))
+                        .execute())
+                .invoke(() -> invalidateUser(userId))
+                .subscribe().with(
+                        updated -> LOG.infov("Upgraded password hash of user {0}", userId),
+                        failure -> LOG.warnv("Failed to upgrade password hash of user {0}: {1}", userId, failure.getMessage()));
     }
 
     /*
      * Details Methods
      */
-    public Uni<List<Deposit>> fetchDeposits(Integer userId) {
+    public Uni<ListingFilter.Page<Deposit>> fetchDeposits(ListingFilter filter) {
         return Uni.createFrom().voidItem()
-                .emitOn(QUERY_THREADS)
+                .emitOn(queryExecutor)
                 .map(unused -> {
-                    List<Deposit> deposits = new ArrayList<>();
-                    SelectConditionStep<Record> selectStep = context.select()
-                            .from(POKER_DEPOSIT)
-                            .leftJoin(POKER_USER).on(POKER_DEPOSIT.USER_ID.eq(POKER_USER.USER_ID))
-                            .where(POKER_USER.USER_ID.isNotNull());
-                    if (userId != null) {
-                        selectStep = selectStep.and(POKER_DEPOSIT.USER_ID.eq(userId));
-                    }
-                    selectStep.fetch().forEach(record -> {
-                        PokerDepositRecord depositRecord = record.into(POKER_DEPOSIT);
-                        Deposit deposit = new Deposit(depositRecord);
-                        User user = record.into(POKER_USER).into(User.class);
-                        deposit.setUser(user);
-                        deposits.add(deposit);
-                    });
-                    return deposits;
+                    List<Deposit> deposits = fetchDepositRows(filter);
+                    return new ListingFilter.Page<>(deposits, deposits.size() < filter.limit() ? null :
+                            ListingFilter.cursorOf(deposits.getLast().getCreateDate(), deposits.getLast().getDepositId()));
                 });
     }
 
+    public Multi<Deposit> exportDeposits(ListingFilter filter) {
+        return exportRows(filter, this::fetchDepositRows, Deposit::getCreateDate, Deposit::getDepositId);
+    }
+
+    private List<Deposit> fetchDepositRows(ListingFilter filter) {
+        Condition condition = DSL.noCondition();
+        if (filter.userId() != null) {
+            condition = condition.and(POKER_DEPOSIT.USER_ID.eq(filter.userId()));
+        }
+        if (filter.status() != null) {
+            condition = condition.and(POKER_DEPOSIT.TYPE.eq(parseStatus(Deposit.DepositType.class, filter.status()).name()));
+        }
+        if (filter.from() != null) {
+            condition = condition.and(POKER_DEPOSIT.CREATE_DATE.ge(filter.from()));
+        }
+        if (filter.to() != null) {
+            condition = condition.and(POKER_DEPOSIT.CREATE_DATE.lt(filter.to()));
+        }
+        if (filter.afterDate() != null) {
+            condition = condition.and(DSL.row(POKER_DEPOSIT.CREATE_DATE, POKER_DEPOSIT.DEPOSIT_ID)
+                    .lt(filter.afterDate(), filter.afterId()));
+        }
+        return context.select(POKER_DEPOSIT.fields()).select(POKER_USER.USERNAME, POKER_USER.EMAIL)
+                .from(POKER_DEPOSIT)
+                .join(POKER_USER).on(POKER_DEPOSIT.USER_ID.eq(POKER_USER.USER_ID))
+                .where(condition)
+                .orderBy(POKER_DEPOSIT.CREATE_DATE.desc(), POKER_DEPOSIT.DEPOSIT_ID.desc())
+                .limit(filter.limit())
+                .fetch(record -> {
+                    Deposit deposit = new Deposit(record.into(POKER_DEPOSIT));
+                    deposit.setUser(listedUser(deposit.getUserId(), record));
+                    return deposit;
+                });
+    }
+
+    // The deposit and the balance it credits are written in one transaction.
     public Uni<Deposit> createDeposit(Integer adminId, Deposit deposit) {
-        return fetchUser(adminId)
-                .emitOn(QUERY_THREADS)
-                .chain(adminUser -> {
+        return Uni.createFrom().voidItem()
+                .emitOn(queryExecutor)
+                .map(unused -> {
                     deposit.validate();
                     try {
-                        PokerDepositRecord record = context.insertInto(POKER_DEPOSIT)
-                                .set(POKER_DEPOSIT.USER_ID, deposit.getUserId())
-                                .set(POKER_DEPOSIT.ADMIN_ID, adminId)
-                                .set(POKER_DEPOSIT.AMOUNT, deposit.getAmount())
-                                .set(POKER_DEPOSIT.TYPE, deposit.getType().name())
-                                .set(POKER_DEPOSIT.CREATE_DATE, OffsetDateTime.now())
-                                .set(POKER_DEPOSIT.DETAILS, JSONB.valueOf(deposit.getDetails().encode()))
-                                .returning()
-                                .fetchOne();
-                        if (record != null) {
-                            return incrementBalance(deposit.getUserId(), deposit.getAmount())
-                                    .replaceWith(new Deposit(record));
-                        } else {
-                            throw new RuntimeException("Failed to create deposit");
-                        }
+                        return context.transactionResult(configuration -> {
+                            DSLContext transaction = DSL.using(configuration);
+                            PokerDepositRecord record = transaction.insertInto(POKER_DEPOSIT)
+                                    .set(POKER_DEPOSIT.USER_ID, deposit.getUserId())
+                                    .set(POKER_DEPOSIT.ADMIN_ID, adminId)
+                                    .set(POKER_DEPOSIT.AMOUNT, deposit.getAmount())
+                                    .set(POKER_DEPOSIT.TYPE, deposit.getType().name())
+                                    .set(POKER_DEPOSIT.CREATE_DATE, OffsetDateTime.now())
+                                    .set(POKER_DEPOSIT.DETAILS, JSONB.valueOf(deposit.getDetails().encode()))
+                                    .returning()
+                                    .fetchOne();
+                            if (record == null) {
+                                throw new RuntimeException("Failed to create deposit");
+                            }
+                            incrementBalance(transaction, deposit.getUserId(), deposit.getAmount());
+                            return new Deposit(record);
+                        });
                     } catch (IntegrityConstraintViolationException integrityException) {
                         if (integrityException.getCause() instanceof PSQLException psqlException) {
                             if (psqlException.getServerErrorMessage() != null &&
@@ -209,7 +324,7 @@ public class UserService {
 
     public Uni<Withdrawal> fetchWithdrawalById(Long withdrawalId) {
         return Uni.createFrom().voidItem()
-                .emitOn(QUERY_THREADS)
+                .emitOn(queryExecutor)
                 .map(unused -> {
                     PokerWithdrawalRecord record = context.selectFrom(POKER_WITHDRAWAL)
                             .where(POKER_WITHDRAWAL.WITHDRAWAL_ID.eq(withdrawalId))
@@ -222,75 +337,148 @@ public class UserService {
                 });
     }
 
-    public Uni<List<Withdrawal>> fetchWithdrawals(Integer userId) {
+    public Uni<ListingFilter.Page<Withdrawal>> fetchWithdrawals(ListingFilter filter) {
         return Uni.createFrom().voidItem()
-                .emitOn(QUERY_THREADS)
+                .emitOn(queryExecutor)
                 .map(unused -> {
-                    List<Withdrawal> withdrawals = new ArrayList<>();
-                    SelectConditionStep<Record> selectStep = context.select()
-                            .from(POKER_WITHDRAWAL)
-                            .leftJoin(POKER_USER).on(POKER_WITHDRAWAL.USER_ID.eq(POKER_USER.USER_ID))
-                            .where(POKER_USER.USER_ID.isNotNull());
-                    if (userId != null) {
-                        selectStep = selectStep.and(POKER_WITHDRAWAL.USER_ID.eq(userId));
-                    }
-                    selectStep.fetch().forEach(record -> {
-                        PokerWithdrawalRecord withdrawalRecord = record.into(POKER_WITHDRAWAL);
-                        Withdrawal withdrawal = new Withdrawal(withdrawalRecord);
-                        User user = record.into(POKER_USER).into(User.class);
-                        withdrawal.setUser(user);
-                        withdrawals.add(withdrawal);
-                    });
-                    return withdrawals;
+                    List<Withdrawal> withdrawals = fetchWithdrawalRows(filter);
+                    return new ListingFilter.Page<>(withdrawals, withdrawals.size() < filter.limit() ? null :
+                            ListingFilter.cursorOf(withdrawals.getLast().getCreateDate(), withdrawals.getLast().getWithdrawalId()));
+                });
+    }
+
+    public Multi<Withdrawal> exportWithdrawals(ListingFilter filter) {
+        return exportRows(filter, this::fetchWithdrawalRows, Withdrawal::getCreateDate, Withdrawal::getWithdrawalId);
+    }
+
+    private List<Withdrawal> fetchWithdrawalRows(ListingFilter filter) {
+        Condition condition = DSL.noCondition();
+        if (filter.userId() != null) {
+            condition = condition.and(POKER_WITHDRAWAL.USER_ID.eq(filter.userId()));
+        }
+        if (filter.status() != null) {
+            condition = condition.and(switch (parseStatus(Withdrawal.Status.class, filter.status())) {
+                case PENDING -> POKER_WITHDRAWAL.APPROVED_BY.isNull();
+                case APPROVED -> POKER_WITHDRAWAL.APPROVED_BY.isNotNull();
+            });
+        }
+        if (filter.from() != null) {
+            condition = condition.and(POKER_WITHDRAWAL.CREATE_DATE.ge(filter.from()));
+        }
+        if (filter.to() != null) {
+            condition = condition.and(POKER_WITHDRAWAL.CREATE_DATE.lt(filter.to()));
+        }
+        if (filter.afterDate() != null) {
+            condition = condition.and(DSL.row(POKER_WITHDRAWAL.CREATE_DATE, POKER_WITHDRAWAL.WITHDRAWAL_ID)
+                    .lt(filter.afterDate(), filter.afterId()));
+        }
+        return context.select(POKER_WITHDRAWAL.fields()).select(POKER_USER.USERNAME, POKER_USER.EMAIL)
+                .from(POKER_WITHDRAWAL)
+                .join(POKER_USER).on(POKER_WITHDRAWAL.USER_ID.eq(POKER_USER.USER_ID))
+                .where(condition)
+                .orderBy(POKER_WITHDRAWAL.CREATE_DATE.desc(), POKER_WITHDRAWAL.WITHDRAWAL_ID.desc())
+                .limit(filter.limit())
+                .fetch(record -> {
+                    Withdrawal withdrawal = new Withdrawal(record.into(POKER_WITHDRAWAL));
+                    withdrawal.setUser(listedUser(withdrawal.getUserId(), record));
+                    return withdrawal;
                 });
     }
 
+    // Only the columns a listing shows are selected from POKER_USER; the password hash and bank details stay out.
+    private static User listedUser(Integer userId, Record record) {
+        User user = new User();
+        user.setUserId(userId);
+        user.setUsername(record.get(POKER_USER.USERNAME));
+        user.setEmail(record.get(POKER_USER.EMAIL));
+        return user;
+    }
+
+    private static <E extends Enum<E>> E parseStatus(Class<E> type, String status) {
+        try {
+            return Enum.valueOf(type, status);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid status: " + status);
+        }
+    }
+
+    /*
+     * Exports walk the listing one keyset page at a time instead of holding a server-side cursor open for the whole
+     * download, which would pin a pooled connection and a query permit for as long as the client takes to read. The
+     * next page is only queried once the previous one has been written, so memory stays at one page.
+     */
+    private <T> Multi<T> exportRows(ListingFilter filter, Function<ListingFilter, List<T>> fetchRows,
+                                    Function<T, OffsetDateTime> createDateOf, Function<T, Long> idOf) {
+        return Multi.createBy().repeating()
+                .uni(() -> new AtomicReference<>(filter), position -> Uni.createFrom().voidItem()
+                        .emitOn(queryExecutor)
+                        .map(unused -> {
+                            List<T> rows = fetchRows.apply(position.get());
+                            if (!rows.isEmpty()) {
+                                T last = rows.getLast();
+                                position.set(position.get().after(createDateOf.apply(last), idOf.apply(last)));
+                            }
+                            return rows;
+                        }))
+                .whilst(rows -> rows.size() == filter.limit())
+                .onItem().disjoint();
+    }
+
+    // The amount is locked before the withdrawal is inserted, in the same transaction, so an insufficient balance
+    // leaves nothing behind.
     public Uni<Withdrawal> createWithdrawal(Integer userId, Withdrawal withdrawal) {
-        return fetchUserBalance(userId)
-                .emitOn(QUERY_THREADS)
-                .map(userBalance -> {
+        return Uni.createFrom().voidItem()
+                .emitOn(queryExecutor)
+                .map(unused -> {
                     withdrawal.validate();
-                    if (withdrawal.getAmount() > userBalance.getBalance()) {
-                        throw new RuntimeException("Insufficient balance");
-                    }
-                    PokerWithdrawalRecord record = context.insertInto(POKER_WITHDRAWAL)
-                            .set(POKER_WITHDRAWAL.AMOUNT, withdrawal.getAmount())
-                            .set(POKER_WITHDRAWAL.USER_ID, userId)
-                            .set(POKER_WITHDRAWAL.CREATE_DATE, OffsetDateTime.now())
-                            .set(POKER_WITHDRAWAL.DETAILS, JSONB.valueOf(withdrawal.getDetails().encode()))
-                            .returning()
-                            .fetchOne();
-                    if (record != null) {
+                    return context.transactionResult(configuration -> {
+                        DSLContext transaction = DSL.using(configuration);
+                        lockUserBalance(transaction, userId, withdrawal.getAmount());
+                        PokerWithdrawalRecord record = transaction.insertInto(POKER_WITHDRAWAL)
+                                .set(POKER_WITHDRAWAL.AMOUNT, withdrawal.getAmount())
+                                .set(POKER_WITHDRAWAL.USER_ID, userId)
+                                .set(POKER_WITHDRAWAL.CREATE_DATE, OffsetDateTime.now())
+                                .set(POKER_WITHDRAWAL.DETAILS, JSONB.valueOf(withdrawal.getDetails().encode()))
+                                .returning()
+                                .fetchOne();
+                        if (record == null) {
+                            throw new RuntimeException("Failed to create withdrawal");
+                        }
                         return new Withdrawal(record);
-                    } else {
-                        throw new RuntimeException("Failed to create withdrawal");
-                    }
-                })
-                .call(unused -> lockUserBalance(userId, withdrawal.getAmount()));
+                    });
+                });
     }
 
+    // Only an unapproved withdrawal is updated, so two admins approving at once release the locked amount only once.
     public Uni<Withdrawal> approveWithdrawal(Integer agentId, Long withdrawalId) {
-        return fetchWithdrawalById(withdrawalId)
-                .map(withdrawal -> {
-                    if (withdrawal.getApprovedBy() != null) {
-                        throw new RuntimeException("Withdrawal already approved");
-                    }
-                    if (withdrawal.getAmount() <= 0) {
-                        throw new RuntimeException("Invalid withdrawal amount");
-                    }
-                    return context.update(POKER_WITHDRAWAL)
+        return Uni.createFrom().voidItem()
+                .emitOn(queryExecutor)
+                .map(unused -> context.transactionResult(configuration -> {
+                    DSLContext transaction = DSL.using(configuration);
+                    PokerWithdrawalRecord record = transaction.update(POKER_WITHDRAWAL)
                             .set(POKER_WITHDRAWAL.APPROVED_BY, agentId)
                             .set(POKER_WITHDRAWAL.APPROVE_DATE, OffsetDateTime.now())
                             .where(POKER_WITHDRAWAL.WITHDRAWAL_ID.eq(withdrawalId))
+                            .and(POKER_WITHDRAWAL.APPROVED_BY.isNull())
                             .returning()
-                            .fetchOneInto(Withdrawal.class);
-                })
-                .call(withdrawal -> unlockUserBalance(withdrawal.getUserId(), withdrawal.getAmount(), false));
+                            .fetchOne();
+                    if (record == null) {
+                        if (transaction.fetchExists(POKER_WITHDRAWAL, POKER_WITHDRAWAL.WITHDRAWAL_ID.eq(withdrawalId))) {
+                            throw new RuntimeException("Withdrawal already approved");
+                        }
+                        throw new RuntimeException("Withdrawal not found");
+                    }
+                    if (record.getAmount() <= 0) {
+                        throw new RuntimeException("Invalid withdrawal amount");
+                    }
+                    unlockUserBalance(transaction, record.getUserId(), record.getAmount(), false);
+                    return new Withdrawal(record);
+                }));
     }
 
     public Uni<UserBalance> fetchUserBalance(Integer userId) {
         return Uni.createFrom().voidItem()
-                .emitOn(QUERY_THREADS)
+                .emitOn(queryExecutor)
                 .map(unused -> context.selectFrom(POKER_USER_BALANCE)
                         .where(POKER_USER_BALANCE.USER_ID.eq(userId))
                         .fetchOneInto(UserBalance.class))
@@ -307,62 +495,49 @@ public class UserService {
                 });
     }
 
-    private Uni<Void> lockUserBalance(Integer userId, int amount) {
-        return fetchUserBalance(userId)
-                .map(userBalance -> {
-                    if (userBalance.getBalance() < amount) {
-                        throw new RuntimeException("Insufficient balance");
-                    }
-                    return context.update(POKER_USER_BALANCE)
-                            .set(POKER_USER_BALANCE.LOCKED_AMOUNT, userBalance.getLockedAmount() + amount)
-                            .set(POKER_USER_BALANCE.BALANCE, userBalance.getBalance() - amount)
-                            .where(POKER_USER_BALANCE.USER_ID.eq(userId))
-                            .execute();
-                })
-                .replaceWithVoid();
+    /*
+     * Balance mutations. Each is a single conditional statement, so concurrent changes never overwrite each other and
+     * a balance cannot go below zero; the caller's transaction is rolled back when one does not apply.
+     */
+    private UserBalance lockUserBalance(DSLContext transaction, Integer userId, int amount) {
+        UserBalance userBalance = transaction.update(POKER_USER_BALANCE)
+                .set(POKER_USER_BALANCE.BALANCE, POKER_USER_BALANCE.BALANCE.subtract(amount))
+                .set(POKER_USER_BALANCE.LOCKED_AMOUNT, POKER_USER_BALANCE.LOCKED_AMOUNT.add(amount))
+                .where(POKER_USER_BALANCE.USER_ID.eq(userId))
+                .and(POKER_USER_BALANCE.BALANCE.ge(amount))
+                .returning()
+                .fetchOneInto(UserBalance.class);
+        if (userBalance == null) {
+            throw new RuntimeException("Insufficient balance");
+        }
+        return userBalance;
     }
 
-    private Uni<Void> unlockUserBalance(Integer userId, int amount, boolean isCancelled) {
-        return fetchUserBalance(userId)
-                .map(userBalance -> {
-                    if (isCancelled) {
-                        return context.update(POKER_USER_BALANCE)
-                                .set(POKER_USER_BALANCE.LOCKED_AMOUNT, userBalance.getLockedAmount() - amount)
-                                .set(POKER_USER_BALANCE.BALANCE, userBalance.getBalance() + amount)
-                                .where(POKER_USER_BALANCE.USER_ID.eq(userId))
-                                .execute();
-                    } else {
-                        return context.update(POKER_USER_BALANCE)
-                                .set(POKER_USER_BALANCE.LOCKED_AMOUNT, userBalance.getLockedAmount() - amount)
-                                .where(POKER_USER_BALANCE.USER_ID.eq(userId))
-                                .execute();
-                    }
-                })
-                .replaceWithVoid();
+    private UserBalance unlockUserBalance(DSLContext transaction, Integer userId, int amount, boolean isCancelled) {
+        UserBalance userBalance = transaction.update(POKER_USER_BALANCE)
+                .set(POKER_USER_BALANCE.LOCKED_AMOUNT, POKER_USER_BALANCE.LOCKED_AMOUNT.subtract(amount))
+                .set(POKER_USER_BALANCE.BALANCE, isCancelled
+                        ? POKER_USER_BALANCE.BALANCE.add(amount) : POKER_USER_BALANCE.BALANCE)
+                .where(POKER_USER_BALANCE.USER_ID.eq(userId))
+                .and(POKER_USER_BALANCE.LOCKED_AMOUNT.ge(amount))
+                .returning()
+                .fetchOneInto(UserBalance.class);
+        if (userBalance == null) {
+            throw new RuntimeException("Locked amount is lower than " + amount);
+        }
+        return userBalance;
     }
 
-    private Uni<UserBalance> incrementBalance(Integer userId, int amount) {
-        return Uni.createFrom().voidItem()
-                .emitOn(QUERY_THREADS)
-                .map(unused -> {
-                    UserBalance userBalance = context.update(POKER_USER_BALANCE)
-                            .set(POKER_USER_BALANCE.BALANCE, POKER_USER_BALANCE.BALANCE.add(amount))
-                            .where(POKER_USER_BALANCE.USER_ID.eq(userId))
-                            .returning()
-                            .fetchOneInto(UserBalance.class);
-                    if (userBalance != null) {
-                        return userBalance;
-                    } else {
-                        UserBalance newUserBalance = new UserBalance();
-                        newUserBalance.setUserId(userId);
-                        newUserBalance.setBalance(amount);
-                        newUserBalance.setLockedAmount(0);
-                        context.insertInto(POKER_USER_BALANCE)
-                                .set(POKER_USER_BALANCE.USER_ID, userId)
-                                .set(POKER_USER_BALANCE.BALANCE, amount)
-                                .execute();
-                        return newUserBalance;
-                    }
-                });
+    // Creates the balance row on the first deposit.
+    private UserBalance incrementBalance(DSLContext transaction, Integer userId, int amount) {
+        return transaction.insertInto(POKER_USER_BALANCE)
+                .set(POKER_USER_BALANCE.USER_ID, userId)
+                .set(POKER_USER_BALANCE.BALANCE, amount)
+                .set(POKER_USER_BALANCE.LOCKED_AMOUNT, 0)
+                .onConflict(POKER_USER_BALANCE.USER_ID)
+                .doUpdate()
+                .set(POKER_USER_BALANCE.BALANCE, POKER_USER_BALANCE.BALANCE.add(amount))
+                .returning()
+                .fetchOneInto(UserBalance.class);
     }
 }
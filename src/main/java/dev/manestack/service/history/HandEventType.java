@@ -0,0 +1,14 @@
+package dev.manestack.service.history;
+
+// Stored as its ordinal, so new types are only ever appended.
+public enum HandEventType {
+    HAND_START,
+    HOLE_CARDS,
+    ACTION,
+    BOARD,
+    SETTLEMENT,
+    VOID,
+    SEAT_TAKEN,
+    CASH_OUT,
+    BUY_IN_RELEASED
+}
@@ -0,0 +1,348 @@
+package dev.manestack.service.history;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import dev.manestack.config.QueryExecutor;
+import org.jboss.logging.Logger;
+import org.jooq.DSLContext;
+import org.jooq.Name;
+import org.jooq.Record2;
+import org.jooq.impl.DSL;
+import org.postgresql.PGConnection;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static dev.manestack.jooq.generated.Tables.HAND_HISTORY;
+import static dev.manestack.jooq.generated.Tables.HAND_HISTORY_CURSOR;
+
+/*
+ * Copies finished hands from the hand log into the hand_history table. The hand log already is the durable queue
+ * between the gameplay thread and the database, so nothing is buffered on the way: a single thread tails the log,
+ * collects the records of each hand until its SETTLEMENT or VOID and writes the finished hands in batches, each batch
+ * with one COPY into a staging table and one INSERT from there, in the same transaction as the log position it read up
+ * to. Memory stays bounded by one open hand per table plus one batch, and a database outage only makes the log grow.
+ *
+ * The position stored is where the oldest hand still open starts, so after a restart those hands are read again from
+ * their HAND_START; hands written twice are dropped by the (table_id, hand_id, started_at) key. A hand left open for
+ * longer than the abandon timeout is written as ABANDONED, and replaced once its VOID shows up after a restart.
+ *
+ * hand_history and hand_history_cursor come from config/migrations/002_hand_history.sql. hand_history is partitioned
+ * by day of started_at; the ingester creates the partitions it writes to, and retention drops whole partitions.
+ */
+public class HandHistoryIngester {
+    private static final Logger LOG = Logger.getLogger(HandHistoryIngester.class);
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final String COLUMNS =
+            "started_at, table_id, hand_id, finished_at, outcome, small_blind, big_blind, pot, user_ids, records";
+    private static final Name STAGING = DSL.name("hand_history_staging");
+    private static final Duration MAX_BACKOFF = Duration.ofMinutes(1);
+    private static final Duration RETENTION_CHECK_INTERVAL = Duration.ofHours(1);
+    private final HandLog handLog;
+    private final DSLContext context;
+    private final QueryExecutor queryExecutor;
+    private final String nodeId;
+    private final int batchSize;
+    private final long abandonAfterMillis;
+    private final Duration retention;
+    private final ScheduledExecutorService ingester = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicLong handsIngested = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    // Owned by the ingester thread.
+    private final Map<HandKey, OpenHand> openHands = new LinkedHashMap<>();
+    private final List<OpenHand> readyHands = new ArrayList<>();
+    private final Set<LocalDate> partitions = new HashSet<>();
+    private volatile HandLog.Position readPosition;
+    private volatile HandLog.Position storedCursor;
+    private int consecutiveFailures;
+    private long nextAttemptAt;
+    private long nextRetentionCheckAt;
+    private volatile String lastError;
+
+    public HandHistoryIngester(HandLog handLog, DSLContext context, QueryExecutor queryExecutor, String nodeId,
+                               int batchSize, Duration abandonAfter, Duration retention) {
+        this.handLog = handLog;
+        this.context = context;
+        this.queryExecutor = queryExecutor;
+        this.nodeId = nodeId;
+        this.batchSize = batchSize;
+        this.abandonAfterMillis = abandonAfter.toMillis();
+        this.retention = retention;
+    }
+
+    public void start(Duration interval) {
+        long intervalMillis = interval.toMillis();
+        ingester.scheduleWithFixedDelay(this::ingest, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        LOG.infov("Started hand history ingestion for node {0}", nodeId);
+    }
+
+    // Whatever is not written yet stays in the hand log and is picked up by the next start.
+    public void stop() {
+        ingester.shutdown();
+        try {
+            ingester.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void ingest() {
+        if (System.currentTimeMillis() < nextAttemptAt) {
+            return;
+        }
+        try {
+            if (readPosition == null) {
+                readPosition = readCursor();
+                storedCursor = readPosition;
+            }
+            boolean caughtUp;
+            do {
+                caughtUp = collect();
+                if (!readyHands.isEmpty()) {
+                    write();
+                }
+            } while (!caughtUp);
+            if (System.currentTimeMillis() >= nextRetentionCheckAt) {
+                dropExpiredPartitions();
+                nextRetentionCheckAt = System.currentTimeMillis() + RETENTION_CHECK_INTERVAL.toMillis();
+            }
+            consecutiveFailures = 0;
+        } catch (IOException | RuntimeException e) {
+            // An exception would cancel the scheduled task; the hands read stay ready and are written on the next try.
+            failures.incrementAndGet();
+            lastError = e.getMessage();
+            long backoff = Math.min(MAX_BACKOFF.toMillis(), 1000L << Math.min(consecutiveFailures++, 6));
+            nextAttemptAt = System.currentTimeMillis() + backoff;
+            LOG.errorv(e, "Failed to ingest hand history, retrying in {0} ms", backoff);
+        }
+    }
+
+    /*
+     * Reading
+     */
+    // Reads until a batch is ready or the log is exhausted, and returns whether it was exhausted.
+    private boolean collect() throws IOException {
+        if (readyHands.size() >= batchSize) {
+            return false;
+        }
+        readPosition = handLog.read(readPosition, (position, record) -> {
+            if (readyHands.size() >= batchSize) {
+                return false;
+            }
+            HandKey key = new HandKey(record.tableId(), record.handId());
+            if (record.type() == HandEventType.HAND_START) {
+                openHands.put(key, new OpenHand(position, record));
+                return true;
+            }
+            // Hands whose start lies before the stored position were already written.
+            OpenHand hand = openHands.get(key);
+            if (hand == null) {
+                return true;
+            }
+            hand.records.add(record);
+            if (record.type() == HandEventType.SETTLEMENT || record.type() == HandEventType.VOID) {
+                openHands.remove(key);
+                readyHands.add(hand);
+            }
+            return true;
+        });
+        if (readyHands.size() >= batchSize) {
+            return false;
+        }
+        // Only judged once the log is read to its end, so that hands read back after a restart are not abandoned early.
+        long now = System.currentTimeMillis();
+        openHands.values().removeIf(hand -> {
+            if (now - hand.records.getLast().timestamp() > abandonAfterMillis) {
+                readyHands.add(hand);
+                return true;
+            }
+            return false;
+        });
+        return true;
+    }
+
+    private HandLog.Position cursor() {
+        return openHands.isEmpty() ? readPosition : openHands.values().iterator().next().position;
+    }
+
+    /*
+     * Writing
+     */
+    private void write() {
+        StringBuilder rows = new StringBuilder(readyHands.size() * 2048);
+        Set<LocalDate> days = new HashSet<>();
+        for (OpenHand hand : readyHands) {
+            HandRecord start = hand.records.getFirst();
+            HandRecord end = hand.records.getLast();
+            JsonObject handStart = HandRecordCodec.toJson(start);
+            JsonArray records = new JsonArray();
+            for (HandRecord record : hand.records) {
+                records.add(HandRecordCodec.toJson(record));
+            }
+            StringBuilder userIds = new StringBuilder("{");
+            for (TableSnapshot.Seat seat : HandRecordCodec.seats(start)) {
+                userIds.append(userIds.length() > 1 ? "," : "").append(seat.userId());
+            }
+            String outcome = end.type() == HandEventType.SETTLEMENT || end.type() == HandEventType.VOID
+                    ? end.type().name() : "ABANDONED";
+            int pot = end.type() == HandEventType.SETTLEMENT ? HandRecordCodec.toJson(end).getInteger("pot") : 0;
+            days.add(LocalDate.ofInstant(Instant.ofEpochMilli(start.timestamp()), ZoneOffset.UTC));
+            rows.append(Instant.ofEpochMilli(start.timestamp())).append('\t')
+                    .append(start.tableId()).append('\t')
+                    .append(start.handId()).append('\t')
+                    .append(Instant.ofEpochMilli(end.timestamp())).append('\t')
+                    .append(outcome).append('\t')
+                    .append(handStart.getInteger("smallBlind")).append('\t')
+                    .append(handStart.getInteger("bigBlind")).append('\t')
+                    .append(pot).append('\t')
+                    .append(userIds.append('}')).append('\t');
+            escape(rows, records.encode());
+            rows.append('\n');
+        }
+        HandLog.Position cursor = cursor();
+        queryExecutor.call(() -> context.transactionResult(configuration -> {
+            DSLContext transaction = DSL.using(configuration);
+            createPartitions(transaction, days);
+            transaction.query("create temporary table if not exists {0} (like {1}) on commit delete rows",
+                    STAGING, HAND_HISTORY).execute();
+            transaction.connection(connection -> connection.unwrap(PGConnection.class).getCopyAPI().copyIn(
+                    "COPY " + STAGING + " (" + COLUMNS + ") FROM STDIN", new StringReader(rows.toString())));
+            // The staging table is LIKE hand_history, so its columns come in the same order.
+            transaction.insertInto(HAND_HISTORY).columns(HAND_HISTORY.fields())
+                    .select(transaction.select(DSL.asterisk()).from(DSL.table(STAGING)))
+                    .onConflict(HAND_HISTORY.TABLE_ID, HAND_HISTORY.HAND_ID, HAND_HISTORY.STARTED_AT)
+                    .doUpdate()
+                    .set(HAND_HISTORY.FINISHED_AT, DSL.excluded(HAND_HISTORY.FINISHED_AT))
+                    .set(HAND_HISTORY.OUTCOME, DSL.excluded(HAND_HISTORY.OUTCOME))
+                    .set(HAND_HISTORY.POT, DSL.excluded(HAND_HISTORY.POT))
+                    .set(HAND_HISTORY.RECORDS, DSL.excluded(HAND_HISTORY.RECORDS))
+                    .where(HAND_HISTORY.OUTCOME.eq("ABANDONED"))
+                    .execute();
+            writeCursor(transaction, cursor);
+            return null;
+        }));
+        storedCursor = cursor;
+        // Partitions created by a transaction rolled back are created again by the next one.
+        partitions.addAll(days);
+        handsIngested.addAndGet(readyHands.size());
+        readyHands.clear();
+    }
+
+    // COPY text format: backslash, tab and line breaks are escaped, everything else is taken as is.
+    private static void escape(StringBuilder builder, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> builder.append("\\\\");
+                case '\t' -> builder.append("\\t");
+                case '\n' -> builder.append("\\n");
+                case '\r' -> builder.append("\\r");
+                default -> builder.append(c);
+            }
+        }
+    }
+
+    /*
+     * Partitions
+     */
+    private void createPartitions(DSLContext transaction, Set<LocalDate> days) {
+        for (LocalDate day : days) {
+            if (partitions.contains(day)) {
+                continue;
+            }
+            transaction.query("create table if not exists {0} partition of {1} for values from ({2}) to ({3})",
+                    DSL.name(HAND_HISTORY.getName() + "_" + day.format(PARTITION_SUFFIX)), HAND_HISTORY,
+                    DSL.inline(day + " 00:00:00+00"), DSL.inline(day.plusDays(1) + " 00:00:00+00")).execute();
+        }
+    }
+
+    private void dropExpiredPartitions() {
+        LocalDate oldest = LocalDate.now(ZoneOffset.UTC).minusDays(retention.toDays());
+        List<String> names = queryExecutor.call(() -> context.resultQuery("select child.relname from pg_inherits "
+                        + "join pg_class child on child.oid = pg_inherits.inhrelid "
+                        + "join pg_class parent on parent.oid = pg_inherits.inhparent "
+                        + "where parent.relname = {0}", DSL.inline(HAND_HISTORY.getName()))
+                .fetch(0, String.class));
+        for (String name : names) {
+            LocalDate day = LocalDate.parse(name.substring(HAND_HISTORY.getName().length() + 1), PARTITION_SUFFIX);
+            if (day.isBefore(oldest)) {
+                queryExecutor.call(() -> context.dropTableIfExists(DSL.name(name)).execute());
+                partitions.remove(day);
+                LOG.infov("Dropped hand history partition {0}", name);
+            }
+        }
+    }
+
+    /*
+     * Cursor
+     */
+    private HandLog.Position readCursor() throws IOException {
+        Record2<Long, Integer> cursor = queryExecutor.call(() -> context
+                .select(HAND_HISTORY_CURSOR.SEGMENT, HAND_HISTORY_CURSOR.POSITION)
+                .from(HAND_HISTORY_CURSOR)
+                .where(HAND_HISTORY_CURSOR.NODE_ID.eq(nodeId))
+                .fetchOne());
+        return cursor != null ? new HandLog.Position(cursor.value1(), cursor.value2()) : handLog.firstPosition();
+    }
+
+    private void writeCursor(DSLContext transaction, HandLog.Position cursor) {
+        transaction.insertInto(HAND_HISTORY_CURSOR)
+                .set(HAND_HISTORY_CURSOR.NODE_ID, nodeId)
+                .set(HAND_HISTORY_CURSOR.SEGMENT, cursor.segment())
+                .set(HAND_HISTORY_CURSOR.POSITION, cursor.offset())
+                .set(HAND_HISTORY_CURSOR.UPDATED_AT, DSL.currentOffsetDateTime())
+                .onConflict(HAND_HISTORY_CURSOR.NODE_ID)
+                .doUpdate()
+                .set(HAND_HISTORY_CURSOR.SEGMENT, cursor.segment())
+                .set(HAND_HISTORY_CURSOR.POSITION, cursor.offset())
+                .set(HAND_HISTORY_CURSOR.UPDATED_AT, DSL.currentOffsetDateTime())
+                .execute();
+    }
+
+    /*
+     * Getters
+     */
+    // Where the next start reads from, or null before the stored cursor is read.
+    public HandLog.Position getStoredCursor() {
+        return storedCursor;
+    }
+
+    public JsonObject getMetrics() {
+        HandLog.Position read = readPosition;
+        HandLog.Position end = handLog.getEnd();
+        return new JsonObject()
+                .put("handsIngested", handsIngested.get())
+                .put("failures", failures.get())
+                .put("lastError", lastError)
+                .put("lagSegments", read == null ? null : Math.max(0, end.segment() - read.segment()))
+                .put("lagBytes", read == null || read.segment() != end.segment() ? null : end.offset() - read.offset());
+    }
+
+    private record HandKey(long tableId, long handId) {
+    }
+
+    private static class OpenHand {
+        private final HandLog.Position position;
+        private final List<HandRecord> records = new ArrayList<>();
+
+        private OpenHand(HandLog.Position position, HandRecord handStart) {
+            this.position = position;
+            records.add(handStart);
+        }
+    }
+}
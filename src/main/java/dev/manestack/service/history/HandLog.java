@@ -0,0 +1,422 @@
+package dev.manestack.service.history;
+
+import io.vertx.core.buffer.Buffer;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/*
+ * Append-only hand history of this node, kept in memory-mapped segment files. The gameplay thread only encodes a
+ * record and queues it; a single writer thread copies the queued records into the current segment in batches, forces
+ * them to disk and then indexes the hands they start. A segment is rolled when it is full or older than the roll
+ * interval, and every start of the log opens a new one.
+ *
+ * Segment: records back to back, each length(int) type(byte) tableId(long) handId(long) timestamp(long) payload, with
+ * the length counting everything after itself. The length is written last and the unwritten tail is zero, so a zero
+ * length ends the segment, including one cut short by a crash.
+ * Index: one .idx file per segment of tableId(long) handId(long) offset(long) entries, one per HAND_START record. The
+ * index files are read once on open into an in-memory index of the hands of each table, which the writer extends as
+ * it syncs; hand ids of a table only grow, so a hand is found by binary search.
+ *
+ * Segments are deleted once they are older than the retention and everything that reads the log has moved past them,
+ * see deleteBefore.
+ */
+public class HandLog {
+    private static final Logger LOG = Logger.getLogger(HandLog.class);
+    private static final Pattern SEGMENT_NAME = Pattern.compile("hands-(\\d+)\\.log");
+    private static final int HEADER_SIZE = 29;
+    private static final int INDEX_ENTRY_SIZE = 24;
+    private static final HandEventType[] TYPES = HandEventType.values();
+    private final Path directory;
+    private final int segmentSize;
+    private final long rollIntervalMillis;
+    private final long retentionMillis;
+    private final ConcurrentLinkedQueue<byte[]> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicLong recordsWritten = new AtomicLong();
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor();
+    // Guarded by itself; extended by the writer thread once the hands are on disk.
+    private final Map<Long, TableHands> hands = new HashMap<>();
+    // Owned by the writer thread.
+    private long segmentNumber;
+    private long segmentOpenedAt;
+    private FileChannel segmentChannel;
+    private MappedByteBuffer segment;
+    private FileChannel indexChannel;
+    private Buffer indexBatch = Buffer.buffer(INDEX_ENTRY_SIZE * 64);
+    // Everything before it is on disk; advanced by the writer thread after each sync.
+    private volatile Position end = new Position(0, 0);
+
+    public HandLog(Path directory, int segmentSize, Duration rollInterval, Duration retention) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.rollIntervalMillis = rollInterval.toMillis();
+        this.retentionMillis = retention.toMillis();
+    }
+
+    public void open(Duration flushInterval) throws IOException {
+        Files.createDirectories(directory);
+        List<Long> segments = segmentNumbers();
+        for (long number : segments) {
+            indexHands(number, readIndex(number));
+        }
+        segmentNumber = segments.isEmpty() ? 0 : segments.getLast();
+        end = new Position(segmentNumber + 1, 0);
+        long flushMillis = flushInterval.toMillis();
+        writer.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        LOG.infov("Opened hand log in {0} after segment {1}", directory, segmentNumber);
+    }
+
+    public void close() throws IOException {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // The writer is stopped, so what is left is written from here.
+        write();
+        closeSegment();
+    }
+
+    // Never blocks: the record is copied into a queued array and written by the writer thread.
+    public void append(long tableId, long handId, HandEventType type, Buffer payload) {
+        byte[] record = new byte[HEADER_SIZE + payload.length()];
+        ByteBuffer.wrap(record)
+                .putInt(record.length - 4)
+                .put((byte) type.ordinal())
+                .putLong(tableId)
+                .putLong(handId)
+                .putLong(System.currentTimeMillis());
+        payload.getBytes(record, HEADER_SIZE);
+        pending.offer(record);
+        pendingCount.incrementAndGet();
+    }
+
+    private void flush() {
+        try {
+            write();
+        } catch (IOException | RuntimeException e) {
+            // An exception would cancel the scheduled task, so it is only logged; the records stay queued.
+            LOG.errorv(e, "Failed to write the hand log");
+        }
+    }
+
+    private void write() throws IOException {
+        byte[] record;
+        boolean written = false;
+        while ((record = pending.peek()) != null) {
+            if (record.length > segmentSize) {
+                LOG.errorv("Dropping a hand log record of {0} bytes, larger than a segment", record.length);
+            } else {
+                if (segment == null || segment.remaining() < record.length
+                        || System.currentTimeMillis() - segmentOpenedAt > rollIntervalMillis) {
+                    sync();
+                    roll();
+                }
+                int offset = segment.position();
+                segment.put(offset + 4, record, 4, record.length - 4);
+                segment.putInt(offset, record.length - 4);
+                segment.position(offset + record.length);
+                if (record[4] == HandEventType.HAND_START.ordinal()) {
+                    indexBatch.appendBytes(record, 5, 16).appendLong(offset);
+                }
+                recordsWritten.incrementAndGet();
+                written = true;
+            }
+            pending.poll();
+            pendingCount.decrementAndGet();
+        }
+        if (written) {
+            sync();
+        }
+    }
+
+    // Index entries are only written once the records they point at are on disk.
+    private void sync() throws IOException {
+        if (segment == null) {
+            return;
+        }
+        segment.force();
+        if (indexBatch.length() > 0) {
+            ByteBuffer entries = ByteBuffer.wrap(indexBatch.getBytes());
+            while (entries.hasRemaining()) {
+                indexChannel.write(entries);
+            }
+            indexChannel.force(false);
+            indexHands(segmentNumber, entries.flip());
+            indexBatch = Buffer.buffer(INDEX_ENTRY_SIZE * 64);
+        }
+        end = new Position(segmentNumber, segment.position());
+    }
+
+    private void roll() throws IOException {
+        closeSegment();
+        segmentNumber++;
+        segmentChannel = FileChannel.open(segmentPath(segmentNumber),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        indexChannel = FileChannel.open(indexPath(segmentNumber),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentOpenedAt = System.currentTimeMillis();
+        LOG.infov("Rolled hand log to segment {0}", segmentNumber);
+    }
+
+    private void closeSegment() throws IOException {
+        if (segment == null) {
+            return;
+        }
+        sync();
+        // The mapping itself is released once the buffer is collected.
+        segment = null;
+        segmentChannel.close();
+        indexChannel.close();
+    }
+
+    /*
+     * Reads
+     */
+    // Newest first.
+    public List<Location> findHands(long tableId, int limit) {
+        synchronized (hands) {
+            TableHands tableHands = hands.get(tableId);
+            List<Location> locations = new ArrayList<>();
+            for (int i = tableHands == null ? -1 : tableHands.size - 1; i >= 0 && locations.size() < limit; i--) {
+                locations.add(tableHands.location(tableId, i));
+            }
+            return locations;
+        }
+    }
+
+    public Location findHand(long tableId, long handId) {
+        synchronized (hands) {
+            TableHands tableHands = hands.get(tableId);
+            if (tableHands == null) {
+                return null;
+            }
+            int i = Arrays.binarySearch(tableHands.handIds, 0, tableHands.size, handId);
+            return i < 0 ? null : tableHands.location(tableId, i);
+        }
+    }
+
+    /*
+     * Records of other tables are interleaved with the hand's, and a hand cut by rolls continues in the segments after
+     * its own. A hand without a SETTLEMENT or VOID ends where the next hand of its table starts.
+     */
+    public List<HandRecord> readHand(Location location) throws IOException {
+        List<HandRecord> records = new ArrayList<>();
+        read(new Position(location.segment(), location.offset()), (position, record) -> {
+            if (record.tableId() != location.tableId()) {
+                return true;
+            }
+            if (record.handId() != location.handId()) {
+                return record.type() != HandEventType.HAND_START;
+            }
+            records.add(record);
+            return record.type() != HandEventType.SETTLEMENT && record.type() != HandEventType.VOID;
+        });
+        return records;
+    }
+
+    /*
+     * Reads the records from a position on, in the order they were written, until the consumer declines one or the
+     * written end is reached, and returns the position to continue from. A segment is complete once a later one
+     * exists, so reading moves on to the next segment at the zero length ending the current one.
+     */
+    public Position read(Position from, RecordConsumer consumer) throws IOException {
+        Position limit = end;
+        List<Long> segments = segmentNumbers();
+        Position position = from;
+        while (true) {
+            Path path = segmentPath(position.segment());
+            if (Files.exists(path)) {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    int offset = position.offset();
+                    int stop = position.segment() == limit.segment() ? limit.offset() : buffer.limit();
+                    while (offset + HEADER_SIZE <= stop) {
+                        int length = buffer.getInt(offset);
+                        if (length == 0) {
+                            break;
+                        }
+                        if (!consumer.accept(new Position(position.segment(), offset), decode(buffer, offset, length))) {
+                            return new Position(position.segment(), offset);
+                        }
+                        offset += length + 4;
+                    }
+                    position = new Position(position.segment(), offset);
+                }
+            }
+            long next = position.segment();
+            for (long segment : segments) {
+                if (segment > position.segment()) {
+                    next = segment;
+                    break;
+                }
+            }
+            if (next == position.segment() || position.segment() >= limit.segment()) {
+                return position;
+            }
+            position = new Position(next, 0);
+        }
+    }
+
+    private HandRecord decode(ByteBuffer buffer, int position, int length) {
+        byte[] payload = new byte[length + 4 - HEADER_SIZE];
+        buffer.get(position + HEADER_SIZE, payload);
+        return new HandRecord(TYPES[buffer.get(position + 4)], buffer.getLong(position + 5),
+                buffer.getLong(position + 13), buffer.getLong(position + 21), Buffer.buffer(payload));
+    }
+
+    public Position firstPosition() throws IOException {
+        List<Long> segments = segmentNumbers();
+        return new Position(segments.isEmpty() ? end.segment() : segments.getFirst(), 0);
+    }
+
+    // A crash between creating a segment and its index leaves a segment without one.
+    private ByteBuffer readIndex(long number) throws IOException {
+        Path path = indexPath(number);
+        return Files.exists(path) ? ByteBuffer.wrap(Files.readAllBytes(path)) : ByteBuffer.allocate(0);
+    }
+
+    private void indexHands(long number, ByteBuffer entries) {
+        synchronized (hands) {
+            for (int position = entries.position(); position + INDEX_ENTRY_SIZE <= entries.limit();
+                 position += INDEX_ENTRY_SIZE) {
+                hands.computeIfAbsent(entries.getLong(position), ignored -> new TableHands())
+                        .add(entries.getLong(position + 8), number, (int) entries.getLong(position + 16));
+            }
+        }
+    }
+
+    /*
+     * Retention
+     */
+    // The floor is the oldest position something still has to read from, so only segments wholly before it go.
+    public void deleteBefore(Position floor) throws IOException {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        for (long number : segmentNumbers()) {
+            Path path = segmentPath(number);
+            if (number >= floor.segment() || Files.getLastModifiedTime(path).toMillis() > cutoff) {
+                break;
+            }
+            synchronized (hands) {
+                hands.values().removeIf(tableHands -> tableHands.dropThrough(number));
+            }
+            Files.deleteIfExists(indexPath(number));
+            Files.delete(path);
+            LOG.infov("Deleted hand log segment {0}", number);
+        }
+    }
+
+    private List<Long> segmentNumbers() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> SEGMENT_NAME.matcher(path.getFileName().toString()))
+                    .filter(Matcher::matches)
+                    .map(matcher -> Long.parseLong(matcher.group(1)))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(String.format("hands-%012d.log", number));
+    }
+
+    private Path indexPath(long number) {
+        return directory.resolve(String.format("hands-%012d.idx", number));
+    }
+
+    /*
+     * Getters
+     */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    public long getRecordsWritten() {
+        return recordsWritten.get();
+    }
+
+    public Position getEnd() {
+        return end;
+    }
+
+    public record Location(long segment, long tableId, long handId, int offset) {
+        public Position position() {
+            return new Position(segment, offset);
+        }
+    }
+
+    public record Position(long segment, int offset) implements Comparable<Position> {
+        @Override
+        public int compareTo(Position other) {
+            int bySegment = Long.compare(segment, other.segment);
+            return bySegment != 0 ? bySegment : Integer.compare(offset, other.offset);
+        }
+    }
+
+    public interface RecordConsumer {
+        boolean accept(Position position, HandRecord record);
+    }
+
+    // The hands of one table in log order, in parallel arrays.
+    private static class TableHands {
+        private long[] handIds = new long[4];
+        private long[] segments = new long[4];
+        private int[] offsets = new int[4];
+        private int size;
+
+        private void add(long handId, long segment, int offset) {
+            if (size == handIds.length) {
+                handIds = Arrays.copyOf(handIds, size * 2);
+                segments = Arrays.copyOf(segments, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            handIds[size] = handId;
+            segments[size] = segment;
+            offsets[size] = offset;
+            size++;
+        }
+
+        private Location location(long tableId, int i) {
+            return new Location(segments[i], tableId, handIds[i], offsets[i]);
+        }
+
+        // Drops the hands of the given segment and the ones before it, and tells whether none are left.
+        private boolean dropThrough(long segment) {
+            int dropped = 0;
+            while (dropped < size && segments[dropped] <= segment) {
+                dropped++;
+            }
+            if (dropped > 0) {
+                System.arraycopy(handIds, dropped, handIds, 0, size - dropped);
+                System.arraycopy(segments, dropped, segments, 0, size - dropped);
+                System.arraycopy(offsets, dropped, offsets, 0, size - dropped);
+                size -= dropped;
+            }
+            return size == 0;
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package dev.manestack.service.history;
+
+import io.vertx.core.buffer.Buffer;
+
+public record HandRecord(HandEventType type, long tableId, long handId, long timestamp, Buffer payload) {
+}
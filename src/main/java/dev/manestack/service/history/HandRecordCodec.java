@@ -0,0 +1,238 @@
+package dev.manestack.service.history;
+
+import dev.manestack.service.poker.card.GameCard;
+import dev.manestack.service.poker.table.GamePlayer;
+import dev.manestack.service.poker.table.GameSession;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static dev.manestack.service.socket.BinaryProtocol.consumed;
+import static dev.manestack.service.socket.BinaryProtocol.readVarint;
+import static dev.manestack.service.socket.BinaryProtocol.value;
+import static dev.manestack.service.socket.BinaryProtocol.writeCards;
+import static dev.manestack.service.socket.BinaryProtocol.writeVarint;
+
+/*
+ * Payloads of the hand history records, written with the varints and card bytes of the binary websocket protocol.
+ *
+ *   HAND_START  dealerSeat smallBlind bigBlind count (seat userId stack)*   stacks before the blinds
+ *   HOLE_CARDS  count (seat cards[])*
+ *   ACTION      seat action(ActionType) amount                               blinds included
+ *   BOARD       state(State) communityCards[]
+ *   SETTLEMENT  pot count (seat payout)* count (seat userId stack)*          everyone seated, after the payout
+ *   VOID        count (seat userId stack)*                                   refunded stacks of a hand cut by a restart
+ *   SEAT_TAKEN  seat userId stack                                            the buy-in
+ *   CASH_OUT    seat userId stack                                            what goes back to the balance
+ *   BUY_IN_RELEASED  seat userId amount                                      a reserved buy-in whose seat was not taken
+ *
+ * A hand ends with either SETTLEMENT or VOID, and the seats in it are the complete state of the table afterwards. Seat
+ * records carry the id of the table's current or last hand and tell what changed in between.
+ */
+public class HandRecordCodec {
+    private static final GameSession.ActionType[] ACTION_TYPES = GameSession.ActionType.values();
+    private static final GameSession.State[] STATES = GameSession.State.values();
+    private static final GameCard.Suit[] SUITS = GameCard.Suit.values();
+    private static final GameCard.Rank[] RANKS = GameCard.Rank.values();
+
+    public static Buffer handStart(int dealerSeat, int smallBlind, int bigBlind, Collection<GamePlayer> players) {
+        Buffer buffer = Buffer.buffer(16 + players.size() * 8);
+        writeVarint(buffer, dealerSeat);
+        writeVarint(buffer, smallBlind);
+        writeVarint(buffer, bigBlind);
+        writeSeats(buffer, players);
+        return buffer;
+    }
+
+    public static Buffer holeCards(Collection<GamePlayer> players) {
+        Buffer buffer = Buffer.buffer(1 + players.size() * 4);
+        writeVarint(buffer, players.size());
+        for (GamePlayer player : players) {
+            writeVarint(buffer, player.getSeatId());
+            writeCards(buffer, player.getHoleCards());
+        }
+        return buffer;
+    }
+
+    public static Buffer action(int seat, GameSession.ActionType actionType, int amount) {
+        Buffer buffer = Buffer.buffer(8);
+        writeVarint(buffer, seat);
+        buffer.appendByte((byte) actionType.ordinal());
+        writeVarint(buffer, amount);
+        return buffer;
+    }
+
+    public static Buffer board(GameSession.State state, List<GameCard> communityCards) {
+        Buffer buffer = Buffer.buffer(8);
+        buffer.appendByte((byte) state.ordinal());
+        writeCards(buffer, communityCards);
+        return buffer;
+    }
+
+    public static Buffer settlement(int pot, Map<Integer, Integer> payouts, Collection<GamePlayer> players) {
+        Buffer buffer = Buffer.buffer(8 + payouts.size() * 6 + players.size() * 6);
+        writeVarint(buffer, pot);
+        writeVarint(buffer, payouts.size());
+        for (Map.Entry<Integer, Integer> payout : payouts.entrySet()) {
+            writeVarint(buffer, payout.getKey());
+            writeVarint(buffer, payout.getValue());
+        }
+        writeSeats(buffer, players);
+        return buffer;
+    }
+
+    public static Buffer voided(List<TableSnapshot.Seat> seats) {
+        Buffer buffer = Buffer.buffer(1 + seats.size() * 8);
+        writeVarint(buffer, seats.size());
+        for (TableSnapshot.Seat seat : seats) {
+            writeVarint(buffer, seat.seat());
+            writeVarint(buffer, seat.userId());
+            writeVarint(buffer, seat.stack());
+        }
+        return buffer;
+    }
+
+    public static Buffer seat(GamePlayer player) {
+        return seat(player.getSeatId(), player.getUser().getUserId(), player.getStack());
+    }
+
+    public static Buffer seat(int seat, int userId, int stack) {
+        Buffer buffer = Buffer.buffer(8);
+        writeVarint(buffer, seat);
+        writeVarint(buffer, userId);
+        writeVarint(buffer, stack);
+        return buffer;
+    }
+
+    private static void writeSeats(Buffer buffer, Collection<GamePlayer> players) {
+        writeVarint(buffer, players.size());
+        for (GamePlayer player : players) {
+            writeVarint(buffer, player.getSeatId());
+            writeVarint(buffer, player.getUser().getUserId());
+            writeVarint(buffer, player.getStack());
+        }
+    }
+
+    public static int dealerSeat(HandRecord handStart) {
+        return new Reader(handStart.payload()).varint();
+    }
+
+    // The seats of a HAND_START (before the blinds), SETTLEMENT or VOID record, without usernames.
+    public static List<TableSnapshot.Seat> seats(HandRecord record) {
+        Reader reader = new Reader(record.payload());
+        switch (record.type()) {
+            case HAND_START -> {
+                reader.varint();
+                reader.varint();
+                reader.varint();
+            }
+            case SETTLEMENT -> {
+                reader.varint();
+                for (int i = reader.varint(); i > 0; i--) {
+                    reader.varint();
+                    reader.varint();
+                }
+            }
+            case VOID -> {
+            }
+            default -> throw new IllegalArgumentException("No seats in a " + record.type() + " record");
+        }
+        List<TableSnapshot.Seat> seats = new ArrayList<>();
+        for (int i = reader.varint(); i > 0; i--) {
+            seats.add(new TableSnapshot.Seat(reader.varint(), reader.varint(), null, reader.varint()));
+        }
+        return seats;
+    }
+
+    // The seat of a SEAT_TAKEN, CASH_OUT or BUY_IN_RELEASED record, without the username.
+    public static TableSnapshot.Seat seat(HandRecord record) {
+        Reader reader = new Reader(record.payload());
+        return new TableSnapshot.Seat(reader.varint(), reader.varint(), null, reader.varint());
+    }
+
+    public static JsonObject toJson(HandRecord record) {
+        Reader reader = new Reader(record.payload());
+        JsonObject json = new JsonObject()
+                .put("type", record.type())
+                .put("tableId", record.tableId())
+                .put("handId", record.handId())
+                .put("timestamp", record.timestamp());
+        switch (record.type()) {
+            case HAND_START -> {
+                json.put("dealerSeat", reader.varint())
+                        .put("smallBlind", reader.varint())
+                        .put("bigBlind", reader.varint());
+                json.put("seats", reader.seats());
+            }
+            case HOLE_CARDS -> {
+                JsonObject holeCards = new JsonObject();
+                for (int i = reader.varint(); i > 0; i--) {
+                    holeCards.put(String.valueOf(reader.varint()), reader.cards());
+                }
+                json.put("holeCards", holeCards);
+            }
+            case ACTION -> json.put("seat", reader.varint())
+                    .put("actionType", ACTION_TYPES[reader.ordinal()])
+                    .put("amount", reader.varint());
+            case BOARD -> json.put("state", STATES[reader.ordinal()])
+                    .put("communityCards", reader.cards());
+            case SETTLEMENT -> {
+                json.put("pot", reader.varint());
+                JsonObject payouts = new JsonObject();
+                for (int i = reader.varint(); i > 0; i--) {
+                    payouts.put(String.valueOf(reader.varint()), reader.varint());
+                }
+                json.put("payouts", payouts).put("seats", reader.seats());
+            }
+            case VOID -> json.put("seats", reader.seats());
+            case SEAT_TAKEN, CASH_OUT, BUY_IN_RELEASED -> json.put("seat", reader.varint())
+                    .put("userId", reader.varint())
+                    .put("stack", reader.varint());
+        }
+        return json;
+    }
+
+    private static class Reader {
+        private final Buffer buffer;
+        private int position = 0;
+
+        private Reader(Buffer buffer) {
+            this.buffer = buffer;
+        }
+
+        private int varint() {
+            long varint = readVarint(buffer, position);
+            position += consumed(varint);
+            return value(varint);
+        }
+
+        private int ordinal() {
+            return buffer.getByte(position++);
+        }
+
+        private JsonArray seats() {
+            JsonArray seats = new JsonArray();
+            for (int i = varint(); i > 0; i--) {
+                seats.add(new JsonObject()
+                        .put("seat", varint())
+                        .put("userId", varint())
+                        .put("stack", varint()));
+            }
+            return seats;
+        }
+
+        private JsonArray cards() {
+            JsonArray cards = new JsonArray();
+            for (int i = varint(); i > 0; i--) {
+                int card = buffer.getByte(position++) & 0xFF;
+                cards.add(new JsonObject().put("suit", SUITS[card / 13]).put("rank", RANKS[card % 13]));
+            }
+            return cards;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package dev.manestack.service.history;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Rebuilds tables after a restart from their last snapshot and the hand log. Every logged hand starts and ends with
+ * the complete seating of its table, and SEAT_TAKEN and CASH_OUT records tell what changed in between, so a table is
+ * replayed from the start of its latest hand, found in the hand log's index; a table without a hand since the snapshot
+ * is replayed from the log position the snapshot was captured at. A table with neither starts empty. All tables are
+ * replayed in one pass over the log, which never starts before the snapshot's position or the oldest hand still open
+ * at it.
+ *
+ * A hand without a SETTLEMENT or VOID was cut off by the restart: it is voided and everyone still seated gets the stack
+ * they had before it. The chip ledger reads the VOID record and gives players who cashed out during the hand back
+ * what they had put into it.
+ */
+public class TableRecovery {
+
+    // Maximum seats by table id; the capture is null when no snapshot was ever written.
+    public static Map<Long, Recovery> recover(Map<Long, Integer> tables, TableSnapshot.Capture capture,
+                                              HandLog handLog) throws IOException {
+        Map<Long, TableSnapshot> snapshots = new HashMap<>();
+        if (capture != null) {
+            for (TableSnapshot snapshot : capture.tables()) {
+                snapshots.put(snapshot.tableId(), snapshot);
+            }
+        }
+        Map<Long, Replay> replays = new HashMap<>();
+        HandLog.Position from = null;
+        for (Map.Entry<Long, Integer> table : tables.entrySet()) {
+            TableSnapshot snapshot = snapshots.get(table.getKey());
+            Replay replay = new Replay(table.getValue(), snapshot);
+            List<HandLog.Location> latest = handLog.findHands(table.getKey(), 1);
+            if (!latest.isEmpty() && latest.getFirst().handId() >= (snapshot == null ? 0 : snapshot.replayFrom())) {
+                replay.start = latest.getFirst().position();
+            } else if (capture != null) {
+                replay.start = capture.logPosition();
+            }
+            replays.put(table.getKey(), replay);
+            if (replay.start != null && (from == null || replay.start.compareTo(from) < 0)) {
+                from = replay.start;
+            }
+        }
+        if (from != null) {
+            handLog.read(from, (position, record) -> {
+                Replay replay = replays.get(record.tableId());
+                if (replay != null && replay.start != null && position.compareTo(replay.start) >= 0) {
+                    replay.apply(record);
+                }
+                return true;
+            });
+        }
+        Map<Long, Recovery> recoveries = new HashMap<>();
+        for (Map.Entry<Long, Replay> replay : replays.entrySet()) {
+            recoveries.put(replay.getKey(), replay.getValue().finish(replay.getKey()));
+        }
+        return recoveries;
+    }
+
+    // Seats from the hand log carry no usernames; the ones the snapshot knows are filled in, the rest stay null.
+    private static List<TableSnapshot.Seat> withUsernames(List<TableSnapshot.Seat> seats, TableSnapshot snapshot) {
+        Map<Integer, String> usernames = new HashMap<>();
+        if (snapshot != null) {
+            for (TableSnapshot.Seat seat : snapshot.seats()) {
+                usernames.put(seat.userId(), seat.username());
+            }
+        }
+        List<TableSnapshot.Seat> named = new ArrayList<>(seats.size());
+        for (TableSnapshot.Seat seat : seats) {
+            named.add(seat.username() != null ? seat
+                    : new TableSnapshot.Seat(seat.seat(), seat.userId(), usernames.get(seat.userId()), seat.stack()));
+        }
+        return named;
+    }
+
+    private static class Replay {
+        private final int maxPlayers;
+        private final TableSnapshot snapshot;
+        private final Map<Integer, TableSnapshot.Seat> seats = new LinkedHashMap<>();
+        private HandLog.Position start;
+        private long lastHandId;
+        private int dealer;
+        private boolean handOpen = false;
+
+        private Replay(int maxPlayers, TableSnapshot snapshot) {
+            this.maxPlayers = maxPlayers;
+            this.snapshot = snapshot;
+            this.lastHandId = snapshot == null ? 0 : snapshot.lastHandId();
+            this.dealer = snapshot == null ? 0 : snapshot.dealer();
+            if (snapshot != null) {
+                resetSeats(snapshot.seats());
+            }
+        }
+
+        private void apply(HandRecord record) {
+            switch (record.type()) {
+                case HAND_START -> {
+                    resetSeats(HandRecordCodec.seats(record));
+                    lastHandId = record.handId();
+                    dealer = (HandRecordCodec.dealerSeat(record) + 1) % maxPlayers;
+                    handOpen = true;
+                }
+                case SETTLEMENT, VOID -> {
+                    resetSeats(HandRecordCodec.seats(record));
+                    handOpen = false;
+                }
+                case SEAT_TAKEN -> {
+                    TableSnapshot.Seat seat = HandRecordCodec.seat(record);
+                    seats.put(seat.userId(), seat);
+                }
+                case CASH_OUT -> seats.remove(HandRecordCodec.seat(record).userId());
+                default -> {
+                }
+            }
+        }
+
+        private void resetSeats(List<TableSnapshot.Seat> replacement) {
+            seats.clear();
+            for (TableSnapshot.Seat seat : replacement) {
+                seats.put(seat.userId(), seat);
+            }
+        }
+
+        private Recovery finish(long tableId) {
+            List<TableSnapshot.Seat> restored = new ArrayList<>(seats.values());
+            restored.sort(Comparator.comparingInt(TableSnapshot.Seat::seat));
+            Voided voided = handOpen ? new Voided(lastHandId, restored) : null;
+            return new Recovery(new TableSnapshot(tableId, lastHandId, lastHandId + 1, dealer,
+                    withUsernames(restored, snapshot)), voided);
+        }
+    }
+
+    // The voided hand is null when the table had no hand cut off.
+    public record Recovery(TableSnapshot state, Voided voided) {
+    }
+
+    public record Voided(long handId, List<TableSnapshot.Seat> seats) {
+    }
+}
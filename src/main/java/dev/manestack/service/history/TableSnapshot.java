@@ -0,0 +1,91 @@
+package dev.manestack.service.history;
+
+import io.vertx.core.buffer.Buffer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static dev.manestack.service.socket.BinaryProtocol.consumed;
+import static dev.manestack.service.socket.BinaryProtocol.readVarint;
+import static dev.manestack.service.socket.BinaryProtocol.value;
+import static dev.manestack.service.socket.BinaryProtocol.writeVarint;
+
+/*
+ * The state of a table at a hand boundary: who sits where with which stack, and where the dealer button is. A table
+ * captured in the middle of a hand reports the stacks from before that hand, and replayFrom names that hand, so
+ * replaying the hand log from there either applies its settlement or voids it. All tables of a snapshot are captured
+ * together, at the log position where the written hand log ended; every record appended afterwards lies beyond it.
+ *
+ * Encoded as: version(byte) logSegment(long) logOffset(int) count then per table tableId(long) lastHandId(long)
+ * replayFrom(long) dealer count (seat userId stack username(varint length + UTF-8))*, hand ids being too large for the
+ * 32-bit varints.
+ */
+public record TableSnapshot(long tableId, long lastHandId, long replayFrom, int dealer, List<Seat> seats) {
+    private static final byte VERSION = 1;
+
+    public static Buffer encode(HandLog.Position logPosition, Collection<TableSnapshot> snapshots) {
+        Buffer buffer = Buffer.buffer(64 + snapshots.size() * 128).appendByte(VERSION)
+                .appendLong(logPosition.segment()).appendInt(logPosition.offset());
+        writeVarint(buffer, snapshots.size());
+        for (TableSnapshot snapshot : snapshots) {
+            buffer.appendLong(snapshot.tableId()).appendLong(snapshot.lastHandId()).appendLong(snapshot.replayFrom());
+            writeVarint(buffer, snapshot.dealer());
+            writeVarint(buffer, snapshot.seats().size());
+            for (Seat seat : snapshot.seats()) {
+                writeVarint(buffer, seat.seat());
+                writeVarint(buffer, seat.userId());
+                writeVarint(buffer, seat.stack());
+                byte[] username = seat.username().getBytes(StandardCharsets.UTF_8);
+                writeVarint(buffer, username.length);
+                buffer.appendBytes(username);
+            }
+        }
+        return buffer;
+    }
+
+    public static Capture decode(Buffer buffer) {
+        byte version = buffer.getByte(0);
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unknown snapshot version " + version);
+        }
+        HandLog.Position logPosition = new HandLog.Position(buffer.getLong(1), buffer.getInt(9));
+        int[] position = {13};
+        int count = varint(buffer, position);
+        List<TableSnapshot> snapshots = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long tableId = buffer.getLong(position[0]);
+            long lastHandId = buffer.getLong(position[0] + 8);
+            long replayFrom = buffer.getLong(position[0] + 16);
+            position[0] += 24;
+            int dealer = varint(buffer, position);
+            int seatCount = varint(buffer, position);
+            List<Seat> seats = new ArrayList<>(seatCount);
+            for (int j = 0; j < seatCount; j++) {
+                int seat = varint(buffer, position);
+                int userId = varint(buffer, position);
+                int stack = varint(buffer, position);
+                int length = varint(buffer, position);
+                String username = buffer.getString(position[0], position[0] + length, StandardCharsets.UTF_8.name());
+                position[0] += length;
+                seats.add(new Seat(seat, userId, username, stack));
+            }
+            snapshots.add(new TableSnapshot(tableId, lastHandId, replayFrom, dealer, seats));
+        }
+        return new Capture(logPosition, snapshots);
+    }
+
+    private static int varint(Buffer buffer, int[] position) {
+        long varint = readVarint(buffer, position[0]);
+        position[0] += consumed(varint);
+        return value(varint);
+    }
+
+    public record Capture(HandLog.Position logPosition, List<TableSnapshot> tables) {
+    }
+
+    // The username is null for seats read back from the hand log, which only knows user ids.
+    public record Seat(int seat, int userId, String username, int stack) {
+    }
+}
@@ -0,0 +1,114 @@
+package dev.manestack.service.lobby;
+
+import dev.manestack.service.poker.table.GameTable;
+import io.vertx.core.json.JsonObject;
+
+import java.time.OffsetDateTime;
+
+/*
+ * One row of the lobby: the table's configuration plus its live seat count and recent pace. Entries are replaced,
+ * never changed, so a listing can be handed to REST and websocket readers without copying.
+ */
+public class LobbyEntry {
+    private final Long tableId;
+    private final String tableName;
+    private final String variant;
+    private final Integer maxPlayers;
+    private final Integer smallBlind;
+    private final Integer bigBlind;
+    private final Integer minBuyIn;
+    private final Integer maxBuyIn;
+    private final OffsetDateTime createdAt;
+    private final Integer createdBy;
+    private final int seatsTaken;
+    private final int averagePot;
+    private final int handsPerHour;
+
+    public LobbyEntry(GameTable table, int seatsTaken, int averagePot, int handsPerHour) {
+        this.tableId = table.getTableId();
+        this.tableName = table.getTableName();
+        this.variant = table.getVariant();
+        this.maxPlayers = table.getMaxPlayers();
+        this.smallBlind = table.getSmallBlind();
+        this.bigBlind = table.getBigBlind();
+        this.minBuyIn = table.getMinBuyIn();
+        this.maxBuyIn = table.getMaxBuyIn();
+        this.createdAt = table.getCreatedAt();
+        this.createdBy = table.getCreatedBy();
+        this.seatsTaken = seatsTaken;
+        this.averagePot = averagePot;
+        this.handsPerHour = handsPerHour;
+    }
+
+    public JsonObject toJson() {
+        return new JsonObject()
+                .put("tableId", tableId)
+                .put("tableName", tableName)
+                .put("variant", variant)
+                .put("maxPlayers", maxPlayers)
+                .put("smallBlind", smallBlind)
+                .put("bigBlind", bigBlind)
+                .put("minBuyIn", minBuyIn)
+                .put("maxBuyIn", maxBuyIn)
+                .put("createdAt", createdAt == null ? null : createdAt.toString())
+                .put("createdBy", createdBy)
+                .put("seatsTaken", seatsTaken)
+                .put("averagePot", averagePot)
+                .put("handsPerHour", handsPerHour);
+    }
+
+    /*
+     * Getters
+     */
+    public Long getTableId() {
+        return tableId;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public String getVariant() {
+        return variant;
+    }
+
+    public Integer getMaxPlayers() {
+        return maxPlayers;
+    }
+
+    public Integer getSmallBlind() {
+        return smallBlind;
+    }
+
+    public Integer getBigBlind() {
+        return bigBlind;
+    }
+
+    public Integer getMinBuyIn() {
+        return minBuyIn;
+    }
+
+    public Integer getMaxBuyIn() {
+        return maxBuyIn;
+    }
+
+    public OffsetDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public Integer getCreatedBy() {
+        return createdBy;
+    }
+
+    public int getSeatsTaken() {
+        return seatsTaken;
+    }
+
+    public int getAveragePot() {
+        return averagePot;
+    }
+
+    public int getHandsPerHour() {
+        return handsPerHour;
+    }
+}
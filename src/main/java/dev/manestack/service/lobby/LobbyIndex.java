@@ -0,0 +1,130 @@
+package dev.manestack.service.lobby;
+
+import dev.manestack.service.poker.table.GameTable;
+import dev.manestack.service.socket.SpectatorChannel;
+import dev.manestack.service.socket.WebsocketEvent;
+import dev.manestack.service.socket.WebsocketSession;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * In-memory lobby kept current by the tables themselves, so listing tables never touches the database. Every change
+ * bumps the lobby version, which doubles as the ETag of the REST listing. Websocket subscribers get a SNAPSHOT first
+ * and then TABLE_UPDATE / TABLE_REMOVED diffs through a spectator channel; a client applies only diffs whose version
+ * is newer than the snapshot it holds.
+ */
+public class LobbyIndex {
+    private static final int PACE_WINDOW = 50;
+    private static final long NANOS_PER_HOUR = 3_600_000_000_000L;
+    // Keeps ETags from a previous run from matching after a restart resets the version.
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final Map<Long, LobbyEntry> entries = new TreeMap<>();
+    private final Map<Long, ArrayDeque<FinishedHand>> recentHands = new HashMap<>();
+    private final SpectatorChannel subscribers = new SpectatorChannel();
+    private long version = 0;
+    private Listing listing = null;
+
+    public synchronized LobbyEntry put(GameTable table) {
+        return update(table);
+    }
+
+    public synchronized LobbyEntry seatsChanged(GameTable table) {
+        return update(table);
+    }
+
+    public synchronized LobbyEntry handFinished(GameTable table, int pot) {
+        ArrayDeque<FinishedHand> hands = recentHands.computeIfAbsent(table.getTableId(), ignored -> new ArrayDeque<>());
+        if (hands.size() >= PACE_WINDOW) {
+            hands.poll();
+        }
+        hands.add(new FinishedHand(System.nanoTime(), pot));
+        return update(table);
+    }
+
+    public synchronized void remove(long tableId) {
+        recentHands.remove(tableId);
+        if (entries.remove(tableId) == null) {
+            return;
+        }
+        changed();
+        subscribers.publish(new WebsocketEvent(null, "LOBBY", new JsonObject()
+                .put("action", "TABLE_REMOVED")
+                .put("tableId", tableId)
+                .put("version", version)));
+    }
+
+    public synchronized Listing listing() {
+        if (listing == null) {
+            listing = new Listing(version, epoch + "-" + version, List.copyOf(entries.values()));
+        }
+        return listing;
+    }
+
+    public synchronized void subscribe(WebsocketSession session) {
+        Listing current = listing();
+        JsonArray tables = new JsonArray();
+        for (LobbyEntry entry : current.tables()) {
+            tables.add(entry.toJson());
+        }
+        subscribers.add(session, new WebsocketEvent(null, "LOBBY", new JsonObject()
+                .put("action", "SNAPSHOT")
+                .put("version", current.version())
+                .put("tables", tables)));
+    }
+
+    public void unsubscribe(WebsocketSession session) {
+        subscribers.remove(session);
+    }
+
+    public SpectatorChannel getSubscribers() {
+        return subscribers;
+    }
+
+    private LobbyEntry update(GameTable table) {
+        int averagePot = 0;
+        int handsPerHour = 0;
+        ArrayDeque<FinishedHand> hands = recentHands.get(table.getTableId());
+        if (hands != null && !hands.isEmpty()) {
+            long potTotal = 0;
+            for (FinishedHand hand : hands) {
+                potTotal += hand.pot();
+            }
+            averagePot = (int) (potTotal / hands.size());
+            long elapsed = hands.getLast().finishedAt() - hands.getFirst().finishedAt();
+            if (elapsed > 0) {
+                handsPerHour = (int) ((hands.size() - 1) * NANOS_PER_HOUR / elapsed);
+            }
+        }
+        LobbyEntry entry = new LobbyEntry(table, table.getSeats().size(), averagePot, handsPerHour);
+        entries.put(table.getTableId(), entry);
+        changed();
+        subscribers.publish(new WebsocketEvent(null, "LOBBY", new JsonObject()
+                .put("action", "TABLE_UPDATE")
+                .put("tableId", table.getTableId())
+                .put("version", version)
+                .put("table", entry.toJson())));
+        return entry;
+    }
+
+    private void changed() {
+        version++;
+        listing = null;
+    }
+
+    public record Listing(long version, String etag, List<LobbyEntry> tables) {
+    }
+
+    private record FinishedHand(long finishedAt, int pot) {
+    }
+
+    public enum LobbyAction {
+        SUBSCRIBE,
+        UNSUBSCRIBE,
+    }
+}
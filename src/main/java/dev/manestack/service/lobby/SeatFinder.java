@@ -0,0 +1,96 @@
+package dev.manestack.service.lobby;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/*
+ * Tables with an open seat, grouped by blinds and ordered best first: fewest open seats, then most hands per hour.
+ * The variant is checked per candidate, so a search without one takes the best table of any variant. Fed with every
+ * lobby entry change; updates for one table are serialized through its slot in candidates, updates for different
+ * tables only meet in the lock-free skip lists.
+ */
+public class SeatFinder {
+    private final ConcurrentHashMap<Blinds, Set<Candidate>> byBlinds = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Candidate> candidates = new ConcurrentHashMap<>();
+    // Every variant a table was ever listed with, full or not.
+    private final Set<String> variants = ConcurrentHashMap.newKeySet();
+
+    public void update(LobbyEntry entry) {
+        candidates.compute(entry.getTableId(), (tableId, previous) -> {
+            if (previous != null) {
+                byBlinds.get(previous.blinds()).remove(previous);
+            }
+            if (entry.getVariant() != null) {
+                variants.add(entry.getVariant());
+            }
+            int openSeats = entry.getMaxPlayers() - entry.getSeatsTaken();
+            if (openSeats <= 0) {
+                return null;
+            }
+            Candidate candidate = new Candidate(tableId, new Blinds(entry.getSmallBlind(), entry.getBigBlind()),
+                    entry.getVariant(), entry.getMinBuyIn(), entry.getMaxBuyIn(), openSeats, entry.getHandsPerHour());
+            byBlinds.computeIfAbsent(candidate.blinds(), ignored -> new ConcurrentSkipListSet<>()).add(candidate);
+            return candidate;
+        });
+    }
+
+    public void remove(long tableId) {
+        candidates.computeIfPresent(tableId, (ignored, previous) -> {
+            byBlinds.get(previous.blinds()).remove(previous);
+            return null;
+        });
+    }
+
+    /*
+     * Table ids best first; a null variant accepts any variant and a buy-in of 0 any buy-in range. The caller still has
+     * to check the seat is free.
+     */
+    public List<Long> find(String variant, int smallBlind, int bigBlind, int buyIn, int limit) {
+        if (variant != null && !variants.contains(variant)) {
+            throw new IllegalArgumentException("Unknown variant " + variant);
+        }
+        Set<Candidate> matching = byBlinds.get(new Blinds(smallBlind, bigBlind));
+        List<Long> tableIds = new ArrayList<>(limit);
+        if (matching == null) {
+            return tableIds;
+        }
+        for (Candidate candidate : matching) {
+            if ((variant == null || variant.equals(candidate.variant())) && (buyIn == 0 || candidate.accepts(buyIn))) {
+                tableIds.add(candidate.tableId());
+                if (tableIds.size() >= limit) {
+                    break;
+                }
+            }
+        }
+        return tableIds;
+    }
+
+    public int size() {
+        return candidates.size();
+    }
+
+    private record Blinds(Integer smallBlind, Integer bigBlind) {
+    }
+
+    private record Candidate(long tableId, Blinds blinds, String variant, Integer minBuyIn, Integer maxBuyIn,
+                             int openSeats, int handsPerHour) implements Comparable<Candidate> {
+
+        boolean accepts(int buyIn) {
+            return (minBuyIn == null || buyIn >= minBuyIn) && (maxBuyIn == null || buyIn <= maxBuyIn);
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            if (openSeats != other.openSeats) {
+                return Integer.compare(openSeats, other.openSeats);
+            }
+            if (handsPerHour != other.handsPerHour) {
+                return Integer.compare(other.handsPerHour, handsPerHour);
+            }
+            return Long.compare(tableId, other.tableId);
+        }
+    }
+}
@@ -3,11 +3,18 @@ package dev.manestack.service.poker.card;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 public class GameDeck {
     private final List<GameCard> cards = new ArrayList<>();
+    private final Random random;
 
     public GameDeck() {
+        this(new Random());
+    }
+
+    public GameDeck(Random random) {
+        this.random = random;
         for (GameCard.Suit suit : GameCard.Suit.values()) {
             for (GameCard.Rank rank : GameCard.Rank.values()) {
                 cards.add(new GameCard(suit, rank));
@@ -17,7 +24,7 @@ public class GameDeck {
     }
 
     public void shuffle() {
-        Collections.shuffle(cards);
+        Collections.shuffle(cards, random);
     }
 
     public GameCard drawCard() {
@@ -0,0 +1,285 @@
+package dev.manestack.service.poker.pool;
+
+import dev.manestack.service.poker.table.GamePlayer;
+import dev.manestack.service.poker.table.GameTable;
+import dev.manestack.service.poker.table.TableEventSink;
+import dev.manestack.service.socket.WebsocketEvent;
+import dev.manestack.service.socket.WebsocketSession;
+import dev.manestack.service.user.User;
+import io.vertx.core.json.JsonObject;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/*
+ * Fast-fold player pool for one stake. Ready players wait in a lock-free queue; as soon as a full hand of them is
+ * ready they are seated together at an idle pool table and the hand starts. A player who folds is back in the queue
+ * right away, the others when the hand ends. Tables are recycled, so a hand start costs no table setup and no per-seat
+ * broadcasts. Matching and the hands themselves run on the gameplay thread like every other table. Once everyone has
+ * left and the last hand is over, the pool gives its tables back, see closeIfIdle.
+ */
+public class FastFoldPool {
+    private static final Logger LOG = Logger.getLogger(FastFoldPool.class);
+    private final Stakes stakes;
+    private final int handSize;
+    private final TableEventSink sink;
+    private final LongSupplier tableIds;
+    private final Map<Long, GameTable> tableRegistry;
+    private final Map<Integer, Member> members = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Member> ready = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger readyCount = new AtomicInteger();
+    private final ArrayDeque<FastFoldTable> idleTables = new ArrayDeque<>();
+    private final AtomicLong handsStarted = new AtomicLong();
+    private int activeHands = 0;
+    private boolean matching = false;
+
+    public FastFoldPool(Stakes stakes, int handSize, TableEventSink sink, LongSupplier tableIds,
+                        Map<Long, GameTable> tableRegistry) {
+        this.stakes = stakes;
+        this.handSize = handSize;
+        this.sink = sink;
+        this.tableIds = tableIds;
+        this.tableRegistry = tableRegistry;
+    }
+
+    public void join(User user, WebsocketSession session, int stack, int maxBuyIn) {
+        if (members.containsKey(user.getUserId())) {
+            throw new IllegalStateException("Already in this pool");
+        }
+        if (stack < stakes.bigBlind() || stack > maxBuyIn) {
+            throw new IllegalArgumentException("Buy-in must be between " + stakes.bigBlind() + " and " + maxBuyIn);
+        }
+        Member member = new Member(user, session, stack);
+        members.put(user.getUserId(), member);
+        LOG.infov("User {0} joined fast-fold pool {1}", user.getUserId(), stakes);
+        sendPoolEvent(member, new JsonObject().put("action", "JOINED").put("stack", stack));
+        enqueue(member);
+        match();
+    }
+
+    // A player leaving mid-hand has the hand played out for them (check or fold) and is not requeued.
+    public boolean leave(WebsocketSession session, String reason) {
+        Member member = members.get(session.getUser().getUserId());
+        if (member == null || member.session != session) {
+            return false;
+        }
+        members.remove(session.getUser().getUserId());
+        if (member.table != null) {
+            member.table.holdSeat(member.user, member.session);
+        }
+        LOG.infov("User {0} left fast-fold pool {1}: {2}", member.user.getUserId(), stakes, reason);
+        sendPoolEvent(member, new JsonObject().put("action", "LEFT").put("reason", reason).put("stack", member.stack));
+        return true;
+    }
+
+    void folded(FastFoldTable table, GamePlayer gamePlayer) {
+        Member member = members.get(gamePlayer.getUser().getUserId());
+        if (member == null || member.table != table) {
+            return;
+        }
+        table.getInvolvedSessions().remove(member.session.getId());
+        member.table = null;
+        member.stack = gamePlayer.getStack();
+        enqueue(member);
+        match();
+    }
+
+    void handFinished(FastFoldTable table) {
+        for (GamePlayer gamePlayer : table.getSeats().values()) {
+            Member member = members.get(gamePlayer.getUser().getUserId());
+            if (member != null && member.table == table) {
+                member.table = null;
+                member.stack = gamePlayer.getStack();
+                enqueue(member);
+            }
+        }
+        table.clearHand();
+        idleTables.push(table);
+        activeHands--;
+        match();
+    }
+
+    // Unregisters the idle tables of a pool nobody is in; the caller drops the pool and makes a new one on the next join.
+    public boolean closeIfIdle() {
+        if (!members.isEmpty() || activeHands > 0) {
+            return false;
+        }
+        for (FastFoldTable table : idleTables) {
+            tableRegistry.remove(table.getTableId());
+        }
+        idleTables.clear();
+        LOG.infov("Closed idle fast-fold pool {0}", stakes);
+        return true;
+    }
+
+    private void enqueue(Member member) {
+        if (member.stack < stakes.bigBlind()) {
+            members.remove(member.user.getUserId());
+            sendPoolEvent(member, new JsonObject().put("action", "LEFT").put("reason", "Stack below the big blind")
+                    .put("stack", member.stack));
+            return;
+        }
+        ready.offer(member);
+        readyCount.incrementAndGet();
+    }
+
+    /*
+     * Deals hands while enough players are ready. Full hands are preferred; a short-handed hand is only dealt when no
+     * hand is running that could bring players back. Reentrant calls (a hand ending while another is dealt) return
+     * at once and leave the work to the running loop.
+     */
+    private void match() {
+        if (matching) {
+            return;
+        }
+        matching = true;
+        try {
+            while (true) {
+                int available = readyCount.get();
+                int size = available >= handSize ? handSize : activeHands == 0 && available >= 2 ? available : 0;
+                if (size == 0) {
+                    return;
+                }
+                List<Member> players = new ArrayList<>(size);
+                while (players.size() < size) {
+                    Member member = ready.poll();
+                    if (member == null) {
+                        break;
+                    }
+                    readyCount.decrementAndGet();
+                    // Players who left, or left and joined again, can still have an entry in the queue.
+                    if (members.get(member.user.getUserId()) == member && member.table == null) {
+                        players.add(member);
+                    }
+                }
+                if (players.size() < 2) {
+                    for (Member member : players) {
+                        ready.offer(member);
+                        readyCount.incrementAndGet();
+                    }
+                    return;
+                }
+                startHand(players);
+            }
+        } finally {
+            matching = false;
+        }
+    }
+
+    private void startHand(List<Member> players) {
+        FastFoldTable table = idleTables.poll();
+        if (table == null) {
+            table = createTable();
+        }
+        Collections.shuffle(players, table.getRandom());
+        List<GamePlayer> gamePlayers = new ArrayList<>(players.size());
+        List<WebsocketSession> sessions = new ArrayList<>(players.size());
+        for (Member member : players) {
+            member.table = table;
+            gamePlayers.add(new GamePlayer(member.user, member.stack));
+            sessions.add(member.session);
+        }
+        table.seatHand(gamePlayers, sessions);
+        activeHands++;
+        handsStarted.incrementAndGet();
+        for (Member member : players) {
+            sendPoolEvent(member, new JsonObject()
+                    .put("action", "HAND_START")
+                    .put("tableId", table.getTableId())
+                    .put("snapshot", table.snapshot(member.user.getUserId())));
+        }
+        table.startGame();
+    }
+
+    private FastFoldTable createTable() {
+        FastFoldTable table = new FastFoldTable(this);
+        table.setTableId(tableIds.getAsLong());
+        table.setTableName("Fast-fold " + stakes);
+        table.setVariant(stakes.variant());
+        table.setMaxPlayers(handSize);
+        table.setSmallBlind(stakes.smallBlind());
+        table.setBigBlind(stakes.bigBlind());
+        table.connectToServer(sink);
+        tableRegistry.put(table.getTableId(), table);
+        return table;
+    }
+
+    private void sendPoolEvent(Member member, JsonObject data) {
+        sink.sendWebsocketEvent(new WebsocketEvent(
+                member.session.getId(),
+                "POOL",
+                data.put("variant", stakes.variant())
+                        .put("smallBlind", stakes.smallBlind())
+                        .put("bigBlind", stakes.bigBlind())
+        ));
+    }
+
+    /*
+     * Getters
+     */
+    public Stakes getStakes() {
+        return stakes;
+    }
+
+    public int getMemberCount() {
+        return members.size();
+    }
+
+    public int getReadyCount() {
+        return readyCount.get();
+    }
+
+    public long getHandsStarted() {
+        return handsStarted.get();
+    }
+
+    public record Stakes(String variant, int smallBlind, int bigBlind) {
+        // "1/2" or "<variant> 1/2", as toString writes them.
+        public static Stakes parse(String value) {
+            String stakes = value.strip();
+            int space = stakes.lastIndexOf(' ');
+            String[] blinds = stakes.substring(space + 1).split("/");
+            if (blinds.length != 2) {
+                throw new IllegalArgumentException("Invalid stakes " + value);
+            }
+            int smallBlind = Integer.parseInt(blinds[0]);
+            int bigBlind = Integer.parseInt(blinds[1]);
+            if (smallBlind <= 0 || smallBlind > bigBlind) {
+                throw new IllegalArgumentException("Invalid blinds in stakes " + value);
+            }
+            return new Stakes(space < 0 ? null : stakes.substring(0, space).strip(), smallBlind, bigBlind);
+        }
+
+        @Override
+        public String toString() {
+            return (variant == null ? "" : variant + " ") + smallBlind + "/" + bigBlind;
+        }
+    }
+
+    public enum PoolAction {
+        JOIN,
+        LEAVE,
+    }
+
+    private static class Member {
+        private final User user;
+        private final WebsocketSession session;
+        private int stack;
+        private FastFoldTable table;
+
+        private Member(User user, WebsocketSession session, int stack) {
+            this.user = user;
+            this.session = session;
+            this.stack = stack;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package dev.manestack.service.poker.pool;
+
+import dev.manestack.service.poker.table.GamePlayer;
+import dev.manestack.service.poker.table.GameSession;
+import dev.manestack.service.poker.table.GameTable;
+
+import java.util.Map;
+
+/*
+ * A table owned by a fast-fold pool. It plays one hand at a time for the pool: a player who folds goes straight back
+ * to the pool and, once the hand is over, the table returns to the pool's idle list instead of starting the next hand.
+ */
+public class FastFoldTable extends GameTable {
+    private final FastFoldPool pool;
+
+    public FastFoldTable(FastFoldPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void propagatePlayerEvent(Integer seatId, GameSession.ActionType actionType, int amount, Map<Integer, Integer> playerBets) {
+        super.propagatePlayerEvent(seatId, actionType, amount, playerBets);
+        if (actionType == GameSession.ActionType.FOLD) {
+            GamePlayer gamePlayer = getSeats().get(seatId);
+            pool.folded(this, gamePlayer);
+        }
+    }
+
+    @Override
+    public void startNextGame() {
+        pool.handFinished(this);
+    }
+}
@@ -27,7 +27,7 @@ public class GameSession {
         this.sessionId = sessionId;
         this.table = table;
         this.state = State.WAITING_FOR_PLAYERS;
-        this.deck = new GameDeck();
+        this.deck = new GameDeck(table.getRandom());
         this.dealerPosition = dealerPosition;
         List<Integer> orderedSeats = players.keySet().stream().sorted().toList();
         int startIndex = (orderedSeats.indexOf(dealerPosition) + 1) % orderedSeats.size();
@@ -52,6 +52,7 @@ public class GameSession {
         table.sendGameStateUpdateToParticipants(state, communityCards);
         int smallBlindAmount = table.getSmallBlind();
         int bigBlindAmount = table.getBigBlind();
+        // A player short of the blind posts what they have; in a tournament stacks shrink below the blinds.
         actForPlayer(ActionType.SMALL_BLIND, smallBlindAmount);
         actForPlayer(ActionType.BIG_BLIND, bigBlindAmount);
         if (currentQueue.isEmpty()) {
@@ -75,12 +76,27 @@ public class GameSession {
         table.sendTurnUpdateToParticipants(currentPlayer);
         LOG.infov("Turn has been passed to player {0} at table {1} in session {2}",
                 currentPlayer.getUser().getUserId(), table.getTableName(), sessionId);
+        if (table.isAbsent(currentPlayer.getUser().getUserId())) {
+            actForAbsentPlayer();
+        }
+    }
+
+    public void handleAbsence(Integer userId) {
+        if (currentPlayer != null && currentPlayer.getUser().getUserId() == userId
+                && currentPlayer.isInHand() && state != State.FINISHED) {
+            actForAbsentPlayer();
+        }
+    }
+
+    // A disconnected player whose seat is held checks when possible and folds otherwise, so the hand never waits on them.
+    private void actForAbsentPlayer() {
+        receivePlayerAction(currentPlayer.getUser().getUserId(), playerBets.isEmpty() ? ActionType.CHECK : ActionType.FOLD, 0);
     }
 
     private void actForPlayer(ActionType actionType, int amount) {
         currentPlayer = currentQueue.poll();
         table.sendTurnUpdateToParticipants(currentPlayer);
-        receivePlayerAction(currentPlayer.getUser().getUserId(), actionType, amount);
+        receivePlayerAction(currentPlayer.getUser().getUserId(), actionType, Math.min(amount, currentPlayer.getStack()));
     }
 
     public void handleLeave(Integer userId) {
@@ -122,7 +138,7 @@ public class GameSession {
                     return; // no-op if no bets to call
                 } else {
                     int highestBet = playerBets.values().stream().max(Integer::compareTo).orElse(0);
-                    if (highestBet > amount + playerBets.get(currentPlayer.getSeatId())) {
+                    if (highestBet > amount + playerBets.getOrDefault(currentPlayer.getSeatId(), 0)) {
                         LOG.warnv("Player {0} attempted to call with insufficient amount in session {1}", playerId, sessionId);
                         return; // no-op if call is less than highest bet
                     }
@@ -171,6 +187,7 @@ public class GameSession {
     private void dealCards() {
         LOG.infov("Dealing cards to players in session {0}", sessionId);
         for (GamePlayer player : originalPlayerQueue) {
+            player.refreshHoleCards();
             player.addCard(deck.drawCard());
             player.addCard(deck.drawCard());
             player.setInHand(true);
@@ -217,8 +234,12 @@ public class GameSession {
         GameHand best = null;
         List<GamePlayer> winners = new ArrayList<>();
 
-        for (GamePlayer player : originalPlayerQueue) {
-            if (player.isInHand()) {
+        List<GamePlayer> contenders = originalPlayerQueue.stream().filter(GamePlayer::isInHand).toList();
+        if (contenders.size() == 1) {
+            // Everyone else folded, there is nothing to evaluate.
+            winners.add(contenders.getFirst());
+        } else {
+            for (GamePlayer player : contenders) {
                 List<GameCard> fullHand = new ArrayList<>(player.getHoleCards());
                 fullHand.addAll(communityCards);
                 LOG.infov("Full hand for player {0}: {1}", player.getUser().getUserId(), fullHand);
@@ -233,11 +254,18 @@ public class GameSession {
                 }
             }
         }
-        for (GamePlayer winner : winners) {
-            int winnings = pot / winners.size();
+        // Chips that do not split evenly go one each to the winners closest to the left of the button.
+        winners.sort(Comparator.comparingInt(winner -> Math.floorMod(winner.getSeatId() - dealerPosition - 1,
+                table.getMaxPlayers())));
+        Map<Integer, Integer> payouts = new HashMap<>();
+        for (int i = 0; i < winners.size(); i++) {
+            GamePlayer winner = winners.get(i);
+            int winnings = pot / winners.size() + (i < pot % winners.size() ? 1 : 0);
             winner.addToStack(winnings);
+            payouts.put(winner.getSeatId(), winnings);
             LOG.infov("Player {0} wins {1} chips", winner.getUser().getUserId(), winnings);
         }
+        table.recordSettlement(payouts);
         table.propagatePlayerStacks();
         LOG.infov("Best hand in session {0} is {1} with winners: {2}", sessionId, best, winners);
     }
@@ -278,6 +306,10 @@ public class GameSession {
         return playerBets;
     }
 
+    public List<GameCard> getCommunityCards() {
+        return communityCards;
+    }
+
     public enum State {
         WAITING_FOR_PLAYERS,
         PRE_FLOP,
@@ -1,19 +1,31 @@
 package dev.manestack.service.poker.table;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
-import dev.manestack.service.GameService;
+import dev.manestack.service.history.HandEventType;
+import dev.manestack.service.history.HandRecordCodec;
+import dev.manestack.service.history.TableSnapshot;
 import dev.manestack.service.poker.card.GameCard;
+import dev.manestack.service.socket.SpectatorChannel;
 import dev.manestack.service.socket.WebsocketEvent;
 import dev.manestack.service.socket.WebsocketSession;
 import dev.manestack.service.user.User;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.json.JsonObject;
 import org.jboss.logging.Logger;
 
+import java.time.Duration;
 import java.time.OffsetDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class GameTable {
     private static final Logger LOG = Logger.getLogger(GameTable.class);
@@ -29,11 +41,32 @@ public class GameTable {
     private Integer createdBy;
     private GameSession currentGameSession = null;
     private Integer currentDealer = 0;
+    @JsonIgnore
+    private long lastHandId = 0;
+    // Stacks by seat from before the running hand, for snapshots taken while it is played.
+    @JsonIgnore
+    private final Map<Integer, Integer> handStartStacks = new HashMap<>();
     private final Map<Integer, GamePlayer> seats = new HashMap<>();
     private final Map<Integer, User> waitingList = new HashMap<>();
     @JsonIgnore
-    private final Map<String, WebsocketSession> involvedSessions = new HashMap<>();
-    private GameService service;
+    private final Map<Integer, Integer> seatByUser = new HashMap<>();
+    @JsonIgnore
+    private final Map<String, WebsocketSession> involvedSessions = new ConcurrentHashMap<>();
+    @JsonIgnore
+    private Random random = new Random();
+    @JsonIgnore
+    private long stateVersion = 0;
+    @JsonIgnore
+    private final ArrayDeque<RecordedEvent> recentEvents = new ArrayDeque<>();
+    @JsonIgnore
+    private int replayCapacity = 256;
+    @JsonIgnore
+    private final Set<Integer> absentUsers = new HashSet<>();
+    @JsonIgnore
+    private final SpectatorChannel spectatorChannel = new SpectatorChannel();
+    @JsonIgnore
+    private Duration spectatorHoleCardDelay = Duration.ofSeconds(30);
+    private TableEventSink sink;
 
     public void validateCreate() {
         if (tableName == null || tableName.isEmpty()) {
@@ -56,24 +89,108 @@ public class GameTable {
         }
     }
 
-    public void connectToServer(GameService service) {
-        this.service = service;
+    public void connectToServer(TableEventSink sink) {
+        this.sink = sink;
     }
 
-    public void joinWaitingList(User user, WebsocketSession session) {
+    // Watchers only get the public feed; a seated player joining again (e.g. from a new connection) stays a player.
+    public void joinAsSpectator(User user, WebsocketSession session) {
         waitingList.put(user.getUserId(), user);
-        involvedSessions.put(session.getId(), session);
+        if (seatByUser.containsKey(user.getUserId())) {
+            involvedSessions.put(session.getId(), session);
+        } else {
+            spectatorChannel.add(session);
+        }
+        absentUsers.remove(user.getUserId());
     }
 
     public void leaveTable(User user, WebsocketSession session) {
-        for (Map.Entry<Integer, GamePlayer> entry : seats.entrySet()) {
-            if (entry.getValue().getUser().getUserId() == user.getUserId()) {
-                leaveSeat(entry.getKey(), user.getUserId(), session);
-                break;
-            }
+        Integer seatNumber = seatByUser.get(user.getUserId());
+        if (seatNumber != null) {
+            leaveSeat(seatNumber, user.getUserId(), session);
         }
         waitingList.remove(user.getUserId());
         involvedSessions.remove(session.getId());
+        spectatorChannel.remove(session);
+        absentUsers.remove(user.getUserId());
+    }
+
+    // The stack the seat started the current or last hand with, or null when it was not dealt in.
+    public Integer getHandStartStack(int seatId) {
+        return handStartStacks.get(seatId);
+    }
+
+    public boolean isSeated(int userId) {
+        return seatByUser.containsKey(userId);
+    }
+
+    public Integer firstOpenSeat() {
+        for (int seatNumber = 0; seatNumber < maxPlayers; seatNumber++) {
+            if (!seats.containsKey(seatNumber)) {
+                return seatNumber;
+            }
+        }
+        return null;
+    }
+
+    public boolean isAbsent(int userId) {
+        return absentUsers.contains(userId);
+    }
+
+    public void holdSeat(User user, WebsocketSession session) {
+        LOG.infov("Holding seat of {0} at table {1}", user.getUsername(), tableName);
+        involvedSessions.remove(session.getId());
+        absentUsers.add(user.getUserId());
+        if (currentGameSession != null) {
+            currentGameSession.handleAbsence(user.getUserId());
+        }
+    }
+
+    /*
+     * Moves a held seat over to the new connection and sends it what happened since lastSeq. The replay comes from the
+     * recent event buffer; when the client is too far behind it gets a snapshot instead.
+     */
+    public void resumeSeat(WebsocketSession previous, WebsocketSession session, long lastSeq) {
+        int userId = session.getUser().getUserId();
+        involvedSessions.remove(previous.getId());
+        involvedSessions.put(session.getId(), session);
+        absentUsers.remove(userId);
+        List<WebsocketEvent> missed = eventsSince(lastSeq);
+        if (missed == null) {
+            LOG.infov("User {0} is too far behind on table {1}, sending snapshot", userId, tableName);
+            sink.sendWebsocketEvent(new WebsocketEvent(
+                    session.getId(),
+                    "TABLE",
+                    new JsonObject()
+                            .put("action", "SNAPSHOT")
+                            .put("tableId", tableId)
+                            .put("snapshot", snapshot(userId))
+            ));
+            return;
+        }
+        LOG.infov("Replaying {0} events to user {1} on table {2}", missed.size(), userId, tableName);
+        List<WebsocketSession> recipient = List.of(session);
+        for (WebsocketEvent event : missed) {
+            sink.broadcastWebsocketEvent(recipient, event);
+        }
+        Integer seatNumber = seatByUser.get(userId);
+        if (currentGameSession != null && seatNumber != null && seats.get(seatNumber).isInHand()) {
+            sendHoleCards(session, seats.get(seatNumber), hiddenHoleCards());
+        }
+    }
+
+    // Everything recorded after the delta with the given version, or null if that delta already left the buffer.
+    private List<WebsocketEvent> eventsSince(long lastSeq) {
+        List<WebsocketEvent> missed = new ArrayList<>();
+        boolean found = lastSeq == 0 && recentEvents.size() < replayCapacity;
+        for (RecordedEvent recorded : recentEvents) {
+            if (found) {
+                missed.add(recorded.event());
+            } else if (recorded.delta() && recorded.seq() == lastSeq) {
+                found = true;
+            }
+        }
+        return found ? missed : null;
     }
 
     public void takeSeat(int seatNumber, GamePlayer gamePlayer, WebsocketSession session) {
@@ -83,16 +200,19 @@ public class GameTable {
         if (seats.size() >= maxPlayers) {
             throw new IllegalStateException("No more seats available");
         }
-        for (Map.Entry<Integer, GamePlayer> entry : seats.entrySet()) {
-            if (entry.getValue() != null && entry.getValue().getUser().getUserId() == gamePlayer.getUser().getUserId()) {
-                leaveSeat(entry.getKey(), entry.getValue().getUser().getUserId(), session);
-            }
+        Integer previousSeat = seatByUser.get(gamePlayer.getUser().getUserId());
+        if (previousSeat != null) {
+            leaveSeat(previousSeat, gamePlayer.getUser().getUserId(), session);
         }
         seats.put(seatNumber, gamePlayer);
+        seatByUser.put(gamePlayer.getUser().getUserId(), seatNumber);
         gamePlayer.setSeatId(seatNumber);
+        recordSeatEvent(HandEventType.SEAT_TAKEN, gamePlayer);
+        spectatorChannel.remove(session);
         involvedSessions.put(session.getId(), session);
 
-        sendTableUpdateToParticipants("TAKE_SEAT");
+        sendSeatUpdateToParticipants(seatNumber);
+        sink.seatsChanged(this);
 
         if (currentGameSession == null) {
             long nonNullPlayers = seats.values().stream().filter(Objects::nonNull).count();
@@ -103,6 +223,90 @@ public class GameTable {
 
     }
 
+    /*
+     * Seats many players at once for a pool or a tournament, without the per-seat SEAT_UPDATE broadcasts of takeSeat.
+     * The caller sends its players a snapshot and then calls startGame; clearHand empties the table again.
+     */
+    public void seatHand(List<GamePlayer> gamePlayers, List<WebsocketSession> sessions) {
+        if (currentGameSession != null) {
+            throw new IllegalStateException("Game is already in progress");
+        }
+        for (int seatNumber = 0; seatNumber < gamePlayers.size(); seatNumber++) {
+            GamePlayer gamePlayer = gamePlayers.get(seatNumber);
+            WebsocketSession session = sessions.get(seatNumber);
+            gamePlayer.setSeatId(seatNumber);
+            seats.put(seatNumber, gamePlayer);
+            seatByUser.put(gamePlayer.getUser().getUserId(), seatNumber);
+            involvedSessions.put(session.getId(), session);
+        }
+    }
+
+    public void clearHand() {
+        currentGameSession = null;
+        seats.clear();
+        seatByUser.clear();
+        involvedSessions.clear();
+        absentUsers.clear();
+    }
+
+    /*
+     * Snapshot and restore. Restored players have no connection yet, so their seats are held like those of players who
+     * dropped; releaseAbsentSeats frees the ones that are still empty once the grace period is over.
+     */
+    public TableSnapshot captureState() {
+        List<TableSnapshot.Seat> seatStates = new ArrayList<>(seats.size());
+        for (GamePlayer gamePlayer : seats.values()) {
+            Integer stack = currentGameSession == null ? null : handStartStacks.get(gamePlayer.getSeatId());
+            seatStates.add(new TableSnapshot.Seat(gamePlayer.getSeatId(), gamePlayer.getUser().getUserId(),
+                    gamePlayer.getUser().getUsername(), stack == null ? gamePlayer.getStack() : stack));
+        }
+        long replayFrom = currentGameSession == null ? lastHandId + 1 : currentGameSession.getSessionId();
+        return new TableSnapshot(tableId, lastHandId, replayFrom, currentDealer, seatStates);
+    }
+
+    public void restoreState(TableSnapshot snapshot, Map<Integer, User> users) {
+        if (currentGameSession != null) {
+            throw new IllegalStateException("Game is already in progress");
+        }
+        for (TableSnapshot.Seat seat : snapshot.seats()) {
+            User user = users.get(seat.userId());
+            if (user == null || seat.seat() >= maxPlayers) {
+                LOG.warnv("Dropping seat {0} of user {1} at table {2} on restore", seat.seat(), seat.userId(), tableName);
+                continue;
+            }
+            GamePlayer gamePlayer = new GamePlayer(user, seat.stack());
+            gamePlayer.setSeatId(seat.seat());
+            seats.put(seat.seat(), gamePlayer);
+            seatByUser.put(user.getUserId(), seat.seat());
+            absentUsers.add(user.getUserId());
+        }
+        currentDealer = snapshot.dealer();
+        lastHandId = snapshot.lastHandId();
+    }
+
+    public void releaseAbsentSeats(Collection<Integer> userIds) {
+        for (Integer userId : userIds) {
+            Integer seatNumber = seatByUser.get(userId);
+            if (seatNumber == null || !absentUsers.contains(userId)) {
+                continue;
+            }
+            GamePlayer gamePlayer = seats.remove(seatNumber);
+            seatByUser.remove(userId);
+            waitingList.remove(userId);
+            absentUsers.remove(userId);
+            LOG.infov("Released seat {0} of {1} at table {2}", seatNumber, gamePlayer.getUser().getUsername(), tableName);
+            recordSeatEvent(HandEventType.CASH_OUT, gamePlayer);
+            sendSeatUpdateToParticipants(seatNumber);
+            if (currentGameSession != null) {
+                currentGameSession.handleLeave(userId);
+            }
+        }
+        sink.seatsChanged(this);
+        if (currentGameSession == null && seats.size() >= 2) {
+            startGame();
+        }
+    }
+
     public void leaveSeat(int seatNumber, Integer userId, WebsocketSession session) {
         if (!seats.containsKey(seatNumber)) {
             throw new IllegalArgumentException("Seat " + seatNumber + " is not occupied");
@@ -110,20 +314,16 @@ public class GameTable {
             throw new IllegalArgumentException("You cannot leave a seat that is not yours");
         }
         GamePlayer gamePlayer = seats.remove(seatNumber);
-        boolean isPlayer = false;
-        for (Map.Entry<Integer, GamePlayer> entry : seats.entrySet()) {
-            if (entry.getValue().getUser().getUserId() == gamePlayer.getUser().getUserId()) {
-                isPlayer = true;
-                break;
-            }
-        }
+        seatByUser.remove(userId);
         LOG.infov("Player {0} left seat {1} at table {2}", gamePlayer.getUser().getUsername(), seatNumber, tableName);
         waitingList.remove(gamePlayer.getUser().getUserId());
         involvedSessions.remove(session.getId());
-        if (isPlayer) {
-            sendTableUpdateToParticipants("LEAVE_TABLE");
+        recordSeatEvent(HandEventType.CASH_OUT, gamePlayer);
+        sendSeatUpdateToParticipants(seatNumber);
+        sink.seatsChanged(this);
+        if (currentGameSession != null) {
+            currentGameSession.handleLeave(userId);
         }
-        currentGameSession.handleLeave(userId);
     }
 
     public void startGame() {
@@ -135,16 +335,55 @@ public class GameTable {
         }
 
         LOG.infov("Starting game at table {0} with players: {1}", tableName, seats.values());
-        currentGameSession = new GameSession(System.currentTimeMillis(), this, currentDealer, seats);
+        // Hand ids key the hand history, so two hands of a table started in the same millisecond still get their own.
+        lastHandId = Math.max(System.currentTimeMillis(), lastHandId + 1);
+        currentGameSession = new GameSession(lastHandId, this, currentDealer, seats);
+        handStartStacks.clear();
+        for (GamePlayer gamePlayer : currentGameSession.getOriginalPlayerQueue()) {
+            handStartStacks.put(gamePlayer.getSeatId(), gamePlayer.getStack());
+        }
+        recordHandEvent(HandEventType.HAND_START, HandRecordCodec.handStart(currentDealer, smallBlind, bigBlind,
+                currentGameSession.getOriginalPlayerQueue()));
         currentGameSession.startGame();
         currentDealer = (currentDealer + 1) % maxPlayers;
     }
 
     public void startNextGame() {
-        this.currentGameSession = null;
+        finishHand();
         startGame();
     }
 
+    public void finishHand() {
+        sink.handFinished(this, currentGameSession.getPot());
+        revealHoleCardsToSpectators();
+        this.currentGameSession = null;
+    }
+
+    // Only hands that went to showdown are shown; folded and uncontested hands stay mucked, as at a live table.
+    private void revealHoleCardsToSpectators() {
+        if (spectatorChannel.size() == 0) {
+            return;
+        }
+        Map<Integer, List<GameCard>> holeCards = new HashMap<>();
+        for (GamePlayer gamePlayer : currentGameSession.getOriginalPlayerQueue()) {
+            if (gamePlayer.isInHand()) {
+                holeCards.put(gamePlayer.getSeatId(), List.copyOf(gamePlayer.getHoleCards()));
+            }
+        }
+        if (holeCards.size() < 2) {
+            return;
+        }
+        spectatorChannel.publishAfter(new WebsocketEvent(
+                null,
+                "GAME",
+                new JsonObject()
+                        .put("action", "HOLE_CARDS_REVEAL")
+                        .put("tableId", tableId)
+                        .put("handId", currentGameSession.getSessionId())
+                        .put("holeCards", holeCards)
+        ), spectatorHoleCardDelay);
+    }
+
     public void receivePlayerAction(Integer playerId, GameSession.ActionType actionType, int amount) {
         if (currentGameSession == null) {
             throw new IllegalStateException("No game in progress");
@@ -156,118 +395,191 @@ public class GameTable {
         if (currentGameSession == null) {
             throw new IllegalStateException("No game in progress");
         }
-        for (WebsocketSession playerSession : involvedSessions.values()) {
-            service.sendWebsocketEvent(new WebsocketEvent(
-                    playerSession.getId(),
-                    "GAME",
-                    new JsonObject()
-                            .put("action", "GAME_STATE_UPDATE")
-                            .put("state", state)
-                            .put("currentPot", currentGameSession.getPot())
-                            .put("playerBets", currentGameSession.getPlayerBets())
-                            .put("communityCards", communityCards)
-            ));
+        // The final board is already part of the settlement, which closes the hand in the history.
+        if (state != GameSession.State.FINISHED) {
+            recordHandEvent(HandEventType.BOARD, HandRecordCodec.board(state, communityCards));
         }
+        broadcast(tableEvent("GAME", new JsonObject()
+                .put("action", "GAME_STATE_UPDATE")
+                .put("handId", currentGameSession.getSessionId())
+                .put("state", state)
+                .put("currentPot", currentGameSession.getPot())
+                .put("playerBets", new HashMap<>(currentGameSession.getPlayerBets()))
+                .put("communityCards", List.copyOf(communityCards)), false));
     }
 
     public void sendTurnUpdateToParticipants(GamePlayer gamePlayer) {
         if (currentGameSession == null) {
             throw new IllegalStateException("No game in progress");
         }
-        for (WebsocketSession playerSession : involvedSessions.values()) {
-            service.sendWebsocketEvent(new WebsocketEvent(
-                    playerSession.getId(),
-                    "GAME",
-                    new JsonObject()
-                            .put("action", "TURN_UPDATE")
-                            .put("currentPlayerSeat", gamePlayer.getSeatId())
-            ));
-        }
+        broadcast(tableEvent("GAME", new JsonObject()
+                .put("action", "TURN_UPDATE")
+                .put("handId", currentGameSession.getSessionId())
+                .put("currentPlayerSeat", gamePlayer.getSeatId()), false));
     }
 
     public void propagatePlayerStacks() {
         if (currentGameSession == null) {
             throw new IllegalStateException("No game in progress");
         }
-        for (WebsocketSession playerSession : involvedSessions.values()) {
-            Map<Integer, Integer> playerStacks = new HashMap<>();
-            for (Map.Entry<Integer, GamePlayer> entry : seats.entrySet()) {
-                if (entry.getValue() != null) {
-                    playerStacks.put(entry.getKey(), entry.getValue().getStack());
-                }
+        Map<Integer, Integer> playerStacks = new HashMap<>();
+        for (Map.Entry<Integer, GamePlayer> entry : seats.entrySet()) {
+            if (entry.getValue() != null) {
+                playerStacks.put(entry.getKey(), entry.getValue().getStack());
             }
-            service.sendWebsocketEvent(new WebsocketEvent(
-                    playerSession.getId(),
-                    "GAME",
-                    new JsonObject()
-                            .put("action", "PLAYER_STACKS")
-                            .put("stacks", playerStacks)
-            ));
         }
+        broadcast(tableEvent("GAME", new JsonObject()
+                .put("action", "PLAYER_STACKS")
+                .put("handId", currentGameSession.getSessionId())
+                .put("stacks", playerStacks), false));
     }
 
     public void propagatePlayerEvent(Integer seatId, GameSession.ActionType actionType, int amount, Map<Integer, Integer> playerBets) {
         if (currentGameSession == null) {
             throw new IllegalStateException("No game in progress");
         }
-        for (WebsocketSession playerSession : involvedSessions.values()) {
-            service.sendWebsocketEvent(new WebsocketEvent(
-                    playerSession.getId(),
-                    "GAME",
-                    new JsonObject()
-                            .put("action", "PLAYER_ACTION")
-                            .put("seatId", seatId)
-                            .put("actionType", actionType.name())
-                            .put("amount", amount)
-                            .put("currentBets", playerBets)
-                            .put("currentPot", currentGameSession.getPot() - playerBets.values().stream().mapToInt(Integer::intValue).sum())
-            ));
+        recordHandEvent(HandEventType.ACTION, HandRecordCodec.action(seatId, actionType, amount));
+        int currentBetsTotal = 0;
+        for (Integer bet : playerBets.values()) {
+            currentBetsTotal += bet;
         }
+        broadcast(tableEvent("GAME", new JsonObject()
+                .put("action", "PLAYER_ACTION")
+                .put("seatId", seatId)
+                .put("actionType", actionType.name())
+                .put("amount", amount)
+                .put("currentBets", new HashMap<>(playerBets))
+                .put("currentPot", currentGameSession.getPot() - currentBetsTotal), true));
     }
 
     public void sendPersonalHoleCardsToPlayers() {
         if (currentGameSession == null) {
             throw new IllegalStateException("No game in progress");
         }
+        recordHandEvent(HandEventType.HOLE_CARDS, HandRecordCodec.holeCards(currentGameSession.getOriginalPlayerQueue()));
+        Map<Integer, List<GameCard>> hiddenHoleCards = hiddenHoleCards();
         for (WebsocketSession playerSession : involvedSessions.values()) {
-            long sessionUserID = playerSession.getUser().getUserId();
-            Map<Integer, List<GameCard>> hiddenHoleCards = new HashMap<>();
-            for (Map.Entry<Integer, GamePlayer> entry : seats.entrySet()) {
-                GamePlayer gamePlayer = entry.getValue();
-                if (gamePlayer != null) {
-                    hiddenHoleCards.put(entry.getKey(), List.of(
-                            new GameCard(true),
-                            new GameCard(true)
-                    ));
-                }
+            Integer seatNumber = seatByUser.get(playerSession.getUser().getUserId());
+            if (seatNumber != null) {
+                sendHoleCards(playerSession, seats.get(seatNumber), hiddenHoleCards);
             }
-            for (Map.Entry<Integer, GamePlayer> entry : seats.entrySet()) {
-                if (entry.getValue() != null && entry.getValue().getUser().getUserId() == sessionUserID) {
-                    Map<Integer, List<GameCard>> personalizedHoleCards = new HashMap<>(hiddenHoleCards);
-                    personalizedHoleCards.put(entry.getKey(), entry.getValue().getHoleCards());
-                    service.sendWebsocketEvent(new WebsocketEvent(
-                            playerSession.getId(),
-                            "GAME",
-                            new JsonObject()
-                                    .put("action", "HOLE_CARDS")
-                                    .put("holeCards", personalizedHoleCards)
-                    ));
-                }
+        }
+    }
+
+    public void recordSettlement(Map<Integer, Integer> payouts) {
+        if (currentGameSession == null) {
+            throw new IllegalStateException("No game in progress");
+        }
+        recordHandEvent(HandEventType.SETTLEMENT, HandRecordCodec.settlement(currentGameSession.getPot(), payouts,
+                seats.values()));
+    }
+
+    private void recordHandEvent(HandEventType type, Buffer payload) {
+        sink.recordHandEvent(tableId, currentGameSession.getSessionId(), type, payload);
+    }
+
+    // Logged under the current or last hand, so restoring the table after a crash sees seats change between hands.
+    private void recordSeatEvent(HandEventType type, GamePlayer gamePlayer) {
+        sink.recordHandEvent(tableId, lastHandId, type, HandRecordCodec.seat(gamePlayer));
+    }
+
+    private Map<Integer, List<GameCard>> hiddenHoleCards() {
+        Map<Integer, List<GameCard>> hiddenHoleCards = new HashMap<>();
+        List<GameCard> hiddenCards = List.of(new GameCard(true), new GameCard(true));
+        for (Map.Entry<Integer, GamePlayer> entry : seats.entrySet()) {
+            if (entry.getValue() != null) {
+                hiddenHoleCards.put(entry.getKey(), hiddenCards);
             }
         }
+        return hiddenHoleCards;
     }
 
-    private void sendTableUpdateToParticipants(String action) {
-        for (WebsocketSession playerSession : involvedSessions.values()) {
-            service.sendWebsocketEvent(new WebsocketEvent(
-                    playerSession.getId(),
-                    "TABLE",
-                    new JsonObject()
-                            .put("action", action)
-                            .put("tableId", tableId)
-                            .put("table", this)
-            ));
+    private void sendHoleCards(WebsocketSession session, GamePlayer gamePlayer, Map<Integer, List<GameCard>> hiddenHoleCards) {
+        Map<Integer, List<GameCard>> personalizedHoleCards = new HashMap<>(hiddenHoleCards);
+        personalizedHoleCards.put(gamePlayer.getSeatId(), gamePlayer.getHoleCards());
+        sink.sendWebsocketEvent(new WebsocketEvent(
+                session.getId(),
+                "GAME",
+                new JsonObject()
+                        .put("action", "HOLE_CARDS")
+                        .put("tableId", tableId)
+                        .put("seq", stateVersion)
+                        .put("holeCards", personalizedHoleCards)
+        ));
+    }
+
+    private void sendSeatUpdateToParticipants(int seatNumber) {
+        GamePlayer gamePlayer = seats.get(seatNumber);
+        broadcast(tableEvent("TABLE", new JsonObject()
+                .put("action", "SEAT_UPDATE")
+                .put("seatIndex", seatNumber)
+                .put("player", gamePlayer == null ? null : seatJson(gamePlayer)), true));
+    }
+
+    /*
+     * Every table-wide event is stamped with the table id and state version. Deltas advance the version and
+     * must be applied in order; replaceable state events (GAME_STATE_UPDATE, TURN_UPDATE, PLAYER_STACKS)
+     * carry the version they reflect without advancing it, so the outbound queue may still coalesce them. They also
+     * carry the hand id, so only updates of the same hand replace each other and a hand's FINISHED state survives.
+     * A client that sees a delta skip a version requests a snapshot with the SYNC table action.
+     */
+    // Players get table events right away; spectators get the same events from their channel at a capped rate.
+    private void broadcast(WebsocketEvent event) {
+        sink.broadcastWebsocketEvent(involvedSessions.values(), event);
+        spectatorChannel.publish(event);
+    }
+
+    private WebsocketEvent tableEvent(String type, JsonObject data, boolean delta) {
+        if (delta) {
+            stateVersion++;
         }
+        WebsocketEvent event = new WebsocketEvent(null, type, data.put("tableId", tableId).put("seq", stateVersion));
+        if (recentEvents.size() >= replayCapacity) {
+            recentEvents.poll();
+        }
+        recentEvents.add(new RecordedEvent(event, stateVersion, delta));
+        return event;
+    }
+
+    public JsonObject snapshot(Integer viewerUserId) {
+        JsonObject seatsJson = new JsonObject();
+        for (Map.Entry<Integer, GamePlayer> entry : seats.entrySet()) {
+            if (entry.getValue() != null) {
+                seatsJson.put(String.valueOf(entry.getKey()), seatJson(entry.getValue()));
+            }
+        }
+        JsonObject snapshot = new JsonObject()
+                .put("tableId", tableId)
+                .put("seq", stateVersion)
+                .put("tableName", tableName)
+                .put("maxPlayers", maxPlayers)
+                .put("smallBlind", smallBlind)
+                .put("bigBlind", bigBlind)
+                .put("dealer", currentDealer)
+                .put("seats", seatsJson);
+        if (currentGameSession != null) {
+            GamePlayer currentPlayer = currentGameSession.getCurrentPlayer();
+            JsonObject hand = new JsonObject()
+                    .put("state", currentGameSession.getState())
+                    .put("currentPot", currentGameSession.getPot())
+                    .put("playerBets", currentGameSession.getPlayerBets())
+                    .put("communityCards", currentGameSession.getCommunityCards())
+                    .put("currentPlayerSeat", currentPlayer == null ? null : currentPlayer.getSeatId());
+            Integer viewerSeat = viewerUserId == null ? null : seatByUser.get(viewerUserId);
+            if (viewerSeat != null) {
+                hand.put("holeCards", seats.get(viewerSeat).getHoleCards());
+            }
+            snapshot.put("hand", hand);
+        }
+        return snapshot;
+    }
+
+    private JsonObject seatJson(GamePlayer gamePlayer) {
+        return new JsonObject()
+                .put("userId", gamePlayer.getUser().getUserId())
+                .put("username", gamePlayer.getUser().getUsername())
+                .put("stack", gamePlayer.getStack())
+                .put("inHand", gamePlayer.isInHand());
     }
 
     /*
@@ -365,10 +677,44 @@ public class GameTable {
         return waitingList;
     }
 
+    @JsonIgnore
+    public GameSession getCurrentGameSession() {
+        return currentGameSession;
+    }
+
+    public Random getRandom() {
+        return random;
+    }
+
+    public void setRandom(Random random) {
+        this.random = random;
+    }
+
+    @JsonIgnore
+    public long getStateVersion() {
+        return stateVersion;
+    }
+
+    public void setReplayCapacity(int replayCapacity) {
+        this.replayCapacity = replayCapacity;
+    }
+
+    public SpectatorChannel getSpectatorChannel() {
+        return spectatorChannel;
+    }
+
+    public void setSpectatorHoleCardDelay(Duration spectatorHoleCardDelay) {
+        this.spectatorHoleCardDelay = spectatorHoleCardDelay;
+    }
+
     public enum TableAction {
         JOIN_TABLE,
         TAKE_SEAT,
         LEAVE_SEAT,
+        SYNC,
+    }
+
+    private record RecordedEvent(WebsocketEvent event, long seq, boolean delta) {
     }
 
 }
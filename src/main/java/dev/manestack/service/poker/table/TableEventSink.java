@@ -0,0 +1,27 @@
+package dev.manestack.service.poker.table;
+
+import dev.manestack.service.history.HandEventType;
+import dev.manestack.service.socket.WebsocketEvent;
+import dev.manestack.service.socket.WebsocketSession;
+
+import io.vertx.core.buffer.Buffer;
+
+import java.util.Collection;
+
+/*
+ * Everything a GameTable produces for its participants goes through this sink. The live server
+ * forwards events to websocket connections, the simulator consumes them headlessly.
+ */
+public interface TableEventSink {
+    void sendWebsocketEvent(WebsocketEvent event);
+
+    // The event carries no connection id and is encoded once for all sessions, so it must not be personalized.
+    void broadcastWebsocketEvent(Collection<WebsocketSession> sessions, WebsocketEvent event);
+
+    void seatsChanged(GameTable table);
+
+    void handFinished(GameTable table, int pot);
+
+    // Called on the gameplay thread for every step of a hand; the payload is already encoded and must not block.
+    void recordHandEvent(long tableId, long handId, HandEventType type, Buffer payload);
+}
@@ -0,0 +1,55 @@
+package dev.manestack.service.poker.tournament;
+
+public class BlindLevel {
+    private Integer smallBlind;
+    private Integer bigBlind;
+    private Integer durationMinutes;
+
+    public BlindLevel() {
+    }
+
+    public BlindLevel(Integer smallBlind, Integer bigBlind, Integer durationMinutes) {
+        this.smallBlind = smallBlind;
+        this.bigBlind = bigBlind;
+        this.durationMinutes = durationMinutes;
+    }
+
+    public void validate() {
+        if (smallBlind == null || smallBlind <= 0) {
+            throw new IllegalArgumentException("Small blind must be greater than 0");
+        }
+        if (bigBlind == null || bigBlind < smallBlind) {
+            throw new IllegalArgumentException("Big blind must be at least the small blind");
+        }
+        if (durationMinutes == null || durationMinutes <= 0) {
+            throw new IllegalArgumentException("Level duration must be greater than 0");
+        }
+    }
+
+    /*
+     * Getters and Setters
+     */
+    public Integer getSmallBlind() {
+        return smallBlind;
+    }
+
+    public void setSmallBlind(Integer smallBlind) {
+        this.smallBlind = smallBlind;
+    }
+
+    public Integer getBigBlind() {
+        return bigBlind;
+    }
+
+    public void setBigBlind(Integer bigBlind) {
+        this.bigBlind = bigBlind;
+    }
+
+    public Integer getDurationMinutes() {
+        return durationMinutes;
+    }
+
+    public void setDurationMinutes(Integer durationMinutes) {
+        this.durationMinutes = durationMinutes;
+    }
+}
@@ -0,0 +1,576 @@
+package dev.manestack.service.poker.tournament;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import dev.manestack.service.poker.table.GamePlayer;
+import dev.manestack.service.poker.table.GameTable;
+import dev.manestack.service.poker.table.TableEventSink;
+import dev.manestack.service.socket.WebsocketEvent;
+import dev.manestack.service.socket.WebsocketSession;
+import dev.manestack.service.user.User;
+import io.vertx.core.json.JsonObject;
+import org.jboss.logging.Logger;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/*
+ * Multi-table tournament. Every decision about a table (eliminations, blind level, breaking and balancing) is made by
+ * that table between two of its own hands, on the gameplay thread, so balancing is serialized with play and sees the
+ * player counts of the other tables as they are. A moved player is reserved a seat at the destination and put on its
+ * incoming queue; the destination seats them at its own next hand boundary, or right away when it is waiting for
+ * players.
+ */
+public class Tournament {
+    private static final Logger LOG = Logger.getLogger(Tournament.class);
+    private Long tournamentId;
+    private String tournamentName;
+    private Integer tableSize;
+    private Integer startingStack;
+    private List<BlindLevel> blindLevels;
+    private OffsetDateTime createdAt;
+    private Integer createdBy;
+    private volatile Status status = Status.REGISTERING;
+    @JsonIgnore
+    private final Map<Integer, Entrant> entrants = new ConcurrentHashMap<>();
+    @JsonIgnore
+    private final Map<Long, TournamentTable> tables = new ConcurrentHashMap<>();
+    @JsonIgnore
+    // Read by the REST handlers, written on the gameplay thread only.
+    private volatile int remaining = 0;
+    private volatile int currentLevel = 0;
+    @JsonIgnore
+    private long startedAt;
+    @JsonIgnore
+    private Random random = new Random();
+    @JsonIgnore
+    private TableEventSink sink;
+    @JsonIgnore
+    private LongSupplier tableIds;
+    @JsonIgnore
+    private Map<Long, GameTable> tableRegistry;
+    @JsonIgnore
+    private HandScheduler handScheduler;
+
+    public void validateCreate() {
+        if (tournamentName == null || tournamentName.isEmpty()) {
+            throw new IllegalArgumentException("Tournament name cannot be null or empty");
+        }
+        if (tableSize == null || tableSize < 2) {
+            throw new IllegalArgumentException("Table size must be at least 2");
+        }
+        if (startingStack == null || startingStack <= 0) {
+            throw new IllegalArgumentException("Starting stack must be greater than 0");
+        }
+        if (blindLevels == null || blindLevels.isEmpty()) {
+            throw new IllegalArgumentException("At least one blind level is required");
+        }
+        for (BlindLevel blindLevel : blindLevels) {
+            blindLevel.validate();
+        }
+    }
+
+    public void connect(TableEventSink sink, LongSupplier tableIds, Map<Long, GameTable> tableRegistry,
+                        HandScheduler handScheduler) {
+        this.sink = sink;
+        this.tableIds = tableIds;
+        this.tableRegistry = tableRegistry;
+        this.handScheduler = handScheduler;
+    }
+
+    /*
+     * Registration
+     */
+    public void register(User user, WebsocketSession session) {
+        Entrant entrant = entrants.get(user.getUserId());
+        if (status == Status.REGISTERING) {
+            if (entrant == null) {
+                entrants.put(user.getUserId(), new Entrant(user, session));
+                LOG.infov("User {0} registered for tournament {1}", user.getUserId(), tournamentName);
+            } else {
+                entrant.session = session;
+            }
+            sendTournamentEvent(entrants.get(user.getUserId()), new JsonObject().put("action", "REGISTERED"));
+            return;
+        }
+        if (status == Status.RUNNING && entrant != null && entrant.position == null) {
+            // Back after a disconnect: take over the seat and stop playing on autopilot.
+            entrant.session = session;
+            entrant.connected = true;
+            TournamentTable table = entrant.table;
+            if (table != null) {
+                table.joinAsSpectator(user, session);
+                sendSeatedEvent(entrant, table);
+            }
+            return;
+        }
+        throw new IllegalStateException("Registration is closed");
+    }
+
+    public void unregister(User user) {
+        if (status != Status.REGISTERING) {
+            throw new IllegalStateException("Tournament has already started");
+        }
+        if (entrants.remove(user.getUserId()) == null) {
+            throw new IllegalStateException("Not registered");
+        }
+    }
+
+    // A disconnected entrant keeps their seat; the table checks or folds for them until they come back.
+    public void disconnected(WebsocketSession session) {
+        Entrant entrant = entrants.get(session.getUser().getUserId());
+        if (entrant == null || entrant.session != session || status != Status.RUNNING) {
+            return;
+        }
+        entrant.connected = false;
+        if (entrant.table != null) {
+            entrant.table.holdSeat(entrant.user, session);
+        }
+    }
+
+    /*
+     * Play
+     */
+    public void start() {
+        if (status != Status.REGISTERING) {
+            throw new IllegalStateException("Tournament has already started");
+        }
+        if (entrants.size() < 2) {
+            throw new IllegalStateException("Not enough entrants to start");
+        }
+        status = Status.RUNNING;
+        startedAt = System.nanoTime();
+        remaining = entrants.size();
+        List<Entrant> seating = new ArrayList<>(entrants.values());
+        Collections.shuffle(seating, random);
+        int tableCount = Math.ceilDiv(seating.size(), tableSize);
+        List<List<Entrant>> seatings = new ArrayList<>(tableCount);
+        for (int i = 0; i < tableCount; i++) {
+            seatings.add(new ArrayList<>());
+        }
+        for (int i = 0; i < seating.size(); i++) {
+            seatings.get(i % tableCount).add(seating.get(i));
+        }
+        LOG.infov("Starting tournament {0} with {1} entrants on {2} tables", tournamentName, seating.size(), tableCount);
+        List<TournamentTable> started = new ArrayList<>(tableCount);
+        for (List<Entrant> tableEntrants : seatings) {
+            TournamentTable table = createTable();
+            List<GamePlayer> gamePlayers = new ArrayList<>(tableEntrants.size());
+            List<WebsocketSession> sessions = new ArrayList<>(tableEntrants.size());
+            for (Entrant entrant : tableEntrants) {
+                entrant.stack = startingStack;
+                entrant.table = table;
+                gamePlayers.add(new GamePlayer(entrant.user, startingStack));
+                sessions.add(entrant.session);
+            }
+            table.seatHand(gamePlayers, sessions);
+            table.setPlayerCount(tableEntrants.size());
+            for (Entrant entrant : tableEntrants) {
+                if (!entrant.connected) {
+                    table.holdSeat(entrant.user, entrant.session);
+                }
+                sendSeatedEvent(entrant, table);
+            }
+            started.add(table);
+        }
+        for (TournamentTable table : started) {
+            dealNextHand(table);
+        }
+    }
+
+    void handFinished(TournamentTable table) {
+        table.setBetweenHands(true);
+        try {
+            eliminateBusted(table);
+            if (status != Status.RUNNING) {
+                return;
+            }
+            applyBlindLevel(table);
+            absorbIncoming(table);
+            rebalance(table);
+        } finally {
+            table.setBetweenHands(false);
+        }
+        if (!table.isBroken() && status == Status.RUNNING) {
+            handScheduler.scheduleNextHand(this, table);
+        }
+    }
+
+    // Called through the hand scheduler, so a table never deals its next hand from inside the previous one.
+    public void dealNextHand(long tableId) {
+        TournamentTable table = tables.get(tableId);
+        if (table != null) {
+            dealNextHand(table);
+        }
+    }
+
+    private void dealNextHand(TournamentTable table) {
+        if (table.isBroken() || table.isRunningHand() || status != Status.RUNNING) {
+            return;
+        }
+        absorbIncoming(table);
+        if (table.getSeats().size() >= 2) {
+            table.startGame();
+        } else if (seatsElsewhere(table) >= table.getPlayerCount()) {
+            breakTable(table);
+        }
+    }
+
+    // Players busted in the same hand place by the stack they started it with, the smaller stack finishing lower.
+    private void eliminateBusted(TournamentTable table) {
+        List<GamePlayer> busted = new ArrayList<>();
+        for (GamePlayer gamePlayer : table.getSeats().values()) {
+            if (gamePlayer.getStack() == 0) {
+                busted.add(gamePlayer);
+            }
+        }
+        busted.sort(Comparator.comparingInt(gamePlayer -> {
+            Integer startStack = table.getHandStartStack(gamePlayer.getSeatId());
+            return startStack == null ? 0 : startStack;
+        }));
+        for (GamePlayer gamePlayer : busted) {
+            Entrant entrant = entrants.get(gamePlayer.getUser().getUserId());
+            table.leaveTable(entrant.user, entrant.session);
+            table.playerLeft();
+            entrant.table = null;
+            entrant.position = remaining--;
+            LOG.infov("User {0} finished tournament {1} in place {2}", entrant.user.getUserId(), tournamentName, entrant.position);
+            sendTournamentEvent(entrant, new JsonObject().put("action", "ELIMINATED").put("position", entrant.position));
+        }
+        if (remaining == 1 && status == Status.RUNNING) {
+            finish();
+        }
+    }
+
+    private void finish() {
+        status = Status.FINISHED;
+        Entrant winner = null;
+        for (Entrant entrant : entrants.values()) {
+            if (entrant.position == null) {
+                entrant.position = 1;
+                winner = entrant;
+            }
+        }
+        LOG.infov("Tournament {0} won by {1}", tournamentName, winner == null ? null : winner.user.getUserId());
+        for (Entrant entrant : entrants.values()) {
+            sendTournamentEvent(entrant, new JsonObject()
+                    .put("action", "FINISHED")
+                    .put("position", entrant.position)
+                    .put("winnerUserId", winner == null ? null : winner.user.getUserId()));
+        }
+        for (Long tableId : tables.keySet()) {
+            tableRegistry.remove(tableId);
+        }
+        tables.clear();
+    }
+
+    // New blinds take effect from the next hand of each table; entrants are told once per level.
+    private void applyBlindLevel(TournamentTable table) {
+        int level = levelIndex();
+        BlindLevel blindLevel = blindLevels.get(level);
+        table.setSmallBlind(blindLevel.getSmallBlind());
+        table.setBigBlind(blindLevel.getBigBlind());
+        if (level > currentLevel) {
+            currentLevel = level;
+            LOG.infov("Tournament {0} moves to level {1}: {2}/{3}", tournamentName, level + 1,
+                    blindLevel.getSmallBlind(), blindLevel.getBigBlind());
+            JsonObject data = new JsonObject()
+                    .put("action", "LEVEL")
+                    .put("level", level + 1)
+                    .put("smallBlind", blindLevel.getSmallBlind())
+                    .put("bigBlind", blindLevel.getBigBlind());
+            for (Entrant entrant : entrants.values()) {
+                if (entrant.position == null) {
+                    sendTournamentEvent(entrant, data.copy());
+                }
+            }
+        }
+    }
+
+    private int levelIndex() {
+        long elapsedMinutes = (System.nanoTime() - startedAt) / 60_000_000_000L;
+        long levelEnd = 0;
+        for (int i = 0; i < blindLevels.size(); i++) {
+            levelEnd += blindLevels.get(i).getDurationMinutes();
+            if (elapsedMinutes < levelEnd) {
+                return i;
+            }
+        }
+        return blindLevels.size() - 1;
+    }
+
+    /*
+     * Balancing
+     */
+    private void rebalance(TournamentTable table) {
+        int neededTables = Math.ceilDiv(remaining, tableSize);
+        if (tables.size() > neededTables && breaksFirst(table)) {
+            breakTable(table);
+            return;
+        }
+        while (true) {
+            TournamentTable smallest = smallestOther(table);
+            if (smallest == null || table.getPlayerCount() - smallest.getPlayerCount() < 2
+                    || !smallest.reserveSeat(tableSize)) {
+                return;
+            }
+            GamePlayer gamePlayer = table.getSeats().values().stream()
+                    .max(Comparator.comparing(GamePlayer::getSeatId))
+                    .orElseThrow();
+            moveOut(table, gamePlayer, smallest);
+        }
+    }
+
+    // The table with the fewest players breaks first, the newest one on a tie.
+    private boolean breaksFirst(TournamentTable table) {
+        int count = table.getPlayerCount();
+        for (TournamentTable other : tables.values()) {
+            if (other == table || other.isBroken()) {
+                continue;
+            }
+            int otherCount = other.getPlayerCount();
+            if (otherCount < count || otherCount == count && other.getTableId() > table.getTableId()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void breakTable(TournamentTable table) {
+        LOG.infov("Breaking table {0} of tournament {1}", table.getTableId(), tournamentName);
+        table.setBroken(true);
+        tables.remove(table.getTableId());
+        tableRegistry.remove(table.getTableId());
+        for (GamePlayer gamePlayer : new ArrayList<>(table.getSeats().values())) {
+            moveOut(table, gamePlayer, reserveSeatElsewhere(table));
+        }
+        Entrant entrant;
+        while ((entrant = table.getIncoming().poll()) != null) {
+            deliver(reserveSeatElsewhere(table), entrant);
+        }
+    }
+
+    private void moveOut(TournamentTable source, GamePlayer gamePlayer, TournamentTable destination) {
+        Entrant entrant = entrants.get(gamePlayer.getUser().getUserId());
+        source.leaveTable(entrant.user, entrant.session);
+        source.playerLeft();
+        entrant.stack = gamePlayer.getStack();
+        entrant.table = null;
+        deliver(destination, entrant);
+    }
+
+    // A table in the middle of a hand picks the player up at its next boundary; a waiting one does it right away.
+    private void deliver(TournamentTable destination, Entrant entrant) {
+        destination.getIncoming().offer(entrant);
+        if (!destination.isRunningHand() && !destination.isBetweenHands()) {
+            dealNextHand(destination);
+        }
+    }
+
+    private void absorbIncoming(TournamentTable table) {
+        boolean betweenHands = table.isBetweenHands();
+        table.setBetweenHands(true);
+        try {
+            Entrant entrant;
+            while ((entrant = table.getIncoming().poll()) != null) {
+                int seatNumber = table.firstOpenSeat();
+                table.takeSeat(seatNumber, new GamePlayer(entrant.user, entrant.stack), entrant.session);
+                entrant.table = table;
+                if (!entrant.connected) {
+                    table.holdSeat(entrant.user, entrant.session);
+                }
+                sendSeatedEvent(entrant, table);
+            }
+        } finally {
+            table.setBetweenHands(betweenHands);
+        }
+    }
+
+    private TournamentTable smallestOther(TournamentTable table) {
+        TournamentTable smallest = null;
+        for (TournamentTable other : tables.values()) {
+            if (other == table || other.isBroken() || other.getPlayerCount() >= tableSize) {
+                continue;
+            }
+            if (smallest == null || other.getPlayerCount() < smallest.getPlayerCount()) {
+                smallest = other;
+            }
+        }
+        return smallest;
+    }
+
+    private TournamentTable reserveSeatElsewhere(TournamentTable table) {
+        while (true) {
+            TournamentTable smallest = smallestOther(table);
+            if (smallest == null) {
+                throw new IllegalStateException("No seat left for a moved player");
+            }
+            if (smallest.reserveSeat(tableSize)) {
+                return smallest;
+            }
+        }
+    }
+
+    private int seatsElsewhere(TournamentTable table) {
+        int seats = 0;
+        for (TournamentTable other : tables.values()) {
+            if (other != table && !other.isBroken()) {
+                seats += Math.max(0, tableSize - other.getPlayerCount());
+            }
+        }
+        return seats;
+    }
+
+    private TournamentTable createTable() {
+        TournamentTable table = new TournamentTable(this);
+        table.setTableId(tableIds.getAsLong());
+        table.setTableName(tournamentName + " #" + (tables.size() + 1));
+        table.setMaxPlayers(tableSize);
+        table.setSmallBlind(blindLevels.getFirst().getSmallBlind());
+        table.setBigBlind(blindLevels.getFirst().getBigBlind());
+        table.setRandom(random);
+        table.connectToServer(sink);
+        tables.put(table.getTableId(), table);
+        tableRegistry.put(table.getTableId(), table);
+        return table;
+    }
+
+    private void sendSeatedEvent(Entrant entrant, TournamentTable table) {
+        sendTournamentEvent(entrant, new JsonObject()
+                .put("action", "SEATED")
+                .put("tableId", table.getTableId())
+                .put("snapshot", table.snapshot(entrant.user.getUserId())));
+    }
+
+    private void sendTournamentEvent(Entrant entrant, JsonObject data) {
+        if (!entrant.connected) {
+            return;
+        }
+        sink.sendWebsocketEvent(new WebsocketEvent(
+                entrant.session.getId(),
+                "TOURNAMENT",
+                data.put("tournamentId", tournamentId)
+        ));
+    }
+
+    /*
+     * Getters and Setters
+     */
+    public Long getTournamentId() {
+        return tournamentId;
+    }
+
+    public void setTournamentId(Long tournamentId) {
+        this.tournamentId = tournamentId;
+    }
+
+    public String getTournamentName() {
+        return tournamentName;
+    }
+
+    public void setTournamentName(String tournamentName) {
+        this.tournamentName = tournamentName;
+    }
+
+    public Integer getTableSize() {
+        return tableSize;
+    }
+
+    public void setTableSize(Integer tableSize) {
+        this.tableSize = tableSize;
+    }
+
+    public Integer getStartingStack() {
+        return startingStack;
+    }
+
+    public void setStartingStack(Integer startingStack) {
+        this.startingStack = startingStack;
+    }
+
+    public List<BlindLevel> getBlindLevels() {
+        return blindLevels;
+    }
+
+    public void setBlindLevels(List<BlindLevel> blindLevels) {
+        this.blindLevels = blindLevels;
+    }
+
+    public OffsetDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(OffsetDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public Integer getCreatedBy() {
+        return createdBy;
+    }
+
+    public void setCreatedBy(Integer createdBy) {
+        this.createdBy = createdBy;
+    }
+
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    public Status getStatus() {
+        return status;
+    }
+
+    public int getEntrantCount() {
+        return entrants.size();
+    }
+
+    public int getRemainingCount() {
+        return status == Status.REGISTERING ? entrants.size() : remaining;
+    }
+
+    public int getTableCount() {
+        return tables.size();
+    }
+
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    public int getCurrentLevel() {
+        return currentLevel + 1;
+    }
+
+    public void setRandom(Random random) {
+        this.random = random;
+    }
+
+    public enum Status {
+        REGISTERING,
+        RUNNING,
+        FINISHED,
+    }
+
+    public enum TournamentAction {
+        REGISTER,
+        UNREGISTER,
+    }
+
+    public interface HandScheduler {
+        void scheduleNextHand(Tournament tournament, TournamentTable table);
+    }
+
+    static class Entrant {
+        private final User user;
+        private WebsocketSession session;
+        private boolean connected = true;
+        private int stack;
+        private TournamentTable table;
+        private Integer position;
+
+        private Entrant(User user, WebsocketSession session) {
+            this.user = user;
+            this.session = session;
+        }
+    }
+}
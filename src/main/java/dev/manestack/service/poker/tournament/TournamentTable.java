@@ -0,0 +1,81 @@
+package dev.manestack.service.poker.tournament;
+
+import dev.manestack.service.poker.table.GameTable;
+
+import java.util.ArrayDeque;
+
+/*
+ * A table owned by a tournament. Between hands it hands control to the tournament, which eliminates busted players,
+ * raises the blinds and moves players in or out before the next hand is dealt.
+ */
+public class TournamentTable extends GameTable {
+    private final Tournament tournament;
+    // Seated players plus players already on their way here, so balancing decisions see reserved seats.
+    private int playerCount = 0;
+    private final ArrayDeque<Tournament.Entrant> incoming = new ArrayDeque<>();
+    private boolean broken = false;
+    // Set while the tournament works on the table between hands; takeSeat must not deal a hand in the meantime.
+    private boolean betweenHands = false;
+
+    public TournamentTable(Tournament tournament) {
+        this.tournament = tournament;
+    }
+
+    @Override
+    public void startGame() {
+        if (!betweenHands) {
+            super.startGame();
+        }
+    }
+
+    @Override
+    public void startNextGame() {
+        finishHand();
+        tournament.handFinished(this);
+    }
+
+    // Reserves a seat for a moving player, failing when the table is full or being broken.
+    boolean reserveSeat(int tableSize) {
+        if (broken || playerCount >= tableSize) {
+            return false;
+        }
+        playerCount++;
+        return true;
+    }
+
+    boolean isRunningHand() {
+        return getCurrentGameSession() != null;
+    }
+
+    int getPlayerCount() {
+        return playerCount;
+    }
+
+    void setPlayerCount(int playerCount) {
+        this.playerCount = playerCount;
+    }
+
+    void playerLeft() {
+        playerCount--;
+    }
+
+    ArrayDeque<Tournament.Entrant> getIncoming() {
+        return incoming;
+    }
+
+    boolean isBroken() {
+        return broken;
+    }
+
+    void setBroken(boolean broken) {
+        this.broken = broken;
+    }
+
+    boolean isBetweenHands() {
+        return betweenHands;
+    }
+
+    void setBetweenHands(boolean betweenHands) {
+        this.betweenHands = betweenHands;
+    }
+}
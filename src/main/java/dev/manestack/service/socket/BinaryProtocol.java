@@ -0,0 +1,304 @@
+package dev.manestack.service.socket;
+
+import dev.manestack.service.lobby.LobbyIndex;
+import dev.manestack.service.poker.card.GameCard;
+import dev.manestack.service.poker.pool.FastFoldPool;
+import dev.manestack.service.poker.table.GameSession;
+import dev.manestack.service.poker.table.GameTable;
+import dev.manestack.service.poker.tournament.Tournament;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Compact binary encoding of table traffic, negotiated with the poker.binary.v1 websocket subprotocol.
+ *
+ * Every frame starts with a one byte opcode. Integers (chips, seats, ids) are unsigned LEB128 varints, cards are one
+ * byte (suit ordinal * 13 + rank ordinal, 0xFF for a hidden card) and enums are their ordinal as one byte. A map is a
+ * varint count followed by its key/value pairs, a card list is a varint count followed by the cards. Table frames
+ * carry the table id and the table state version (seq) right after the opcode.
+ *
+ * Inbound:
+ *   AUTH    0x02 token(varint length + UTF-8)
+ *   RESUME  0x03 resumeToken(varint length + UTF-8) {tableId:lastSeq}
+ *   TABLE   0x10 action(TableAction) tableId seatIndex [buyIn(0 for the table default)]
+ *   PLAY_NOW 0x11 variant(varint length + UTF-8, empty for any) smallBlind bigBlind buyIn(0 for any)
+ *   POOL    0x12 action(PoolAction) variant(varint length + UTF-8) smallBlind bigBlind buyIn
+ *   TOURNAMENT 0x13 action(TournamentAction) tournamentId
+ *   LOBBY   0x18 action(LobbyAction)
+ *   GAME    0x20 action(ActionType) tableId amount
+ * Outbound:
+ *   CONNECTED          0x01
+ *   GAME_STATE_UPDATE  0x21 tableId seq state(State) pot bets{seat:bet} communityCards[]
+ *   TURN_UPDATE        0x22 tableId seq seat
+ *   PLAYER_ACTION      0x23 tableId seq seat action(ActionType) amount bets{seat:bet} pot
+ *   PLAYER_STACKS      0x24 tableId seq stacks{seat:stack}
+ *   HOLE_CARDS         0x25 tableId seq {seat:cards[]}
+ *   SEAT_UPDATE        0x26 tableId seq seat occupied(0|1) [userId stack inHand(0|1) username]
+ *   BATCH              0x40 count (length frame)*
+ *   JSON               0x7F length UTF-8 JSON event, for everything without a dedicated opcode
+ */
+public class BinaryProtocol {
+    public static final String SUBPROTOCOL = "poker.binary.v1";
+    private static final byte CONNECTED = 0x01;
+    private static final byte AUTH = 0x02;
+    private static final byte RESUME = 0x03;
+    private static final byte TABLE = 0x10;
+    private static final byte PLAY_NOW = 0x11;
+    private static final byte POOL = 0x12;
+    private static final byte TOURNAMENT = 0x13;
+    private static final byte LOBBY = 0x18;
+    private static final byte GAME = 0x20;
+    private static final byte GAME_STATE_UPDATE = 0x21;
+    private static final byte TURN_UPDATE = 0x22;
+    private static final byte PLAYER_ACTION = 0x23;
+    private static final byte PLAYER_STACKS = 0x24;
+    private static final byte HOLE_CARDS = 0x25;
+    private static final byte SEAT_UPDATE = 0x26;
+    private static final byte BATCH = 0x40;
+    private static final byte JSON = 0x7F;
+    private static final byte HIDDEN_CARD = (byte) 0xFF;
+    private static final GameTable.TableAction[] TABLE_ACTIONS = GameTable.TableAction.values();
+    private static final FastFoldPool.PoolAction[] POOL_ACTIONS = FastFoldPool.PoolAction.values();
+    private static final Tournament.TournamentAction[] TOURNAMENT_ACTIONS = Tournament.TournamentAction.values();
+    private static final LobbyIndex.LobbyAction[] LOBBY_ACTIONS = LobbyIndex.LobbyAction.values();
+    private static final GameSession.ActionType[] ACTION_TYPES = GameSession.ActionType.values();
+
+    public static Buffer encode(WebsocketEvent event) {
+        Map<String, Object> data = event.getData().getMap();
+        String action = "GAME".equals(event.getType()) || "TABLE".equals(event.getType())
+                ? (String) data.get("action")
+                : null;
+        if ("CONNECTED".equals(event.getType())) {
+            return Buffer.buffer(1).appendByte(CONNECTED);
+        } else if (action == null) {
+            return encodeJson(event);
+        }
+        Buffer buffer = Buffer.buffer(64);
+        switch (action) {
+            case "GAME_STATE_UPDATE" -> {
+                buffer.appendByte(GAME_STATE_UPDATE);
+                writeTableHeader(buffer, data);
+                buffer.appendByte((byte) ((GameSession.State) data.get("state")).ordinal());
+                writeVarint(buffer, (Integer) data.get("currentPot"));
+                writeIntMap(buffer, data.get("playerBets"));
+                writeCards(buffer, data.get("communityCards"));
+            }
+            case "TURN_UPDATE" -> {
+                buffer.appendByte(TURN_UPDATE);
+                writeTableHeader(buffer, data);
+                writeVarint(buffer, (Integer) data.get("currentPlayerSeat"));
+            }
+            case "PLAYER_ACTION" -> {
+                buffer.appendByte(PLAYER_ACTION);
+                writeTableHeader(buffer, data);
+                writeVarint(buffer, (Integer) data.get("seatId"));
+                buffer.appendByte((byte) GameSession.ActionType.valueOf((String) data.get("actionType")).ordinal());
+                writeVarint(buffer, (Integer) data.get("amount"));
+                writeIntMap(buffer, data.get("currentBets"));
+                writeVarint(buffer, (Integer) data.get("currentPot"));
+            }
+            case "PLAYER_STACKS" -> {
+                buffer.appendByte(PLAYER_STACKS);
+                writeTableHeader(buffer, data);
+                writeIntMap(buffer, data.get("stacks"));
+            }
+            case "HOLE_CARDS" -> {
+                buffer.appendByte(HOLE_CARDS);
+                writeTableHeader(buffer, data);
+                Map<?, ?> holeCards = (Map<?, ?>) data.get("holeCards");
+                writeVarint(buffer, holeCards.size());
+                for (Map.Entry<?, ?> entry : holeCards.entrySet()) {
+                    writeVarint(buffer, (Integer) entry.getKey());
+                    writeCards(buffer, entry.getValue());
+                }
+            }
+            case "SEAT_UPDATE" -> {
+                buffer.appendByte(SEAT_UPDATE);
+                writeTableHeader(buffer, data);
+                writeVarint(buffer, (Integer) data.get("seatIndex"));
+                JsonObject player = (JsonObject) data.get("player");
+                if (player == null) {
+                    buffer.appendByte((byte) 0);
+                } else {
+                    buffer.appendByte((byte) 1);
+                    writeVarint(buffer, player.getInteger("userId"));
+                    writeVarint(buffer, player.getInteger("stack"));
+                    buffer.appendByte((byte) (player.getBoolean("inHand") ? 1 : 0));
+                    byte[] username = player.getString("username").getBytes(StandardCharsets.UTF_8);
+                    writeVarint(buffer, username.length);
+                    buffer.appendBytes(username);
+                }
+            }
+            default -> {
+                return encodeJson(event);
+            }
+        }
+        return buffer;
+    }
+
+    public static Buffer batch(List<WebsocketFrame> frames) {
+        int length = 6;
+        for (WebsocketFrame frame : frames) {
+            length += frame.getBinaryPayload().length() + 5;
+        }
+        Buffer buffer = Buffer.buffer(length).appendByte(BATCH);
+        writeVarint(buffer, frames.size());
+        for (WebsocketFrame frame : frames) {
+            writeVarint(buffer, frame.getBinaryPayload().length());
+            buffer.appendBuffer(frame.getBinaryPayload());
+        }
+        return buffer;
+    }
+
+    public static InboundCommand decode(String connectionId, Buffer buffer) {
+        byte opcode = buffer.getByte(0);
+        int position = 1;
+        switch (opcode) {
+            case AUTH -> {
+                long length = readVarint(buffer, position);
+                position += consumed(length);
+                String accessToken = buffer.getString(position, position + value(length), StandardCharsets.UTF_8.name());
+                return InboundCommand.auth(connectionId, accessToken);
+            }
+            case RESUME -> {
+                long length = readVarint(buffer, position);
+                position += consumed(length);
+                String resumeToken = buffer.getString(position, position + value(length), StandardCharsets.UTF_8.name());
+                position += value(length);
+                long count = readVarint(buffer, position);
+                position += consumed(count);
+                Map<Long, Long> lastSeqs = new HashMap<>();
+                for (int i = 0; i < value(count); i++) {
+                    long tableId = readVarint(buffer, position);
+                    position += consumed(tableId);
+                    long lastSeq = readVarint(buffer, position);
+                    position += consumed(lastSeq);
+                    lastSeqs.put((long) value(tableId), (long) value(lastSeq));
+                }
+                return InboundCommand.resume(connectionId, resumeToken, lastSeqs);
+            }
+            case TABLE -> {
+                GameTable.TableAction action = TABLE_ACTIONS[buffer.getByte(position++)];
+                long tableId = readVarint(buffer, position);
+                position += consumed(tableId);
+                long seatIndex = readVarint(buffer, position);
+                position += consumed(seatIndex);
+                // Clients from before buy-ins leave it out.
+                int buyIn = position < buffer.length() ? value(readVarint(buffer, position)) : 0;
+                return InboundCommand.table(connectionId, action, (long) value(tableId), value(seatIndex), buyIn);
+            }
+            case PLAY_NOW -> {
+                long length = readVarint(buffer, position);
+                position += consumed(length);
+                String variant = buffer.getString(position, position + value(length), StandardCharsets.UTF_8.name());
+                position += value(length);
+                long smallBlind = readVarint(buffer, position);
+                position += consumed(smallBlind);
+                long bigBlind = readVarint(buffer, position);
+                position += consumed(bigBlind);
+                long buyIn = readVarint(buffer, position);
+                return InboundCommand.playNow(connectionId, variant, value(smallBlind), value(bigBlind), value(buyIn));
+            }
+            case POOL -> {
+                FastFoldPool.PoolAction action = POOL_ACTIONS[buffer.getByte(position++)];
+                long length = readVarint(buffer, position);
+                position += consumed(length);
+                String variant = buffer.getString(position, position + value(length), StandardCharsets.UTF_8.name());
+                position += value(length);
+                long smallBlind = readVarint(buffer, position);
+                position += consumed(smallBlind);
+                long bigBlind = readVarint(buffer, position);
+                position += consumed(bigBlind);
+                long buyIn = readVarint(buffer, position);
+                return InboundCommand.pool(connectionId, action, variant, value(smallBlind), value(bigBlind), value(buyIn));
+            }
+            case TOURNAMENT -> {
+                Tournament.TournamentAction action = TOURNAMENT_ACTIONS[buffer.getByte(position++)];
+                long tournamentId = readVarint(buffer, position);
+                return InboundCommand.tournament(connectionId, action, (long) value(tournamentId));
+            }
+            case LOBBY -> {
+                return new InboundCommand.LobbyCommand(connectionId, LOBBY_ACTIONS[buffer.getByte(position)]);
+            }
+            case GAME -> {
+                GameSession.ActionType action = ACTION_TYPES[buffer.getByte(position++)];
+                long tableId = readVarint(buffer, position);
+                position += consumed(tableId);
+                long amount = readVarint(buffer, position);
+                return InboundCommand.game(connectionId, action, (long) value(tableId), value(amount));
+            }
+            default -> throw new IllegalArgumentException("Unknown opcode " + opcode);
+        }
+    }
+
+    private static Buffer encodeJson(WebsocketEvent event) {
+        byte[] json = event.toJsonString().getBytes(StandardCharsets.UTF_8);
+        Buffer buffer = Buffer.buffer(json.length + 6).appendByte(JSON);
+        writeVarint(buffer, json.length);
+        return buffer.appendBytes(json);
+    }
+
+    private static void writeTableHeader(Buffer buffer, Map<String, Object> data) {
+        Object tableId = data.get("tableId");
+        Object seq = data.get("seq");
+        writeVarint(buffer, tableId == null ? 0 : ((Number) tableId).longValue());
+        writeVarint(buffer, seq == null ? 0 : ((Number) seq).longValue());
+    }
+
+    private static void writeIntMap(Buffer buffer, Object value) {
+        Map<?, ?> map = (Map<?, ?>) value;
+        writeVarint(buffer, map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            writeVarint(buffer, (Integer) entry.getKey());
+            writeVarint(buffer, (Integer) entry.getValue());
+        }
+    }
+
+    public static void writeCards(Buffer buffer, Object value) {
+        List<?> cards = (List<?>) value;
+        writeVarint(buffer, cards.size());
+        for (int i = 0; i < cards.size(); i++) {
+            GameCard card = (GameCard) cards.get(i);
+            buffer.appendByte(card.isSecret()
+                    ? HIDDEN_CARD
+                    : (byte) (card.getSuit().ordinal() * 13 + card.getRank().ordinal()));
+        }
+    }
+
+    public static void writeVarint(Buffer buffer, long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Cannot encode negative value " + value);
+        }
+        while ((value & ~0x7FL) != 0) {
+            buffer.appendByte((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.appendByte((byte) value);
+    }
+
+    // The low 32 bits hold the value and the high bits the number of bytes read, so decoding needs no cursor object.
+    public static long readVarint(Buffer buffer, int position) {
+        long value = 0;
+        int read = 0;
+        byte current;
+        do {
+            current = buffer.getByte(position + read);
+            value |= (long) (current & 0x7F) << (7 * read);
+            read++;
+        } while ((current & 0x80) != 0 && read < 5);
+        return (value & 0xFFFFFFFFL) | ((long) read << 32);
+    }
+
+    public static int value(long varint) {
+        return (int) varint;
+    }
+
+    public static int consumed(long varint) {
+        return (int) (varint >>> 32);
+    }
+}
@@ -0,0 +1,215 @@
+package dev.manestack.service.socket;
+
+import dev.manestack.service.lobby.LobbyIndex;
+import dev.manestack.service.poker.pool.FastFoldPool;
+import dev.manestack.service.poker.table.GameSession;
+import dev.manestack.service.poker.table.GameTable;
+import dev.manestack.service.poker.tournament.Tournament;
+import io.vertx.core.json.JsonObject;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/*
+ * Typed, already validated commands that enter the gameplay queue. Client frames are turned into commands on the
+ * websocket I/O thread, so malformed input is rejected at the edge and never reaches a table.
+ *
+ * Session commands are handled for the live connection they name; Connected and Disconnected are raised for it by the
+ * server, the others are sent by the client. Server commands are raised by the server itself, cannot be sent by a
+ * client, and are handled without looking up a connection.
+ */
+public sealed interface InboundCommand {
+
+    String connectionId();
+
+    sealed interface SessionCommand extends InboundCommand {
+    }
+
+    sealed interface ServerCommand extends InboundCommand {
+    }
+
+    record Connected(String connectionId) implements SessionCommand {
+    }
+
+    record Disconnected(String connectionId) implements SessionCommand {
+    }
+
+    record ResumeExpired(String connectionId, String resumeToken) implements ServerCommand {
+    }
+
+    record StartTournament(String connectionId, long tournamentId) implements ServerCommand {
+    }
+
+    record DealNextHand(String connectionId, long tournamentId, long tableId) implements ServerCommand {
+    }
+
+    record TakeSnapshot(String connectionId) implements ServerCommand {
+    }
+
+    record ReleaseRestoredSeats(String connectionId, long tableId, List<Integer> userIds) implements ServerCommand {
+    }
+
+    // The buy-in is already taken from the balance and has to be released if the seat cannot be taken after all.
+    record BuyInReserved(String connectionId, long tableId, int seatIndex, int userId,
+                         int buyIn) implements ServerCommand {
+    }
+
+    // Completes with the lobby table taken out of play, or null when it is not live; fails while anyone is seated.
+    record CloseTable(String connectionId, long tableId, CompletableFuture<GameTable> closed) implements ServerCommand {
+    }
+
+    // The outbound queue of the connection overflowed and waits for snapshots of its tables.
+    record Resync(String connectionId) implements ServerCommand {
+    }
+
+    record Auth(String connectionId, String accessToken) implements SessionCommand {
+    }
+
+    record Resume(String connectionId, String resumeToken, Map<Long, Long> lastSeqs) implements SessionCommand {
+    }
+
+    record LobbyCommand(String connectionId, LobbyIndex.LobbyAction action) implements SessionCommand {
+    }
+
+    record TableCommand(String connectionId, GameTable.TableAction action, long tableId, int seatIndex,
+                        int buyIn) implements SessionCommand {
+    }
+
+    record PlayNow(String connectionId, String variant, int smallBlind, int bigBlind,
+                   int buyIn) implements SessionCommand {
+    }
+
+    record PoolCommand(String connectionId, FastFoldPool.PoolAction action, String variant, int smallBlind,
+                       int bigBlind, int buyIn) implements SessionCommand {
+    }
+
+    record TournamentCommand(String connectionId, Tournament.TournamentAction action,
+                             long tournamentId) implements SessionCommand {
+    }
+
+    record GameCommand(String connectionId, GameSession.ActionType action, long tableId,
+                       int amount) implements SessionCommand {
+    }
+
+    static InboundCommand fromEvent(String connectionId, WebsocketEvent event) {
+        if (event == null || event.getType() == null) {
+            throw new IllegalArgumentException("Missing event type");
+        }
+        JsonObject data = event.getData() == null ? new JsonObject() : event.getData();
+        try {
+            return switch (event.getType()) {
+                case "AUTH" -> auth(connectionId, data.getString("accessToken"));
+                case "RESUME" -> {
+                    Map<Long, Long> lastSeqs = new HashMap<>();
+                    data.getJsonObject("lastSeqs", new JsonObject())
+                            .forEach(entry -> lastSeqs.put(Long.parseLong(entry.getKey()), ((Number) entry.getValue()).longValue()));
+                    yield resume(connectionId, data.getString("resumeToken"), lastSeqs);
+                }
+                case "LOBBY" -> new LobbyCommand(connectionId, action(LobbyIndex.LobbyAction.class, data));
+                case "TABLE" -> table(connectionId, action(GameTable.TableAction.class, data),
+                        data.getLong("tableId"), data.getInteger("seatIndex", 0), data.getInteger("buyIn", 0));
+                case "PLAY_NOW" -> playNow(connectionId, data.getString("variant"),
+                        data.getInteger("smallBlind", 0), data.getInteger("bigBlind", 0), data.getInteger("buyIn", 0));
+                case "POOL" -> pool(connectionId, action(FastFoldPool.PoolAction.class, data), data.getString("variant"),
+                        data.getInteger("smallBlind", 0), data.getInteger("bigBlind", 0), data.getInteger("buyIn", 0));
+                case "TOURNAMENT" -> tournament(connectionId, action(Tournament.TournamentAction.class, data),
+                        data.getLong("tournamentId"));
+                case "GAME" -> game(connectionId, action(GameSession.ActionType.class, data),
+                        data.getLong("tableId"), data.getInteger("amount", 0));
+                default -> throw new IllegalArgumentException("Unknown event type " + event.getType());
+            };
+        } catch (ClassCastException | NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed " + event.getType() + " event");
+        }
+    }
+
+    static Auth auth(String connectionId, String accessToken) {
+        if (accessToken == null || accessToken.isEmpty()) {
+            throw new IllegalArgumentException("Access token cannot be null or empty");
+        }
+        return new Auth(connectionId, accessToken);
+    }
+
+    static Resume resume(String connectionId, String resumeToken, Map<Long, Long> lastSeqs) {
+        if (resumeToken == null || resumeToken.isEmpty()) {
+            throw new IllegalArgumentException("Resume token cannot be null or empty");
+        }
+        return new Resume(connectionId, resumeToken, Map.copyOf(lastSeqs));
+    }
+
+    static TableCommand table(String connectionId, GameTable.TableAction action, Long tableId, int seatIndex,
+                              int buyIn) {
+        if (tableId == null || tableId <= 0) {
+            throw new IllegalArgumentException("Table id must be greater than 0");
+        }
+        if (seatIndex < 0) {
+            throw new IllegalArgumentException("Seat index cannot be negative");
+        }
+        if (buyIn < 0) {
+            throw new IllegalArgumentException("Buy-in cannot be negative");
+        }
+        return new TableCommand(connectionId, action, tableId, seatIndex, buyIn);
+    }
+
+    static PlayNow playNow(String connectionId, String variant, int smallBlind, int bigBlind, int buyIn) {
+        if (smallBlind <= 0 || bigBlind <= 0) {
+            throw new IllegalArgumentException("Blinds must be greater than 0");
+        }
+        if (buyIn < 0) {
+            throw new IllegalArgumentException("Buy-in cannot be negative");
+        }
+        // No variant plays any variant; SeatFinder rejects names no table is listed with.
+        return new PlayNow(connectionId, variant == null || variant.isBlank() ? null : variant.strip(), smallBlind,
+                bigBlind, buyIn);
+    }
+
+    static PoolCommand pool(String connectionId, FastFoldPool.PoolAction action, String variant, int smallBlind,
+                            int bigBlind, int buyIn) {
+        if (smallBlind <= 0 || bigBlind <= 0) {
+            throw new IllegalArgumentException("Blinds must be greater than 0");
+        }
+        if (smallBlind > bigBlind) {
+            throw new IllegalArgumentException("Small blind cannot be greater than the big blind");
+        }
+        if (buyIn < 0) {
+            throw new IllegalArgumentException("Buy-in cannot be negative");
+        }
+        // Only configured stakes have a pool, see GameService.handlePoolEvent.
+        return new PoolCommand(connectionId, action, variant == null || variant.isBlank() ? null : variant.strip(),
+                smallBlind, bigBlind, buyIn);
+    }
+
+    static TournamentCommand tournament(String connectionId, Tournament.TournamentAction action, Long tournamentId) {
+        if (tournamentId == null || tournamentId <= 0) {
+            throw new IllegalArgumentException("Tournament id must be greater than 0");
+        }
+        return new TournamentCommand(connectionId, action, tournamentId);
+    }
+
+    static GameCommand game(String connectionId, GameSession.ActionType action, Long tableId, int amount) {
+        if (tableId == null || tableId <= 0) {
+            throw new IllegalArgumentException("Table id must be greater than 0");
+        }
+        if (action == GameSession.ActionType.SMALL_BLIND || action == GameSession.ActionType.BIG_BLIND) {
+            throw new IllegalArgumentException("Blinds are posted by the table");
+        }
+        if (amount < 0) {
+            throw new IllegalArgumentException("Amount cannot be negative");
+        }
+        return new GameCommand(connectionId, action, tableId, amount);
+    }
+
+    private static <E extends Enum<E>> E action(Class<E> type, JsonObject data) {
+        String value = data.getString("action");
+        if (value == null) {
+            throw new IllegalArgumentException("Missing action");
+        }
+        try {
+            return Enum.valueOf(type, value);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown action " + value);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package dev.manestack.service.socket;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Collects the frames produced while one inbound command is processed, so every recipient gets a single BATCH frame
+ * instead of one frame per event. Payloads are already encoded and are only concatenated here.
+ */
+public class OutboundBatch {
+    private static final String BATCH_PREFIX = "{\"type\":\"BATCH\",\"data\":{\"events\":[";
+    private static final String BATCH_SUFFIX = "]}}";
+    private final Map<WebsocketSession, List<WebsocketFrame>> frames = new LinkedHashMap<>();
+
+    public void add(WebsocketSession session, WebsocketFrame frame) {
+        List<WebsocketFrame> sessionFrames = frames.computeIfAbsent(session, unused -> new ArrayList<>());
+        if (frame.getCoalesceKey() != null) {
+            Iterator<WebsocketFrame> iterator = sessionFrames.iterator();
+            while (iterator.hasNext()) {
+                if (frame.getCoalesceKey().equals(iterator.next().getCoalesceKey())) {
+                    iterator.remove();
+                    break;
+                }
+            }
+        }
+        sessionFrames.add(frame);
+    }
+
+    public void flush(SocketMetrics metrics) {
+        for (Map.Entry<WebsocketSession, List<WebsocketFrame>> entry : frames.entrySet()) {
+            WebsocketSession session = entry.getKey();
+            List<WebsocketFrame> sessionFrames = entry.getValue();
+            if (sessionFrames.size() == 1) {
+                session.getOutboundQueue().enqueue(sessionFrames.getFirst());
+                continue;
+            }
+            metrics.getBatchedEvents().addAndGet(sessionFrames.size());
+            if (sessionFrames.getFirst().isBinary()) {
+                session.getOutboundQueue().enqueue(new WebsocketFrame(session.getId(), BinaryProtocol.batch(sessionFrames), null));
+                continue;
+            }
+            session.getOutboundQueue().enqueue(new WebsocketFrame(session.getId(), jsonBatch(sessionFrames)));
+        }
+        frames.clear();
+    }
+
+    public static String jsonBatch(List<WebsocketFrame> frames) {
+        int length = BATCH_PREFIX.length() + BATCH_SUFFIX.length() + frames.size();
+        for (WebsocketFrame frame : frames) {
+            length += frame.getPayload().length();
+        }
+        StringBuilder payload = new StringBuilder(length).append(BATCH_PREFIX);
+        for (int i = 0; i < frames.size(); i++) {
+            if (i > 0) {
+                payload.append(',');
+            }
+            payload.append(frames.get(i).getPayload());
+        }
+        return payload.append(BATCH_SUFFIX).toString();
+    }
+}
@@ -0,0 +1,174 @@
+package dev.manestack.service.socket;
+
+import io.quarkus.websockets.next.CloseReason;
+import io.quarkus.websockets.next.WebSocketConnection;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/*
+ * Bounded outbound queue of a single connection. Frames are written one at a time and the next one is only taken once
+ * the previous write completed, so a slow client only ever delays itself.
+ *
+ * A RESYNC overflow drops what is queued and asks for snapshots of the client's tables, which only the gameplay thread
+ * can take; frames arriving until they are in are covered by them and dropped as well.
+ */
+public class OutboundQueue {
+    private static final Logger LOG = Logger.getLogger(OutboundQueue.class);
+    private final WebSocketConnection connection;
+    private final WebsocketSession.Protocol protocol;
+    private final int maxQueuedFrames;
+    private final OverflowPolicy overflowPolicy;
+    private final SocketMetrics metrics;
+    private final ArrayDeque<WebsocketFrame> frames = new ArrayDeque<>();
+    private Runnable resyncRequest = () -> resync(new JsonArray());
+    private boolean resyncPending = false;
+    private boolean sending = false;
+    private boolean closed = false;
+
+    public OutboundQueue(WebSocketConnection connection, WebsocketSession.Protocol protocol, int maxQueuedFrames,
+                         OverflowPolicy overflowPolicy, SocketMetrics metrics) {
+        this.connection = connection;
+        this.protocol = protocol;
+        this.maxQueuedFrames = maxQueuedFrames;
+        this.overflowPolicy = overflowPolicy;
+        this.metrics = metrics;
+    }
+
+    public void enqueue(WebsocketFrame frame) {
+        boolean overflow;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (resyncPending) {
+                metrics.getDroppedFrames().incrementAndGet();
+                return;
+            }
+            if (frame.getCoalesceKey() != null) {
+                removeSuperseded(frame.getCoalesceKey());
+            }
+            overflow = frames.size() >= maxQueuedFrames;
+            if (!overflow) {
+                frames.add(frame);
+                metrics.getQueuedFrames().incrementAndGet();
+            }
+        }
+        if (overflow) {
+            metrics.getDroppedFrames().incrementAndGet();
+            handleOverflow();
+        }
+        drain();
+    }
+
+    public void setResyncRequest(Runnable resyncRequest) {
+        this.resyncRequest = resyncRequest;
+    }
+
+    // Called with the snapshots a RESYNC overflow asked for; they go out ahead of everything enqueued afterwards.
+    public void resync(JsonArray snapshots) {
+        WebsocketEvent resync = new WebsocketEvent(
+                connection.id(),
+                "RESYNC",
+                new JsonObject()
+                        .put("reason", "SLOW_CONSUMER")
+                        .put("snapshots", snapshots)
+        );
+        synchronized (this) {
+            if (closed || !resyncPending) {
+                return;
+            }
+            resyncPending = false;
+            frames.add(protocol == WebsocketSession.Protocol.BINARY
+                    ? new WebsocketFrame(connection.id(), BinaryProtocol.encode(resync), null)
+                    : new WebsocketFrame(connection.id(), resync.toJsonString()));
+            metrics.getQueuedFrames().incrementAndGet();
+        }
+        drain();
+    }
+
+    public synchronized int size() {
+        return frames.size();
+    }
+
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            metrics.getQueuedFrames().addAndGet(-frames.size());
+            frames.clear();
+        }
+    }
+
+    // A queued frame with the same key carries state that the new frame fully replaces.
+    private void removeSuperseded(String coalesceKey) {
+        Iterator<WebsocketFrame> iterator = frames.iterator();
+        while (iterator.hasNext()) {
+            if (coalesceKey.equals(iterator.next().getCoalesceKey())) {
+                iterator.remove();
+                metrics.getQueuedFrames().decrementAndGet();
+                metrics.getCoalescedFrames().incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    private void handleOverflow() {
+        switch (overflowPolicy) {
+            case DISCONNECT -> {
+                LOG.warnv("Disconnecting slow consumer {0}, {1} frames queued", connection.id(), maxQueuedFrames);
+                close();
+                metrics.getDisconnects().incrementAndGet();
+                connection.close(new CloseReason(1008, "Slow consumer"))
+                        .subscribe().with(unused -> {
+                        }, failure -> LOG.errorv("Failed to close slow consumer {0}: {1}", connection.id(), failure.getMessage()));
+            }
+            case RESYNC -> {
+                LOG.warnv("Resyncing slow consumer {0}, {1} frames queued", connection.id(), maxQueuedFrames);
+                synchronized (this) {
+                    metrics.getDroppedFrames().addAndGet(frames.size());
+                    metrics.getQueuedFrames().addAndGet(-frames.size());
+                    frames.clear();
+                    resyncPending = true;
+                }
+                metrics.getResyncs().incrementAndGet();
+                resyncRequest.run();
+            }
+        }
+    }
+
+    private void drain() {
+        WebsocketFrame next;
+        synchronized (this) {
+            if (sending || closed || frames.isEmpty()) {
+                return;
+            }
+            next = frames.poll();
+            sending = true;
+        }
+        metrics.getQueuedFrames().decrementAndGet();
+        (next.isBinary() ? connection.sendBinary(next.getBinaryPayload()) : connection.sendText(next.getPayload()))
+                .subscribe().with(unused -> {
+                    metrics.getSentFrames().incrementAndGet();
+                    completeSend();
+                }, failure -> {
+                    LOG.warnv("Failed to send frame to {0}: {1}", connection.id(), failure.getMessage());
+                    metrics.getFailedFrames().incrementAndGet();
+                    completeSend();
+                });
+    }
+
+    private void completeSend() {
+        synchronized (this) {
+            sending = false;
+        }
+        drain();
+    }
+
+    public enum OverflowPolicy {
+        DISCONNECT,
+        RESYNC
+    }
+}
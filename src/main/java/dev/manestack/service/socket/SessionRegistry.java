@@ -0,0 +1,73 @@
+package dev.manestack.service.socket;
+
+import dev.manestack.service.poker.table.GameTable;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Live websocket sessions indexed by connection id and table id. Every index is concurrent, so lookups are safe from
+ * the websocket I/O threads and REST handlers while the gameplay thread binds and removes sessions.
+ */
+public class SessionRegistry {
+    private final ConcurrentHashMap<String, WebsocketSession> byConnection = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Set<WebsocketSession>> byTable = new ConcurrentHashMap<>();
+
+    public void register(WebsocketSession session) {
+        byConnection.put(session.getId(), session);
+    }
+
+    public WebsocketSession get(String connectionId) {
+        return byConnection.get(connectionId);
+    }
+
+    public void bindTable(WebsocketSession session, GameTable table) {
+        session.addTable(table);
+        addToIndex(byTable, table.getTableId(), session);
+    }
+
+    public void unbindTable(WebsocketSession session, GameTable table) {
+        session.removeTable(table);
+        removeFromIndex(byTable, table.getTableId(), session);
+    }
+
+    public Set<WebsocketSession> byTable(long tableId) {
+        return byTable.getOrDefault(tableId, Set.of());
+    }
+
+    // Drops the session from every index; the session keeps its user and tables so callers can still clean up with it.
+    public WebsocketSession remove(String connectionId) {
+        WebsocketSession session = byConnection.remove(connectionId);
+        if (session == null) {
+            return null;
+        }
+        for (GameTable table : session.getTables()) {
+            removeFromIndex(byTable, table.getTableId(), session);
+        }
+        return session;
+    }
+
+    public Collection<WebsocketSession> all() {
+        return byConnection.values();
+    }
+
+    public int size() {
+        return byConnection.size();
+    }
+
+    private static <K> void addToIndex(ConcurrentHashMap<K, Set<WebsocketSession>> index, K key, WebsocketSession session) {
+        index.compute(key, (ignored, sessions) -> {
+            Set<WebsocketSession> updated = sessions == null ? ConcurrentHashMap.newKeySet() : sessions;
+            updated.add(session);
+            return updated;
+        });
+    }
+
+    private static <K> void removeFromIndex(ConcurrentHashMap<K, Set<WebsocketSession>> index, K key, WebsocketSession session) {
+        index.computeIfPresent(key, (ignored, sessions) -> {
+            sessions.remove(session);
+            return sessions.isEmpty() ? null : sessions;
+        });
+    }
+}
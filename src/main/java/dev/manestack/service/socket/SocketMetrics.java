@@ -0,0 +1,72 @@
+package dev.manestack.service.socket;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SocketMetrics {
+    private final AtomicLong queuedFrames = new AtomicLong();
+    private final AtomicLong sentFrames = new AtomicLong();
+    private final AtomicLong failedFrames = new AtomicLong();
+    private final AtomicLong coalescedFrames = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong batchedEvents = new AtomicLong();
+    private final AtomicLong resyncs = new AtomicLong();
+    private final AtomicLong disconnects = new AtomicLong();
+    private final AtomicLong rejectedCommands = new AtomicLong();
+    private final AtomicLong throttledCommands = new AtomicLong();
+
+    public JsonObject toJson() {
+        return new JsonObject()
+                .put("queuedOutboundFrames", queuedFrames.get())
+                .put("sentFrames", sentFrames.get())
+                .put("failedFrames", failedFrames.get())
+                .put("coalescedFrames", coalescedFrames.get())
+                .put("droppedFrames", droppedFrames.get())
+                .put("batchedEvents", batchedEvents.get())
+                .put("resyncs", resyncs.get())
+                .put("disconnects", disconnects.get())
+                .put("rejectedCommands", rejectedCommands.get())
+                .put("throttledCommands", throttledCommands.get());
+    }
+
+    public AtomicLong getQueuedFrames() {
+        return queuedFrames;
+    }
+
+    public AtomicLong getSentFrames() {
+        return sentFrames;
+    }
+
+    public AtomicLong getFailedFrames() {
+        return failedFrames;
+    }
+
+    public AtomicLong getCoalescedFrames() {
+        return coalescedFrames;
+    }
+
+    public AtomicLong getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    public AtomicLong getBatchedEvents() {
+        return batchedEvents;
+    }
+
+    public AtomicLong getResyncs() {
+        return resyncs;
+    }
+
+    public AtomicLong getDisconnects() {
+        return disconnects;
+    }
+
+    public AtomicLong getRejectedCommands() {
+        return rejectedCommands;
+    }
+
+    public AtomicLong getThrottledCommands() {
+        return throttledCommands;
+    }
+}
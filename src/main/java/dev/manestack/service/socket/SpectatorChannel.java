@@ -0,0 +1,128 @@
+package dev.manestack.service.socket;
+
+import io.vertx.core.buffer.Buffer;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Public feed for spectators of a table or of the lobby. The producer only appends events here; a ticker flushes them
+ * at a capped rate, replaces older copies of replaceable events and encodes each flush once per protocol for all
+ * spectators. So spectators add no work to the producing thread beyond the append, however many of them watch.
+ */
+public class SpectatorChannel {
+    private final Map<String, WebsocketSession> spectators = new ConcurrentHashMap<>();
+    private final List<WebsocketEvent> pending = new ArrayList<>();
+    private final ArrayDeque<DelayedEvent> delayed = new ArrayDeque<>();
+
+    public void add(WebsocketSession session) {
+        spectators.put(session.getId(), session);
+    }
+
+    // The first event goes straight to the session's queue, ahead of anything a later flush sends it.
+    public synchronized void add(WebsocketSession session, WebsocketEvent first) {
+        session.getOutboundQueue().enqueue(session.getProtocol() == WebsocketSession.Protocol.BINARY
+                ? new WebsocketFrame(session.getId(), BinaryProtocol.encode(first), null)
+                : new WebsocketFrame(session.getId(), first.toJsonString()));
+        spectators.put(session.getId(), session);
+    }
+
+    public void remove(WebsocketSession session) {
+        spectators.remove(session.getId());
+    }
+
+    public int size() {
+        return spectators.size();
+    }
+
+    public synchronized void publish(WebsocketEvent event) {
+        if (spectators.isEmpty()) {
+            return;
+        }
+        String coalesceKey = event.coalesceKey();
+        if (coalesceKey != null) {
+            Iterator<WebsocketEvent> iterator = pending.iterator();
+            while (iterator.hasNext()) {
+                if (coalesceKey.equals(iterator.next().coalesceKey())) {
+                    iterator.remove();
+                    break;
+                }
+            }
+        }
+        pending.add(event);
+    }
+
+    // Delays are the same for every event of a table, so the queue stays ordered by due time.
+    public synchronized void publishAfter(WebsocketEvent event, Duration delay) {
+        if (spectators.isEmpty()) {
+            return;
+        }
+        delayed.add(new DelayedEvent(event, System.nanoTime() + delay.toNanos()));
+    }
+
+    public void flush(SocketMetrics metrics) {
+        List<WebsocketEvent> events;
+        synchronized (this) {
+            long now = System.nanoTime();
+            while (!delayed.isEmpty() && delayed.peek().due() <= now) {
+                pending.add(delayed.poll().event());
+            }
+            if (pending.isEmpty()) {
+                return;
+            }
+            events = new ArrayList<>(pending);
+            pending.clear();
+        }
+        if (spectators.isEmpty()) {
+            return;
+        }
+        if (events.size() > 1) {
+            metrics.getBatchedEvents().addAndGet(events.size());
+        }
+        String payload = null;
+        Buffer binaryPayload = null;
+        for (WebsocketSession session : spectators.values()) {
+            if (session.getProtocol() == WebsocketSession.Protocol.BINARY) {
+                if (binaryPayload == null) {
+                    binaryPayload = encodeBinary(events);
+                }
+                session.getOutboundQueue().enqueue(new WebsocketFrame(session.getId(), binaryPayload, null));
+            } else {
+                if (payload == null) {
+                    payload = encodeJson(events);
+                }
+                session.getOutboundQueue().enqueue(new WebsocketFrame(session.getId(), payload));
+            }
+        }
+    }
+
+    private static String encodeJson(List<WebsocketEvent> events) {
+        if (events.size() == 1) {
+            return events.getFirst().toJsonString();
+        }
+        List<WebsocketFrame> frames = new ArrayList<>(events.size());
+        for (WebsocketEvent event : events) {
+            frames.add(new WebsocketFrame(null, event.toJsonString()));
+        }
+        return OutboundBatch.jsonBatch(frames);
+    }
+
+    private static Buffer encodeBinary(List<WebsocketEvent> events) {
+        if (events.size() == 1) {
+            return BinaryProtocol.encode(events.getFirst());
+        }
+        List<WebsocketFrame> frames = new ArrayList<>(events.size());
+        for (WebsocketEvent event : events) {
+            frames.add(new WebsocketFrame(null, BinaryProtocol.encode(event), null));
+        }
+        return BinaryProtocol.batch(frames);
+    }
+
+    private record DelayedEvent(WebsocketEvent event, long due) {
+    }
+}
@@ -0,0 +1,47 @@
+package dev.manestack.service.socket;
+
+/*
+ * Per-connection inbound rate limiter. The bucket holds up to burst tokens and refills at ratePerSecond; every inbound
+ * frame takes one token. Called from the connection's I/O thread, synchronized only to stay correct if that changes.
+ */
+public class TokenBucket {
+    private final double ratePerNano;
+    private final double burst;
+    private double tokens;
+    private long lastRefill;
+    private boolean limited = false;
+
+    public TokenBucket(double ratePerSecond, int burst) {
+        this.ratePerNano = ratePerSecond / 1_000_000_000d;
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    public synchronized boolean tryAcquire() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefill) * ratePerNano);
+        lastRefill = now;
+        if (tokens >= 1) {
+            tokens -= 1;
+            limited = false;
+            return true;
+        }
+        return false;
+    }
+
+    // A full bucket behaves exactly like a new one, so keyed buckets can be dropped once they are full again.
+    public synchronized boolean isFull() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefill) * ratePerNano);
+        lastRefill = now;
+        return tokens >= burst;
+    }
+
+    // True only for the first rejection of a throttling episode, so a flooding client is told once instead of per frame.
+    public synchronized boolean markLimited() {
+        boolean first = !limited;
+        limited = true;
+        return first;
+    }
+}
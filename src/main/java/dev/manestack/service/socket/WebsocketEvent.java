@@ -2,7 +2,11 @@ package dev.manestack.service.socket;
 
 import io.vertx.core.json.JsonObject;
 
+import java.util.Set;
+
 public class WebsocketEvent {
+    // Each of these carries complete state, so a queued older copy can be replaced by a newer one.
+    private static final Set<String> SUPERSEDING_GAME_ACTIONS = Set.of("GAME_STATE_UPDATE", "TURN_UPDATE", "PLAYER_STACKS");
     private String id;
     private String type;
     private JsonObject data;
@@ -40,9 +44,24 @@ public class WebsocketEvent {
         this.id = id;
     }
 
+    public String coalesceKey() {
+        String action = data == null ? null : data.getString("action");
+        if ("GAME".equals(type) && SUPERSEDING_GAME_ACTIONS.contains(action)) {
+            // Per hand, so the last update of one hand is not replaced by the first of the next.
+            return "GAME:" + action + ":" + data.getValue("tableId") + ":" + data.getValue("handId");
+        }
+        if ("LOBBY".equals(type) && data.containsKey("tableId")) {
+            // Lobby diffs carry the whole entry, so only the latest one per table matters.
+            return "LOBBY:" + data.getValue("tableId");
+        }
+        return null;
+    }
+
     public String toJsonString() {
         JsonObject json = new JsonObject();
-        json.put("id", id);
+        if (id != null) {
+            json.put("id", id);
+        }
         json.put("type", type);
         json.put("data", data);
         return json.encode();
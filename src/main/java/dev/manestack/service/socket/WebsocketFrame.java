@@ -0,0 +1,51 @@
+package dev.manestack.service.socket;
+
+import io.vertx.core.buffer.Buffer;
+
+/*
+ * An already encoded message addressed to one connection. Broadcast frames share the same payload instance.
+ */
+public class WebsocketFrame {
+    private final String connectionId;
+    private final String payload;
+    private final Buffer binaryPayload;
+    private final String coalesceKey;
+
+    public WebsocketFrame(String connectionId, String payload) {
+        this(connectionId, payload, null);
+    }
+
+    public WebsocketFrame(String connectionId, String payload, String coalesceKey) {
+        this.connectionId = connectionId;
+        this.payload = payload;
+        this.binaryPayload = null;
+        this.coalesceKey = coalesceKey;
+    }
+
+    public WebsocketFrame(String connectionId, Buffer binaryPayload, String coalesceKey) {
+        this.connectionId = connectionId;
+        this.payload = null;
+        this.binaryPayload = binaryPayload;
+        this.coalesceKey = coalesceKey;
+    }
+
+    public String getConnectionId() {
+        return connectionId;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public Buffer getBinaryPayload() {
+        return binaryPayload;
+    }
+
+    public boolean isBinary() {
+        return binaryPayload != null;
+    }
+
+    public String getCoalesceKey() {
+        return coalesceKey;
+    }
+}
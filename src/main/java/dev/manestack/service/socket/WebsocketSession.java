@@ -3,19 +3,47 @@ package dev.manestack.service.socket;
 import dev.manestack.service.poker.table.GameTable;
 import dev.manestack.service.user.User;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 public class WebsocketSession {
     private final String id;
-    private GameTable table;
+    private final Protocol protocol;
+    private final OutboundQueue outboundQueue;
+    private final TokenBucket rateLimiter;
+    // Every table this connection has joined, one connection can follow and play any number of tables.
+    private final Map<Long, GameTable> tables = new ConcurrentHashMap<>();
     private User user;
+    private String resumeToken;
 
     public WebsocketSession(String id) {
+        this(id, Protocol.JSON, null, null);
+    }
+
+    public WebsocketSession(String id, Protocol protocol, OutboundQueue outboundQueue, TokenBucket rateLimiter) {
         this.id = id;
+        this.protocol = protocol;
+        this.outboundQueue = outboundQueue;
+        this.rateLimiter = rateLimiter;
     }
 
     public String getId() {
         return id;
     }
 
+    public Protocol getProtocol() {
+        return protocol;
+    }
+
+    public OutboundQueue getOutboundQueue() {
+        return outboundQueue;
+    }
+
+    public TokenBucket getRateLimiter() {
+        return rateLimiter;
+    }
+
     public User getUser() {
         return user;
     }
@@ -24,11 +52,32 @@ public class WebsocketSession {
         this.user = user;
     }
 
-    public GameTable getTable() {
-        return table;
+    public Collection<GameTable> getTables() {
+        return tables.values();
+    }
+
+    public boolean isSubscribed(long tableId) {
+        return tables.containsKey(tableId);
+    }
+
+    public void addTable(GameTable table) {
+        tables.put(table.getTableId(), table);
+    }
+
+    public void removeTable(GameTable table) {
+        tables.remove(table.getTableId());
+    }
+
+    public String getResumeToken() {
+        return resumeToken;
+    }
+
+    public void setResumeToken(String resumeToken) {
+        this.resumeToken = resumeToken;
     }
 
-    public void setTable(GameTable table) {
-        this.table = table;
+    public enum Protocol {
+        JSON,
+        BINARY
     }
 }
@@ -0,0 +1,91 @@
+package dev.manestack.service.user;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/*
+ * Bounded cache whose entries expire after a fixed time or at an earlier deadline given with the entry. Kept in access
+ * order, so when it is full the least recently read entry is dropped. Expired entries are dropped when they are read;
+ * those never read again age out through the size bound.
+ */
+public class ExpiringCache<K, V> {
+    private final int maxSize;
+    private final long ttlMillis;
+    private final LinkedHashMap<K, Entry<V>> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public ExpiringCache(int maxSize, long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() > ExpiringCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (entry.expiresAt() <= System.currentTimeMillis()) {
+            entries.remove(key);
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value();
+    }
+
+    public void put(K key, V value) {
+        put(key, value, Long.MAX_VALUE);
+    }
+
+    public synchronized void put(K key, V value, long expiresAt) {
+        long now = System.currentTimeMillis();
+        if (expiresAt <= now) {
+            return;
+        }
+        entries.put(key, new Entry<>(value, Math.min(expiresAt, now + ttlMillis)));
+    }
+
+    public synchronized void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    public synchronized void invalidateIf(Predicate<V> predicate) {
+        Iterator<Entry<V>> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (predicate.test(iterator.next().value())) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized JsonObject getMetrics() {
+        long lookups = hits + misses;
+        return new JsonObject()
+                .put("size", entries.size())
+                .put("maxSize", maxSize)
+                .put("hits", hits)
+                .put("misses", misses)
+                .put("hitRatio", lookups == 0 ? 0 : (double) hits / lookups)
+                .put("evictions", evictions);
+    }
+
+    private record Entry<V>(V value, long expiresAt) {
+    }
+}
@@ -0,0 +1,63 @@
+package dev.manestack.service.user;
+
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.List;
+
+/*
+ * Filter and position of a deposit or withdrawal listing. Listings are ordered newest first by (create_date, id); the
+ * cursor is the opaque key of the last row of the previous page, so a page costs the same however deep it is and
+ * rows inserted meanwhile never shift it. For deposits the status is the deposit type.
+ */
+public record ListingFilter(Integer userId, String status, OffsetDateTime from, OffsetDateTime to,
+                            OffsetDateTime afterDate, Long afterId, int limit) {
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 500;
+
+    public static ListingFilter of(Integer userId, String status, String from, String to, String cursor, Integer limit) {
+        int pageSize = limit == null ? DEFAULT_LIMIT : limit;
+        if (pageSize <= 0 || pageSize > MAX_LIMIT) {
+            throw new IllegalArgumentException("Limit must be between 1 and " + MAX_LIMIT);
+        }
+        OffsetDateTime afterDate = null;
+        Long afterId = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            try {
+                String key = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int separator = key.lastIndexOf('|');
+                afterDate = OffsetDateTime.parse(key.substring(0, separator));
+                afterId = Long.parseLong(key.substring(separator + 1));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+        }
+        return new ListingFilter(userId, status == null || status.isEmpty() ? null : status.toUpperCase(),
+                parseDate("from", from), parseDate("to", to), afterDate, afterId, pageSize);
+    }
+
+    // The same filter positioned after the given row.
+    public ListingFilter after(OffsetDateTime createDate, Long id) {
+        return new ListingFilter(userId, status, from, to, createDate, id, limit);
+    }
+
+    public static String cursorOf(OffsetDateTime createDate, Long id) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((createDate + "|" + id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static OffsetDateTime parseDate(String name, String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            return OffsetDateTime.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid " + name + " date, expected ISO-8601 with offset");
+        }
+    }
+
+    public record Page<T>(List<T> items, String nextCursor) {
+    }
+}
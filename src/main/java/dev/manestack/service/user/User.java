@@ -15,6 +15,19 @@ public class User {
     private String password;
     private UserBalance userBalance;
 
+    public User() {
+    }
+
+    // Copies the public profile only; credentials, bank details and the balance are left out.
+    public User(User profile) {
+        this.userId = profile.userId;
+        this.email = profile.email;
+        this.isVerified = profile.isVerified;
+        this.username = profile.username;
+        this.profileURL = profile.profileURL;
+        this.role = profile.role;
+    }
+
     public int getUserId() {
         return userId;
     }
@@ -103,4 +103,9 @@ public class Withdrawal {
     public void setUser(User user) {
         this.user = user;
     }
+
+    public enum Status {
+        PENDING,
+        APPROVED
+    }
 }
@@ -0,0 +1,84 @@
+package dev.manestack.simulation;
+
+import dev.manestack.service.poker.card.GameCard;
+import dev.manestack.service.poker.table.GamePlayer;
+import dev.manestack.service.poker.table.GameSession;
+
+import java.util.List;
+import java.util.Random;
+
+public enum BotPolicy {
+    RANDOM {
+        @Override
+        public Decision decide(BotView view, Random random) {
+            int roll = random.nextInt(10);
+            if (roll < 2) {
+                return fold(view);
+            } else if (roll < 7) {
+                return call(view);
+            }
+            return raise(view, view.bigBlind() * (1 + random.nextInt(3)));
+        }
+    },
+    TIGHT {
+        @Override
+        public Decision decide(BotView view, Random random) {
+            List<GameCard> holeCards = view.player().getHoleCards();
+            GameCard.Rank first = holeCards.get(0).getRank();
+            GameCard.Rank second = holeCards.get(1).getRank();
+            boolean premium = first == second
+                    || (first.getValue() >= GameCard.Rank.TEN.getValue() && second.getValue() >= GameCard.Rank.TEN.getValue());
+            boolean playable = premium || first == GameCard.Rank.ACE || second == GameCard.Rank.ACE;
+            if (premium) {
+                return view.toCall() == 0 ? raise(view, view.bigBlind() * 2) : call(view);
+            } else if (playable && view.toCall() <= view.bigBlind() * 2) {
+                return call(view);
+            }
+            return fold(view);
+        }
+    },
+    CALLING_STATION {
+        @Override
+        public Decision decide(BotView view, Random random) {
+            return call(view);
+        }
+    };
+
+    public abstract Decision decide(BotView view, Random random);
+
+    private static Decision fold(BotView view) {
+        return view.canCheck()
+                ? new Decision(GameSession.ActionType.CHECK, 0)
+                : new Decision(GameSession.ActionType.FOLD, 0);
+    }
+
+    private static Decision call(BotView view) {
+        if (view.toCall() == 0) {
+            if (view.canCheck()) {
+                return new Decision(GameSession.ActionType.CHECK, 0);
+            }
+            // The engine rejects CHECK and zero CALL once anyone has bet, so a matched player has to raise or fold.
+            return view.player().getStack() >= view.bigBlind()
+                    ? new Decision(GameSession.ActionType.RAISE, view.bigBlind())
+                    : new Decision(GameSession.ActionType.FOLD, 0);
+        }
+        if (view.player().getStack() >= view.toCall()) {
+            return new Decision(GameSession.ActionType.CALL, view.toCall());
+        }
+        return new Decision(GameSession.ActionType.FOLD, 0);
+    }
+
+    private static Decision raise(BotView view, int raiseBy) {
+        int total = view.toCall() + raiseBy;
+        if (view.player().getStack() >= total) {
+            return new Decision(GameSession.ActionType.RAISE, total);
+        }
+        return call(view);
+    }
+
+    public record BotView(GamePlayer player, int toCall, boolean canCheck, int bigBlind) {
+    }
+
+    public record Decision(GameSession.ActionType actionType, int amount) {
+    }
+}
@@ -0,0 +1,31 @@
+package dev.manestack.simulation;
+
+import java.util.Arrays;
+
+public class LatencyRecorder {
+    private long[] samples = new long[1024];
+    private int size;
+
+    public synchronized void record(long nanos) {
+        if (size == samples.length) {
+            samples = Arrays.copyOf(samples, size * 2);
+        }
+        samples[size++] = nanos;
+    }
+
+    // Returns the sorted samples recorded since the last drain and starts a new interval.
+    public synchronized long[] drain() {
+        long[] drained = Arrays.copyOf(samples, size);
+        size = 0;
+        Arrays.sort(drained);
+        return drained;
+    }
+
+    public static double percentileMillis(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1_000_000.0;
+    }
+}
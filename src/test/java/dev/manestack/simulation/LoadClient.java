@@ -0,0 +1,233 @@
+package dev.manestack.simulation;
+
+import dev.manestack.service.poker.card.GameCard;
+import dev.manestack.service.poker.table.GamePlayer;
+import dev.manestack.service.user.User;
+import io.vertx.core.Future;
+import io.vertx.core.http.WebSocket;
+import io.vertx.core.http.WebSocketClient;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * A single bot connection to /ws/table: AUTH, JOIN_TABLE, TAKE_SEAT, then play whenever TURN_UPDATE points at our seat.
+ * Latency is measured from sending a GAME action to receiving our own PLAYER_ACTION broadcast.
+ */
+public class LoadClient {
+    private final String accessToken;
+    private final long tableId;
+    private final Integer seatIndex;
+    private final BotPolicy policy;
+    private final Random random;
+    private final LatencyRecorder latencyRecorder;
+    private final AtomicLong errors;
+    private final GamePlayer player;
+    private final Map<Integer, Integer> currentBets = new HashMap<>();
+    private WebSocket socket;
+    private long lastSeq = -1;
+    private int bigBlind;
+    private long actionSentAt;
+
+    public LoadClient(String accessToken, long tableId, Integer seatIndex, int bigBlind, BotPolicy policy, long seed,
+                      LatencyRecorder latencyRecorder, AtomicLong errors) {
+        this.accessToken = accessToken;
+        this.tableId = tableId;
+        this.seatIndex = seatIndex;
+        this.bigBlind = bigBlind;
+        this.policy = policy;
+        this.random = new Random(seed);
+        this.latencyRecorder = latencyRecorder;
+        this.errors = errors;
+        // The server seats everyone with 500 chips, the stack is tracked locally from there.
+        this.player = new GamePlayer(new User(), 500);
+    }
+
+    public Future<Void> connect(WebSocketClient client, String host, int port) {
+        return client.connect(port, host, "/ws/table")
+                .map(webSocket -> {
+                    socket = webSocket;
+                    socket.textMessageHandler(this::onMessage);
+                    send("AUTH", new JsonObject().put("accessToken", accessToken));
+                    return null;
+                });
+    }
+
+    public boolean isOpen() {
+        return socket != null && !socket.isClosed();
+    }
+
+    private void onMessage(String text) {
+        onMessage(new JsonObject(text));
+    }
+
+    private void onMessage(JsonObject message) {
+        JsonObject data = message.getJsonObject("data", new JsonObject());
+        if (data.getValue("tableId") != null && data.getLong("tableId") != tableId) {
+            return;
+        }
+        switch (message.getString("type", "")) {
+            case "BATCH" -> {
+                JsonArray events = data.getJsonArray("events");
+                for (int i = 0; i < events.size(); i++) {
+                    onMessage(events.getJsonObject(i));
+                }
+            }
+            case "AUTH" -> send("TABLE", new JsonObject()
+                    .put("action", "JOIN_TABLE")
+                    .put("tableId", tableId));
+            case "RESYNC" -> {
+                // The server dropped our backlog and sent the current state of every joined table in its place.
+                JsonArray snapshots = data.getJsonArray("snapshots", new JsonArray());
+                if (snapshots.isEmpty()) {
+                    requestSync();
+                }
+                for (int i = 0; i < snapshots.size(); i++) {
+                    if (snapshots.getJsonObject(i).getLong("tableId") == tableId) {
+                        applySnapshot(snapshots.getJsonObject(i));
+                    }
+                }
+            }
+            case "TABLE" -> {
+                switch (data.getString("action", "")) {
+                    case "JOIN_TABLE" -> {
+                        applySnapshot(data.getJsonObject("snapshot"));
+                        if (seatIndex != null) {
+                            send("TABLE", new JsonObject()
+                                    .put("action", "TAKE_SEAT")
+                                    .put("tableId", tableId)
+                                    .put("seatIndex", seatIndex));
+                        }
+                    }
+                    case "SNAPSHOT" -> applySnapshot(data.getJsonObject("snapshot"));
+                    case "SEAT_UPDATE" -> checkSequence(data);
+                    default -> {
+                    }
+                }
+            }
+            case "GAME" -> {
+                if ("PLAYER_ACTION".equals(data.getString("action")) && !checkSequence(data)) {
+                    return;
+                }
+                onGameMessage(data);
+            }
+            case "ERROR" -> errors.incrementAndGet();
+            default -> {
+            }
+        }
+    }
+
+    private void onGameMessage(JsonObject data) {
+        switch (data.getString("action", "")) {
+            case "HOLE_CARDS" -> {
+                player.refreshHoleCards();
+                JsonArray cards = data.getJsonObject("holeCards", new JsonObject()).getJsonArray(String.valueOf(seatIndex));
+                if (cards != null) {
+                    for (int i = 0; i < cards.size(); i++) {
+                        JsonObject card = cards.getJsonObject(i);
+                        if (card.getString("suit") != null) {
+                            player.addCard(new GameCard(GameCard.Suit.valueOf(card.getString("suit")),
+                                    GameCard.Rank.valueOf(card.getString("rank"))));
+                        }
+                    }
+                }
+            }
+            case "GAME_STATE_UPDATE" -> readBets(data.getJsonObject("playerBets"));
+            case "PLAYER_STACKS" -> {
+                Integer stack = data.getJsonObject("stacks", new JsonObject()).getInteger(String.valueOf(seatIndex));
+                if (stack != null) {
+                    player.setStack(stack);
+                }
+            }
+            case "PLAYER_ACTION" -> {
+                readBets(data.getJsonObject("currentBets"));
+                if (seatIndex != null && seatIndex.equals(data.getInteger("seatId"))) {
+                    player.setStack(Math.max(0, player.getStack() - data.getInteger("amount", 0)));
+                    if (actionSentAt != 0) {
+                        latencyRecorder.record(System.nanoTime() - actionSentAt);
+                        actionSentAt = 0;
+                    }
+                }
+            }
+            case "TURN_UPDATE" -> {
+                if (seatIndex != null && seatIndex.equals(data.getInteger("currentPlayerSeat"))) {
+                    act();
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    private void act() {
+        int highestBet = 0;
+        for (Integer bet : currentBets.values()) {
+            highestBet = Math.max(highestBet, bet);
+        }
+        int toCall = highestBet - currentBets.getOrDefault(seatIndex, 0);
+        BotPolicy effectivePolicy = player.getHoleCards().size() == 2 ? policy : BotPolicy.CALLING_STATION;
+        BotPolicy.Decision decision = effectivePolicy.decide(
+                new BotPolicy.BotView(player, toCall, currentBets.isEmpty(), bigBlind), random);
+        actionSentAt = System.nanoTime();
+        send("GAME", new JsonObject()
+                .put("action", decision.actionType().name())
+                .put("tableId", tableId)
+                .put("amount", decision.amount()));
+    }
+
+    // Deltas must arrive without gaps, anything else means frames were lost and the table has to be fetched again.
+    private boolean checkSequence(JsonObject data) {
+        long seq = data.getLong("seq", 0L);
+        if (lastSeq >= 0 && seq != lastSeq + 1) {
+            requestSync();
+            return false;
+        }
+        lastSeq = seq;
+        return true;
+    }
+
+    private void requestSync() {
+        lastSeq = -1;
+        send("TABLE", new JsonObject()
+                .put("action", "SYNC")
+                .put("tableId", tableId));
+    }
+
+    private void applySnapshot(JsonObject snapshot) {
+        if (snapshot == null) {
+            return;
+        }
+        lastSeq = snapshot.getLong("seq", 0L);
+        JsonObject seat = snapshot.getJsonObject("seats", new JsonObject()).getJsonObject(String.valueOf(seatIndex));
+        if (seat != null) {
+            player.setStack(seat.getInteger("stack"));
+        }
+        JsonObject hand = snapshot.getJsonObject("hand");
+        if (hand != null) {
+            readBets(hand.getJsonObject("playerBets"));
+            if (seatIndex != null && seatIndex.equals(hand.getInteger("currentPlayerSeat"))) {
+                act();
+            }
+        }
+    }
+
+    private void readBets(JsonObject bets) {
+        currentBets.clear();
+        if (bets != null) {
+            bets.forEach(entry -> currentBets.put(Integer.parseInt(entry.getKey()), ((Number) entry.getValue()).intValue()));
+        }
+    }
+
+    private void send(String type, JsonObject data) {
+        if (isOpen()) {
+            socket.writeTextMessage(new JsonObject()
+                    .put("type", type)
+                    .put("data", data)
+                    .encode());
+        }
+    }
+}
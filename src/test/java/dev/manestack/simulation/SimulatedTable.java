@@ -0,0 +1,166 @@
+package dev.manestack.simulation;
+
+import dev.manestack.service.history.HandEventType;
+import dev.manestack.service.poker.table.GamePlayer;
+import dev.manestack.service.poker.table.GameSession;
+import dev.manestack.service.poker.table.GameTable;
+import dev.manestack.service.poker.table.TableEventSink;
+import dev.manestack.service.socket.WebsocketEvent;
+import dev.manestack.service.socket.WebsocketSession;
+import dev.manestack.service.user.User;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Random;
+
+/*
+ * One headless table driven by bots. Every event the table emits is inspected by this sink, which
+ * also checks chip conservation and turn order as the hands play out.
+ */
+public class SimulatedTable implements TableEventSink {
+    private final GameTable table = new GameTable();
+    private final BotPolicy[] policies;
+    private final Random random;
+    private final int startingStack;
+    private final SimulationReport report;
+
+    private long chipsInPlay;
+    private Integer turnSeat;
+    private boolean actionAccepted;
+    private long lastSeq;
+
+    public SimulatedTable(long tableId, BotPolicy[] policies, long seed, int startingStack, SimulationReport report) {
+        this.policies = policies;
+        this.random = new Random(seed);
+        this.startingStack = startingStack;
+        this.report = report;
+        table.setTableId(tableId);
+        table.setTableName("sim-" + tableId);
+        table.setMaxPlayers(policies.length);
+        table.setSmallBlind(1);
+        table.setBigBlind(2);
+        table.setVariant("TEXAS_HOLDEM");
+        table.setRandom(new Random(seed ^ 0x5DEECE66DL));
+        table.connectToServer(this);
+    }
+
+    public void run(long hands) {
+        for (int seat = 0; seat < policies.length; seat++) {
+            User user = new User();
+            user.setUserId(seat + 1);
+            user.setUsername("bot-" + seat);
+            WebsocketSession session = new WebsocketSession("bot-" + table.getTableId() + "-" + seat);
+            session.setUser(user);
+            chipsInPlay += startingStack;
+            table.takeSeat(seat, new GamePlayer(user, startingStack), session);
+        }
+
+        while (report.getHands() < hands) {
+            GameSession session = table.getCurrentGameSession();
+            GamePlayer player = table.getSeats().get(turnSeat);
+            Map<Integer, Integer> playerBets = session.getPlayerBets();
+            int highestBet = 0;
+            for (Integer bet : playerBets.values()) {
+                highestBet = Math.max(highestBet, bet);
+            }
+            int toCall = highestBet - playerBets.getOrDefault(turnSeat, 0);
+            BotPolicy.BotView view = new BotPolicy.BotView(player, toCall, playerBets.isEmpty(), table.getBigBlind());
+            BotPolicy.Decision decision = policies[turnSeat].decide(view, random);
+            try {
+                actionAccepted = false;
+                table.receivePlayerAction(player.getUser().getUserId(), decision.actionType(), decision.amount());
+                if (!actionAccepted) {
+                    report.recordRejectedAction();
+                    table.receivePlayerAction(player.getUser().getUserId(), GameSession.ActionType.FOLD, 0);
+                }
+                report.recordAction();
+            } catch (RuntimeException e) {
+                report.recordViolation("Engine exception: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void sendWebsocketEvent(WebsocketEvent event) {
+        // Personal events (hole cards) are not inspected.
+    }
+
+    @Override
+    public void broadcastWebsocketEvent(Collection<WebsocketSession> sessions, WebsocketEvent event) {
+        JsonObject data = event.getData();
+        long seq = data.getLong("seq");
+        boolean delta = "SEAT_UPDATE".equals(data.getString("action")) || "PLAYER_ACTION".equals(data.getString("action"));
+        if (delta ? seq != lastSeq + 1 : seq != lastSeq) {
+            report.recordViolation("State version out of sequence");
+        }
+        lastSeq = seq;
+        if (!"GAME".equals(event.getType())) {
+            return;
+        }
+        switch (data.getString("action")) {
+            case "TURN_UPDATE" -> {
+                turnSeat = data.getInteger("currentPlayerSeat");
+                GamePlayer player = table.getSeats().get(turnSeat);
+                if (player == null || !player.isInHand()) {
+                    report.recordViolation("Turn passed to a seat that is not in the hand");
+                }
+            }
+            case "PLAYER_ACTION" -> {
+                actionAccepted = true;
+                if (!data.getInteger("seatId").equals(turnSeat)) {
+                    report.recordViolation("Action from a seat that does not hold the turn");
+                }
+                verifyChips(table.getCurrentGameSession().getPot());
+            }
+            case "GAME_STATE_UPDATE" -> {
+                if (GameSession.State.FINISHED.name().equals(String.valueOf(data.getValue("state")))) {
+                    report.recordHand();
+                    verifyChips(0);
+                    topUpStacks();
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    @Override
+    public void seatsChanged(GameTable gameTable) {
+    }
+
+    @Override
+    public void handFinished(GameTable gameTable, int pot) {
+    }
+
+    @Override
+    public void recordHandEvent(long tableId, long handId, HandEventType type, Buffer payload) {
+    }
+
+    private void verifyChips(int pot) {
+        long total = pot;
+        for (GamePlayer player : table.getSeats().values()) {
+            total += player.getStack();
+            if (player.isInHand() && player.getHoleCards().size() != 2) {
+                report.recordViolation("Player holds " + player.getHoleCards().size() + " hole cards");
+            }
+        }
+        if (total != chipsInPlay) {
+            report.recordViolation("Chip conservation");
+            chipsInPlay = total;
+        }
+    }
+
+    private void topUpStacks() {
+        for (GamePlayer player : table.getSeats().values()) {
+            if (player.getStack() < table.getBigBlind()) {
+                int rebuy = startingStack - player.getStack();
+                player.addToStack(rebuy);
+                chipsInPlay += rebuy;
+                report.recordRebuy();
+            }
+        }
+    }
+}
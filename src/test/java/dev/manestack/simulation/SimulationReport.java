@@ -0,0 +1,68 @@
+package dev.manestack.simulation;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+public class SimulationReport {
+    private long hands;
+    private long actions;
+    private long rejectedActions;
+    private long rebuys;
+    private long allocatedBytes;
+    private final Map<String, Long> violations = new TreeMap<>();
+
+    public void recordHand() {
+        hands++;
+    }
+
+    public void recordAction() {
+        actions++;
+    }
+
+    public void recordRejectedAction() {
+        rejectedActions++;
+    }
+
+    public void recordRebuy() {
+        rebuys++;
+    }
+
+    public void recordAllocatedBytes(long bytes) {
+        allocatedBytes += bytes;
+    }
+
+    public void recordViolation(String violation) {
+        violations.merge(violation, 1L, Long::sum);
+    }
+
+    public void merge(SimulationReport other) {
+        hands += other.hands;
+        actions += other.actions;
+        rejectedActions += other.rejectedActions;
+        rebuys += other.rebuys;
+        allocatedBytes += other.allocatedBytes;
+        other.violations.forEach((violation, count) -> violations.merge(violation, count, Long::sum));
+    }
+
+    public String format(long elapsedNanos) {
+        double seconds = elapsedNanos / 1_000_000_000.0;
+        StringBuilder builder = new StringBuilder()
+                .append(String.format("hands:               %d%n", hands))
+                .append(String.format("actions:             %d (%d rejected)%n", actions, rejectedActions))
+                .append(String.format("rebuys:              %d%n", rebuys))
+                .append(String.format("elapsed:             %.2fs%n", seconds))
+                .append(String.format("hands/sec:           %.0f%n", hands / seconds))
+                .append(String.format("allocated/hand:      %d bytes%n", hands == 0 ? 0 : allocatedBytes / hands))
+                .append(String.format("violations:          %d%n", violations.values().stream().mapToLong(Long::longValue).sum()));
+        violations.forEach((violation, count) -> builder.append(String.format("  %-40s %d%n", violation, count)));
+        return builder.toString();
+    }
+
+    public long getHands() {
+        return hands;
+    }
+
+    public Map<String, Long> getViolations() {
+        return violations;
+    }
+}
@@ -0,0 +1,191 @@
+package dev.manestack.simulation;
+
+import dev.manestack.util.Utilities;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.WebSocketClient;
+import io.vertx.core.http.WebSocketClientOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Ramps bot connections against a local /ws/table and reports action->broadcast latency percentiles together with the
+ * server's pending inbound events and outbound queue depth, to find where the handler/notifier pipeline saturates.
+ *
+ * Usage: SocketLoadGenerator connections=20000 step=1000 stepSeconds=10 port=8080 adminToken=<jwt> bankroll=10000
+ *
+ * Bot accounts (loadtest-<n>@manestack.local) are registered on first use, which runs BCrypt per account, so the very
+ * first ramp against a fresh database is slow. Logins and registrations the server throttles are retried with backoff;
+ * the server's per-address limit is meant to be lifted for loopback clients during a run, see the README. Seated bots
+ * buy in from their balance, so each one is topped up to the bankroll through the admin deposit endpoint. Tens of
+ * thousands of sockets to one port need a raised file descriptor limit and ip_local_port_range on the client side.
+ */
+public class SocketLoadGenerator {
+    private static final String PASSWORD = "loadtest";
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = Utilities.parseQuery(String.join("&", args));
+        String host = options.getOrDefault("host", "127.0.0.1");
+        int port = Integer.parseInt(options.getOrDefault("port", "8080"));
+        int connections = Integer.parseInt(options.getOrDefault("connections", "1000"));
+        int step = Integer.parseInt(options.getOrDefault("step", "100"));
+        long stepSeconds = Long.parseLong(options.getOrDefault("stepSeconds", "10"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        String adminToken = options.get("adminToken");
+        int bankroll = Integer.parseInt(options.getOrDefault("bankroll", "10000"));
+        if (adminToken == null) {
+            throw new IllegalArgumentException("adminToken is required to fund the bots' buy-ins");
+        }
+        if (!InetAddress.getByName(host).isLoopbackAddress()) {
+            throw new IllegalArgumentException("Load generation is only allowed against a local instance, got " + host);
+        }
+
+        Vertx vertx = Vertx.vertx();
+        HttpClient httpClient = vertx.createHttpClient();
+        WebSocketClient socketClient = vertx.createWebSocketClient(new WebSocketClientOptions()
+                .setMaxConnections(connections)
+                .setConnectTimeout(30_000));
+        LatencyRecorder latencyRecorder = new LatencyRecorder();
+        AtomicLong errors = new AtomicLong();
+        BotPolicy[] policies = BotPolicy.values();
+
+        JsonArray tables = request(httpClient, host, port, HttpMethod.GET, "/api/v1/user/table", null, null).toJsonArray();
+        if (tables.isEmpty()) {
+            throw new IllegalStateException("No tables to join, create some through /api/v1/admin/table first");
+        }
+        System.out.printf("Ramping to %d connections in steps of %d over %d table(s)%n", connections, step, tables.size());
+        System.out.printf("%-12s %-10s %-10s %-10s %-10s %-10s %-10s %-10s %-10s %-10s%n",
+                "connections", "actions", "p50(ms)", "p90(ms)", "p99(ms)", "max(ms)", "errors", "inbound", "outbound", "maxQueue");
+
+        List<LoadClient> clients = new ArrayList<>();
+        while (clients.size() < connections) {
+            int target = Math.min(connections, clients.size() + step);
+            List<Future<Void>> connecting = new ArrayList<>();
+            for (int index = clients.size(); index < target; index++) {
+                JsonObject table = tables.getJsonObject(index % tables.size());
+                int maxPlayers = table.getInteger("maxPlayers");
+                int round = index / tables.size();
+                // Fill every table's seats first, everyone beyond that watches.
+                Integer seatIndex = round < maxPlayers ? round : null;
+                String token = fetchToken(httpClient, host, port, index);
+                if (seatIndex != null) {
+                    fund(httpClient, host, port, token, adminToken, bankroll);
+                }
+                LoadClient client = new LoadClient(token, table.getLong("tableId"),
+                        seatIndex, table.getInteger("bigBlind"), policies[index % policies.length], seed + index,
+                        latencyRecorder, errors);
+                clients.add(client);
+                connecting.add(client.connect(socketClient, host, port));
+            }
+            Future.join(connecting).toCompletionStage().toCompletableFuture().exceptionally(failure -> null).get();
+            latencyRecorder.drain();
+            TimeUnit.SECONDS.sleep(stepSeconds);
+
+            long[] latencies = latencyRecorder.drain();
+            JsonObject metrics = request(httpClient, host, port, HttpMethod.GET, "/api/v1/admin/socket/metrics", adminToken, null)
+                    .toJsonObject();
+            long open = clients.stream().filter(LoadClient::isOpen).count();
+            System.out.printf("%-12d %-10d %-10.2f %-10.2f %-10.2f %-10.2f %-10d %-10s %-10s %-10s%n",
+                    open, latencies.length,
+                    LatencyRecorder.percentileMillis(latencies, 50),
+                    LatencyRecorder.percentileMillis(latencies, 90),
+                    LatencyRecorder.percentileMillis(latencies, 99),
+                    LatencyRecorder.percentileMillis(latencies, 100),
+                    errors.get(),
+                    metrics.getValue("pendingInboundEvents", "-"),
+                    metrics.getValue("queuedOutboundFrames", "-"),
+                    metrics.getValue("maxOutboundQueueDepth", "-"));
+        }
+        vertx.close().toCompletionStage().toCompletableFuture().get();
+    }
+
+    private static String fetchToken(HttpClient httpClient, String host, int port, int index) throws Exception {
+        String email = "loadtest-" + index + "@manestack.local";
+        try {
+            return postRetrying(httpClient, host, port, "/api/v1/user/login", new JsonObject()
+                    .put("email", email)
+                    .put("password", PASSWORD)).toJsonObject().getString("token");
+        } catch (ExecutionException e) {
+            // Login fails for accounts that do not exist yet; throttled attempts have been retried by then.
+            return postRetrying(httpClient, host, port, "/api/v1/user/register", new JsonObject()
+                    .put("email", email)
+                    .put("username", "loadtest-" + index)
+                    .put("password", PASSWORD)
+                    .put("bankName", "LOADTEST")
+                    .put("accountNumber", String.valueOf(index))).toJsonObject().getString("token");
+        }
+    }
+
+    // Retries with a doubling backoff while the server answers 429, see PasswordService.admit.
+    private static Buffer postRetrying(HttpClient httpClient, String host, int port, String uri, JsonObject body)
+            throws Exception {
+        long backoffMillis = 250;
+        while (true) {
+            try {
+                return request(httpClient, host, port, HttpMethod.POST, uri, null, body);
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof RequestFailedException failure)
+                        || failure.statusCode != TOO_MANY_REQUESTS || backoffMillis > 30_000) {
+                    throw e;
+                }
+                TimeUnit.MILLISECONDS.sleep(backoffMillis);
+                backoffMillis *= 2;
+            }
+        }
+    }
+
+    // Tops the bot's balance up to the bankroll, so it can buy in again after losing its stacks in earlier runs.
+    private static void fund(HttpClient httpClient, String host, int port, String token, String adminToken,
+                             int bankroll) throws Exception {
+        JsonObject user = request(httpClient, host, port, HttpMethod.GET, "/api/v1/user/me", token, null).toJsonObject();
+        int balance = user.getJsonObject("userBalance", new JsonObject()).getInteger("balance", 0);
+        if (balance >= bankroll) {
+            return;
+        }
+        request(httpClient, host, port, HttpMethod.POST, "/api/v1/admin/deposit", adminToken, new JsonObject()
+                .put("userId", user.getInteger("userId"))
+                .put("amount", bankroll - balance)
+                .put("type", "GIFT")
+                .put("details", new JsonObject().put("reason", "load test")));
+    }
+
+    private static Buffer request(HttpClient httpClient, String host, int port, HttpMethod method, String uri,
+                                  String bearerToken, JsonObject body) throws Exception {
+        return httpClient.request(method, port, host, uri)
+                .compose(request -> {
+                    request.putHeader("Content-Type", "application/json");
+                    if (bearerToken != null) {
+                        request.putHeader("Authorization", "Bearer " + bearerToken);
+                    }
+                    return body == null ? request.send() : request.send(body.toBuffer());
+                })
+                .compose(response -> response.body().map(buffer -> {
+                    if (response.statusCode() >= 300) {
+                        throw new RequestFailedException(method + " " + uri, response.statusCode(), buffer);
+                    }
+                    return buffer;
+                }))
+                .toCompletionStage().toCompletableFuture().get(60, TimeUnit.SECONDS);
+    }
+
+    private static class RequestFailedException extends IllegalStateException {
+        private final int statusCode;
+
+        private RequestFailedException(String request, int statusCode, Buffer body) {
+            super(request + " failed with " + statusCode + ": " + body);
+            this.statusCode = statusCode;
+        }
+    }
+}
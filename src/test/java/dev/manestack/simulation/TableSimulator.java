@@ -0,0 +1,69 @@
+package dev.manestack.simulation;
+
+import com.sun.management.ThreadMXBean;
+import dev.manestack.util.Utilities;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Plays hands on headless GameTables at full CPU speed. Each table runs on its own thread with its own
+ * seeded RNG, so a run is reproducible from its seed.
+ *
+ * Usage: TableSimulator hands=1000000 tables=4 policies=RANDOM,TIGHT,CALLING_STATION seed=42 stack=500
+ */
+public class TableSimulator {
+    // Held strongly so the level override is not garbage collected along with the logger.
+    private static final Logger ENGINE_LOGGER = Logger.getLogger("dev.manestack");
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = Utilities.parseQuery(String.join("&", args));
+        long hands = Long.parseLong(options.getOrDefault("hands", "100000"));
+        int tables = Integer.parseInt(options.getOrDefault("tables", "1"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        int stack = Integer.parseInt(options.getOrDefault("stack", "500"));
+        BotPolicy[] policies = Arrays.stream(options.getOrDefault("policies", "RANDOM,TIGHT,CALLING_STATION,RANDOM,TIGHT,CALLING_STATION").split(","))
+                .map(String::trim)
+                .map(BotPolicy::valueOf)
+                .toArray(BotPolicy[]::new);
+        if (policies.length < 2) {
+            throw new IllegalArgumentException("At least two policies are required to seat a game");
+        }
+        ENGINE_LOGGER.setLevel(Level.WARNING);
+
+        System.out.printf("Simulating %d hands on %d table(s), seats: %s, seed: %d%n",
+                hands, tables, Arrays.toString(policies), seed);
+        ExecutorService executor = Executors.newFixedThreadPool(tables);
+        List<Future<SimulationReport>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < tables; i++) {
+            long tableId = i + 1;
+            long handsForTable = hands / tables + (i < hands % tables ? 1 : 0);
+            futures.add(executor.submit(() -> runTable(tableId, policies, seed + tableId, stack, handsForTable)));
+        }
+        SimulationReport total = new SimulationReport();
+        for (Future<SimulationReport> future : futures) {
+            total.merge(future.get());
+        }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+        System.out.print(total.format(elapsed));
+    }
+
+    private static SimulationReport runTable(long tableId, BotPolicy[] policies, long seed, int stack, long hands) {
+        ThreadMXBean threadBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        SimulationReport report = new SimulationReport();
+        long allocatedBefore = threadBean.getCurrentThreadAllocatedBytes();
+        new SimulatedTable(tableId, policies, seed, stack, report).run(hands);
+        report.recordAllocatedBytes(threadBean.getCurrentThreadAllocatedBytes() - allocatedBefore);
+        return report;
+    }
+}